@@ -94,6 +94,7 @@ import org.fdroid.fdroid.installer.Installer.AndroidNotCompatibleException;
 import org.fdroid.fdroid.installer.Installer.InstallerCallback;
 import org.fdroid.fdroid.net.ApkDownloader;
 import org.fdroid.fdroid.net.AsyncDownloaderFromAndroid;
+import org.fdroid.fdroid.net.DownloadQueue;
 import org.fdroid.fdroid.net.Downloader;
 
 import java.io.File;
@@ -470,6 +471,7 @@ public class AppDetails extends AppCompatActivity implements ProgressListener, A
                 localBroadcastManager.registerReceiver(downloaderProgressReceiver,
                         new IntentFilter(Downloader.LOCAL_ACTION_PROGRESS));
                 downloadHandler.setProgressListener(this);
+                downloadHandler.setPriority(DownloadQueue.PRIORITY_HIGH);
 
                 if (downloadHandler.getTotalBytes() == 0)
                     mHeaderFragment.startProgress();
@@ -518,6 +520,9 @@ public class AppDetails extends AppCompatActivity implements ProgressListener, A
         localBroadcastManager.unregisterReceiver(downloaderProgressReceiver);
         if (downloadHandler != null) {
             downloadHandler.removeProgressListener();
+
+            // The user isn't looking at this app any more, so it can wait its turn.
+            downloadHandler.setPriority(DownloadQueue.PRIORITY_NORMAL);
         }
 
         mHeaderFragment.removeProgress();
@@ -949,6 +954,7 @@ public class AppDetails extends AppCompatActivity implements ProgressListener, A
         localBroadcastManager.registerReceiver(downloaderProgressReceiver,
                 new IntentFilter(Downloader.LOCAL_ACTION_PROGRESS));
         downloadHandler.setProgressListener(this);
+        downloadHandler.setPriority(DownloadQueue.PRIORITY_HIGH);
         if (downloadHandler.download()) {
             mHeaderFragment.startProgress();
         }
@@ -1259,7 +1265,7 @@ public class AppDetails extends AppCompatActivity implements ProgressListener, A
             App app = getApp();
             // Expandable description
             final TextView description = (TextView) view.findViewById(R.id.description);
-            final Spanned desc = Html.fromHtml(app.description, null, new Utils.HtmlTagHandler());
+            final Spanned desc = Html.fromHtml(AppProvider.Helper.findDescription(getActivity().getContentResolver(), app.packageName), null, new Utils.HtmlTagHandler());
             description.setMovementMethod(SafeLinkMovementMethod.getInstance(getActivity()));
             description.setText(trimNewlines(desc));
             final View viewMoreDescription =  view.findViewById(R.id.view_more_description);
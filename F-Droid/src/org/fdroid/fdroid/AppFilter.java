@@ -25,12 +25,16 @@ public class AppFilter {
     // Return true if the given app should be filtered out based on user
     // preferences, and false otherwise.
     public boolean filter(App app) {
-        if (app.requirements == null) {
+        return filter(app.requirements);
+    }
+
+    public boolean filter(Utils.CommaSeparatedList requirements) {
+        if (requirements == null) {
             return false;
         }
 
         if (!Preferences.get().filterAppsRequiringRoot()) {
-            if (app.requirements.contains("root")) {
+            if (requirements.contains("root")) {
                 return true;
             }
         }
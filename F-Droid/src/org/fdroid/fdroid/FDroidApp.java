@@ -53,7 +53,10 @@ import org.fdroid.fdroid.compat.PRNGFixes;
 import org.fdroid.fdroid.data.AppProvider;
 import org.fdroid.fdroid.data.InstalledAppCacheUpdater;
 import org.fdroid.fdroid.data.Repo;
+import org.fdroid.fdroid.net.ApkCache;
+import org.fdroid.fdroid.net.HttpConnectionPool;
 import org.fdroid.fdroid.net.IconDownloader;
+import org.fdroid.fdroid.net.PartialDownload;
 import org.fdroid.fdroid.net.WifiStateChangeService;
 
 import java.io.File;
@@ -202,6 +205,9 @@ public class FDroidApp extends Application {
         // Apply the Google PRNG fixes to properly seed SecureRandom
         PRNGFixes.apply();
 
+        // Before anything (e.g. the icon loader, or a repo update) opens a connection.
+        HttpConnectionPool.setup();
+
         // Check that the installed app cache hasn't gotten out of sync somehow.
         // e.g. if we crashed/ran out of battery half way through responding
         // to a package installed intent. It doesn't really matter where
@@ -245,10 +251,13 @@ public class FDroidApp extends Application {
         SharedPreferences prefs = PreferenceManager
                 .getDefaultSharedPreferences(getBaseContext());
         curTheme = Theme.valueOf(prefs.getString(Preferences.PREF_THEME, Preferences.DEFAULT_THEME));
-        Utils.deleteFiles(Utils.getApkDownloadDir(this), null, ".apk");
-        if (!Preferences.get().shouldCacheApks()) {
-            Utils.deleteFiles(Utils.getApkCacheDir(this), null, ".apk");
-        }
+        PartialDownload.deleteAllExceptResumable(Utils.getApkDownloadDir(this), ".apk");
+        new Thread() {
+            @Override
+            public void run() {
+                ApkCache.tidy(context);
+            }
+        }.start();
 
         // Index files which downloaded, but were not removed (e.g. due to F-Droid being force
         // closed during processing of the file, before getting a chance to delete). This may
@@ -46,6 +46,7 @@ public final class Preferences implements SharedPreferences.OnSharedPreferenceCh
     public static final String PREF_THEME = "theme";
     public static final String PREF_IGN_TOUCH = "ignoreTouchscreen";
     public static final String PREF_CACHE_APK = "cacheDownloaded";
+    public static final String PREF_CACHE_APK_SIZE = "cacheDownloadedSize";
     public static final String PREF_UNSTABLE_UPDATES = "unstableUpdates";
     public static final String PREF_EXPERT = "expert";
     public static final String PREF_UPD_LAST = "lastUpdateCheck";
@@ -66,6 +67,7 @@ public final class Preferences implements SharedPreferences.OnSharedPreferenceCh
     private static final boolean DEFAULT_PRIVILEGED_INSTALLER = false;
     private static final boolean DEFAULT_LOCAL_REPO_BONJOUR = true;
     private static final boolean DEFAULT_CACHE_APK = false;
+    private static final int DEFAULT_CACHE_APK_SIZE = 256;
     private static final boolean DEFAULT_UNSTABLE_UPDATES = false;
     private static final boolean DEFAULT_LOCAL_REPO_HTTPS = false;
     private static final boolean DEFAULT_INCOMP_VER = false;
@@ -128,6 +130,18 @@ public final class Preferences implements SharedPreferences.OnSharedPreferenceCh
         return preferences.getBoolean(PREF_CACHE_APK, DEFAULT_CACHE_APK);
     }
 
+    /**
+     * @return How many bytes of apks to keep in the cache at most.
+     */
+    public long getApkCacheSize() {
+        final String megabytes = preferences.getString(PREF_CACHE_APK_SIZE, String.valueOf(DEFAULT_CACHE_APK_SIZE));
+        try {
+            return Long.parseLong(megabytes) * 1024 * 1024;
+        } catch (NumberFormatException e) {
+            return DEFAULT_CACHE_APK_SIZE * 1024L * 1024;
+        }
+    }
+
     public boolean getUnstableUpdates() {
         return preferences.getBoolean(PREF_UNSTABLE_UPDATES, DEFAULT_UNSTABLE_UPDATES);
     }
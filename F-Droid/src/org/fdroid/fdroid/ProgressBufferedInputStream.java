@@ -13,9 +13,15 @@ public class ProgressBufferedInputStream extends BufferedInputStream {
 
     final Repo repo;
     final ProgressListener progressListener;
-    final Bundle data;
+    final ProgressThrottle progressThrottle;
     final int totalBytes;
 
+    /**
+     * The same event is sent each time with the progress updated, rather than making a new
+     * one (and a new {@link Bundle}) for every update.
+     */
+    final ProgressListener.Event event;
+
     int currentBytes;
 
     /**
@@ -24,28 +30,36 @@ public class ProgressBufferedInputStream extends BufferedInputStream {
      */
     public ProgressBufferedInputStream(InputStream in, ProgressListener progressListener, Repo repo, int totalBytes)
             throws IOException {
+        this(in, progressListener, new ProgressThrottle(), repo, totalBytes);
+    }
+
+    /**
+     * @param progressThrottle Decides how often the {@link ProgressListener} hears about
+     * the progress.
+     */
+    public ProgressBufferedInputStream(InputStream in, ProgressListener progressListener, ProgressThrottle progressThrottle,
+                                       Repo repo, int totalBytes) throws IOException {
         super(in);
         this.progressListener = progressListener;
+        this.progressThrottle = progressThrottle;
         this.repo = repo;
-        this.data = new Bundle(1);
-        this.data.putString(RepoUpdater.PROGRESS_DATA_REPO_ADDRESS, repo.address);
         this.totalBytes = totalBytes;
+
+        Bundle data = new Bundle(1);
+        data.putString(RepoUpdater.PROGRESS_DATA_REPO_ADDRESS, repo.address);
+        this.event = new ProgressListener.Event(RepoUpdater.PROGRESS_TYPE_PROCESS_XML, 0, totalBytes, data);
     }
 
     @Override
     public int read(byte[] buffer, int byteOffset, int byteCount) throws IOException {
-        if (progressListener != null) {
-            currentBytes += byteCount;
-            /* don't send every change to keep things efficient.  333333 bytes to keep all
-             * the digits changing because it looks pretty, < 9000 since the reads won't
-             * line up exactly */
-            if (currentBytes % 333333 < 9000) {
-                progressListener.onProgress(
-                        new ProgressListener.Event(
-                                RepoUpdater.PROGRESS_TYPE_PROCESS_XML,
-                                currentBytes, totalBytes, data));
+        int count = super.read(buffer, byteOffset, byteCount);
+        if (progressListener != null && count > 0) {
+            currentBytes += count;
+            if (progressThrottle.shouldReport(currentBytes, totalBytes)) {
+                event.progress = currentBytes;
+                progressListener.onProgress(event);
             }
         }
-        return super.read(buffer, byteOffset, byteCount);
+        return count;
     }
 }
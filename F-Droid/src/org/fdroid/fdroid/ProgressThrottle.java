@@ -0,0 +1,72 @@
+package org.fdroid.fdroid;
+
+import android.os.SystemClock;
+
+/**
+ * Decides which progress updates are worth passing on. Downloads and index processing see
+ * progress after every buffer they read, which on a fast connection is thousands of times a
+ * second, far more than a progress bar or notification can usefully show. Anything which is
+ * passed on is only passed on once {@link #getIntervalMs()} has gone by since the last update,
+ * and (when the total is known) once it has moved on by at least {@link #getPercentStep()}.
+ * The very first update, and the one which reaches the total, are always passed on.
+ *
+ * Not thread safe, each stream of progress updates needs its own.
+ */
+public class ProgressThrottle {
+
+    public static final long DEFAULT_INTERVAL_MS = 100;
+    public static final int DEFAULT_PERCENT_STEP = 1;
+
+    private final long intervalMs;
+    private final int percentStep;
+
+    private boolean hasReported;
+    private long lastReportedAt;
+    private int lastReportedPercent;
+
+    public ProgressThrottle() {
+        this(DEFAULT_INTERVAL_MS, DEFAULT_PERCENT_STEP);
+    }
+
+    /**
+     * @param intervalMs The least time between two updates, or 0 for no limit.
+     * @param percentStep How far through the total each update has to be from the last one,
+     * or 0 for no limit.
+     */
+    public ProgressThrottle(long intervalMs, int percentStep) {
+        this.intervalMs = intervalMs;
+        this.percentStep = percentStep;
+    }
+
+    public long getIntervalMs() {
+        return intervalMs;
+    }
+
+    public int getPercentStep() {
+        return percentStep;
+    }
+
+    /**
+     * @param total Less than or equal to zero if it isn't known.
+     * @return Whether this update should be passed on. If so, it is treated as having been.
+     */
+    public boolean shouldReport(int progress, int total) {
+        final long now = SystemClock.elapsedRealtime();
+        final int percent = total > 0 ? (int) ((long) progress * 100 / total) : -1;
+        final boolean finished = total > 0 && progress >= total;
+
+        if (hasReported && !finished) {
+            if (now - lastReportedAt < intervalMs) {
+                return false;
+            }
+            if (percent >= 0 && percent - lastReportedPercent < percentStep) {
+                return false;
+            }
+        }
+
+        hasReported = true;
+        lastReportedAt = now;
+        lastReportedPercent = percent;
+        return true;
+    }
+}
@@ -0,0 +1,115 @@
+package org.fdroid.fdroid;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.support.v4.content.LocalBroadcastManager;
+
+import org.fdroid.fdroid.data.Repo;
+import org.fdroid.fdroid.data.RepoProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Removes the apks and apps belonging to a repo which has been disabled or deleted. For large
+ * repos this takes a number of seconds, so it is done here rather than on the UI thread. Each
+ * purge runs in a single transaction, so the app lists either show all of the apps from the
+ * repo or none of them, never something in between.
+ *
+ * Broadcasts {@link #LOCAL_ACTION_STATUS} when each purge starts and finishes, and
+ * {@link #isPurging(long)} says whether one is still to finish, so that
+ * {@link org.fdroid.fdroid.views.ManageReposActivity} can show which repos are busy.
+ */
+public class RepoPurgeService extends IntentService {
+
+    private static final String TAG = "RepoPurgeService";
+
+    public static final String LOCAL_ACTION_STATUS = "org.fdroid.fdroid.action.REPO_PURGE_STATUS";
+
+    public static final String EXTRA_STATUS_CODE = "status";
+    public static final String EXTRA_REPO_ID = "repoId";
+    public static final String EXTRA_REPO_NAME = "repoName";
+    public static final String EXTRA_REMOVE = "remove";
+    public static final String EXTRA_APP_COUNT = "appCount";
+
+    public static final int STATUS_STARTED = 0;
+    public static final int STATUS_COMPLETE = 1;
+
+    /**
+     * Repos which have been asked to be purged or removed, but haven't been yet. The same repo
+     * is in here more than once if it has been asked for again in the meantime.
+     */
+    private static final List<Long> PENDING = new ArrayList<>();
+
+    public RepoPurgeService() {
+        super("RepoPurgeService");
+    }
+
+    /**
+     * Removes all apks belonging to a repo which has just been disabled. If the repo has been
+     * enabled again by the time this gets around to it, then nothing is done.
+     */
+    public static void purge(Context context, Repo repo) {
+        start(context, repo, false);
+    }
+
+    /**
+     * Deletes the repo, along with all of its apks.
+     */
+    public static void remove(Context context, Repo repo) {
+        start(context, repo, true);
+    }
+
+    public static boolean isPurging(long repoId) {
+        synchronized (PENDING) {
+            return PENDING.contains(repoId);
+        }
+    }
+
+    private static void start(Context context, Repo repo, boolean remove) {
+        synchronized (PENDING) {
+            PENDING.add(repo.getId());
+        }
+        Intent intent = new Intent(context, RepoPurgeService.class);
+        intent.putExtra(EXTRA_REPO_ID, repo.getId());
+        intent.putExtra(EXTRA_REPO_NAME, repo.getName());
+        intent.putExtra(EXTRA_REMOVE, remove);
+        context.startService(intent);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        final long repoId = intent.getLongExtra(EXTRA_REPO_ID, -1);
+        final boolean remove = intent.getBooleanExtra(EXTRA_REMOVE, false);
+        final Intent status = new Intent(LOCAL_ACTION_STATUS);
+        status.putExtras(intent);
+
+        sendStatus(status, STATUS_STARTED);
+
+        int appCount = 0;
+        final long startTime = System.currentTimeMillis();
+        if (remove) {
+            appCount = RepoProvider.Helper.remove(this, repoId);
+        } else {
+            final Repo repo = RepoProvider.Helper.findById(this, repoId);
+            if (repo == null || repo.inuse) {
+                Utils.debugLog(TAG, "Not purging repo " + repoId + " because it has since been deleted or enabled again.");
+            } else {
+                appCount = RepoProvider.Helper.purgeApps(this, repo);
+            }
+        }
+        Utils.debugLog(TAG, "Purged repo " + repoId + " in " + (System.currentTimeMillis() - startTime) + "ms");
+
+        synchronized (PENDING) {
+            PENDING.remove(Long.valueOf(repoId));
+        }
+        status.putExtra(EXTRA_APP_COUNT, appCount);
+        sendStatus(status, STATUS_COMPLETE);
+    }
+
+    private void sendStatus(Intent status, int statusCode) {
+        status.putExtra(EXTRA_STATUS_CODE, statusCode);
+        LocalBroadcastManager.getInstance(this).sendBroadcast(status);
+    }
+}
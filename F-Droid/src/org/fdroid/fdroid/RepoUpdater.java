@@ -58,8 +58,11 @@ public class RepoUpdater {
     @NonNull protected final Repo repo;
     protected boolean hasChanged;
     @Nullable protected ProgressListener progressListener;
+    @Nullable protected Downloader.OnProgressListener downloadProgressListener;
     private String cacheTag;
     private X509Certificate signingCertFromJar;
+    private long processingStartTime;
+    private long indexSize;
 
     @NonNull private final RepoPersister persister;
 
@@ -78,6 +81,14 @@ public class RepoUpdater {
         this.progressListener = progressListener;
     }
 
+    /**
+     * Receives the progress of downloading the index directly, instead of it being broadcast
+     * as {@link Downloader#LOCAL_ACTION_PROGRESS}. See {@link Downloader#setOnProgressListener}.
+     */
+    public void setDownloadProgressListener(@Nullable Downloader.OnProgressListener downloadProgressListener) {
+        this.downloadProgressListener = downloadProgressListener;
+    }
+
     public boolean hasChanged() {
         return hasChanged;
     }
@@ -99,6 +110,7 @@ public class RepoUpdater {
                 repo.getCredentials()
             );
             downloader.setCacheTag(repo.lastetag);
+            downloader.setOnProgressListener(downloadProgressListener);
             downloader.downloadUninterrupted();
 
             if (downloader.isCached()) {
@@ -167,6 +179,9 @@ public class RepoUpdater {
             if (downloadedFile == null || !downloadedFile.exists())
                 throw new UpdateException(repo, downloadedFile + " does not exist!");
 
+            processingStartTime = System.currentTimeMillis();
+            indexSize = downloadedFile.length();
+
             // Due to a bug in Android 5.0 Lollipop, the inclusion of spongycastle causes
             // breakage when verifying the signature of the downloaded .jar. For more
             // details, check out https://gitlab.com/fdroid/fdroidclient/issues/111.
@@ -208,7 +223,7 @@ public class RepoUpdater {
         if (progressListener != null) {
             progressListener.onProgress(new ProgressListener.Event(PROGRESS_COMMITTING));
         }
-        persister.commit(repoDetailsToSave);
+        persister.commit(repoDetailsToSave, System.currentTimeMillis() - processingStartTime, indexSize);
     }
 
     private void assertSigningCertFromXmlCorrect() throws SigningException {
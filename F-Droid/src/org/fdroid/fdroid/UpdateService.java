@@ -40,17 +40,20 @@ import android.text.TextUtils;
 import android.util.Log;
 import android.widget.Toast;
 
-import org.fdroid.fdroid.data.ApkProvider;
 import org.fdroid.fdroid.data.App;
 import org.fdroid.fdroid.data.AppProvider;
+import org.fdroid.fdroid.data.DatabaseMaintenance;
 import org.fdroid.fdroid.data.Repo;
 import org.fdroid.fdroid.data.RepoProvider;
 import org.fdroid.fdroid.net.Downloader;
+import org.fdroid.fdroid.net.HttpConnectionPool;
+import org.fdroid.fdroid.net.TlsSessions;
 
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
 
-public class UpdateService extends IntentService implements ProgressListener {
+public class UpdateService extends IntentService implements ProgressListener, Downloader.OnProgressListener {
 
     private static final String TAG = "UpdateService";
 
@@ -127,8 +130,6 @@ public class UpdateService extends IntentService implements ProgressListener {
         super.onCreate();
 
         localBroadcastManager = LocalBroadcastManager.getInstance(this);
-        localBroadcastManager.registerReceiver(downloadProgressReceiver,
-                new IntentFilter(Downloader.LOCAL_ACTION_PROGRESS));
         localBroadcastManager.registerReceiver(updateStatusReceiver,
                 new IntentFilter(LOCAL_ACTION_STATUS));
 
@@ -158,7 +159,6 @@ public class UpdateService extends IntentService implements ProgressListener {
     public void onDestroy() {
         super.onDestroy();
         notificationManager.cancel(NOTIFY_ID_UPDATING);
-        localBroadcastManager.unregisterReceiver(downloadProgressReceiver);
         localBroadcastManager.unregisterReceiver(updateStatusReceiver);
     }
 
@@ -186,33 +186,6 @@ public class UpdateService extends IntentService implements ProgressListener {
         LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
     }
 
-    private final BroadcastReceiver downloadProgressReceiver = new BroadcastReceiver() {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            String action = intent.getAction();
-            if (TextUtils.isEmpty(action))
-                return;
-
-            if (!action.equals(Downloader.LOCAL_ACTION_PROGRESS))
-                return;
-
-            String repoAddress = intent.getStringExtra(Downloader.EXTRA_ADDRESS);
-            int downloadedSize = intent.getIntExtra(Downloader.EXTRA_BYTES_READ, -1);
-            String downloadedSizeFriendly = Utils.getFriendlySize(downloadedSize);
-            int totalSize = intent.getIntExtra(Downloader.EXTRA_TOTAL_BYTES, -1);
-            int percent = (int) ((double) downloadedSize / totalSize * 100);
-            String message;
-            if (totalSize == -1) {
-                message = getString(R.string.status_download_unknown_size, repoAddress, downloadedSizeFriendly);
-                percent = -1;
-            } else {
-                String totalSizeFriendly = Utils.getFriendlySize(totalSize);
-                message = getString(R.string.status_download, repoAddress, downloadedSizeFriendly, totalSizeFriendly, percent);
-            }
-            sendStatus(context, STATUS_INFO, message, percent);
-        }
-    };
-
     // For receiving results from the UpdateService when we've told it to
     // update in response to a user request.
     private final BroadcastReceiver updateStatusReceiver = new BroadcastReceiver() {
@@ -373,6 +346,7 @@ public class UpdateService extends IntentService implements ProgressListener {
                 sendStatus(this, STATUS_INFO, getString(R.string.status_connecting_to_repo, repo.address));
                 RepoUpdater updater = new RepoUpdater(getBaseContext(), repo);
                 updater.setProgressListener(this);
+                updater.setDownloadProgressListener(this);
                 try {
                     updater.update();
                     if (updater.hasChanged()) {
@@ -391,8 +365,7 @@ public class UpdateService extends IntentService implements ProgressListener {
             if (!changes) {
                 Utils.debugLog(TAG, "Not checking app details or compatibility, because all repos were up to date.");
             } else {
-                notifyContentProviders();
-
+                // Observers were already notified as each repo's changes were committed.
                 if (prefs.getBoolean(Preferences.PREF_UPD_NOTIFY, true)) {
                     performUpdateNotification();
                 }
@@ -415,6 +388,12 @@ public class UpdateService extends IntentService implements ProgressListener {
                     sendRepoErrorStatus(STATUS_ERROR_LOCAL_SMALL, repoErrors);
                 }
             }
+
+            // Nobody is waiting on a scheduled update, so it is a good time to tidy up
+            // after all of the rows that updates and repo purges have replaced.
+            if (!manualUpdate) {
+                DatabaseMaintenance.performIfDue(this);
+            }
         } catch (Exception e) {
             Log.e(TAG, "Exception during update processing", e);
             sendStatus(this, STATUS_ERROR_GLOBAL, e.getMessage());
@@ -422,11 +401,12 @@ public class UpdateService extends IntentService implements ProgressListener {
 
         long time = System.currentTimeMillis() - startTime;
         Log.i(TAG, "Updating repo(s) complete, took " + time / 1000 + " seconds to complete.");
-    }
-
-    private void notifyContentProviders() {
-        getContentResolver().notifyChange(AppProvider.getContentUri(), null);
-        getContentResolver().notifyChange(ApkProvider.getContentUri(), null);
+        Utils.debugLog(TAG, "HTTP connections: " + HttpConnectionPool.getReusedCount() + " of "
+                + HttpConnectionPool.getRequestCount() + " requests could reuse a connection, "
+                + HttpConnectionPool.getWaitedCount() + " waited for one.");
+        for (final TlsSessions.HostStats stats : TlsSessions.getStats()) {
+            Utils.debugLog(TAG, "TLS " + stats);
+        }
     }
 
     private void performUpdateNotification() {
@@ -517,4 +497,24 @@ public class UpdateService extends IntentService implements ProgressListener {
         }
         sendStatus(this, STATUS_INFO, message, percent);
     }
+
+    /**
+     * Progress of downloading an index, straight from the {@link Downloader}, see
+     * {@link RepoUpdater#setDownloadProgressListener(Downloader.OnProgressListener)}.
+     */
+    @Override
+    public void onProgress(URL sourceUrl, int bytesRead, int totalBytes) {
+        String repoAddress = sourceUrl.toString();
+        String downloadedSizeFriendly = Utils.getFriendlySize(bytesRead);
+        int percent = (int) ((double) bytesRead / totalBytes * 100);
+        String message;
+        if (totalBytes == -1) {
+            message = getString(R.string.status_download_unknown_size, repoAddress, downloadedSizeFriendly);
+            percent = -1;
+        } else {
+            String totalSizeFriendly = Utils.getFriendlySize(totalBytes);
+            message = getString(R.string.status_download, repoAddress, downloadedSizeFriendly, totalSizeFriendly, percent);
+        }
+        sendStatus(this, STATUS_INFO, message, percent);
+    }
 }
@@ -26,6 +26,7 @@ import android.graphics.Bitmap;
 import android.net.Uri;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.v4.util.LruCache;
 import android.text.Editable;
 import android.text.Html;
 import android.text.TextUtils;
@@ -61,11 +62,15 @@ import java.security.cert.CertificateEncodingException;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Formatter;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 
 public final class Utils {
 
@@ -422,11 +427,52 @@ public final class Utils {
         return repoAddress + "/" + apk.apkName.replace(" ", "%20");
     }
 
+    /**
+     * An immutable list of strings, stored in the database as a single comma separated string.
+     * The string is split once, when the list is made, rather than every time it is iterated
+     * or searched. Lists are looked at over and over again (e.g. the requirements of each app
+     * as the list of apps scrolls, and the features of each apk when checking compatibility),
+     * and the same lists turn up again and again, so identical lists share the one instance,
+     * and the items themselves are interned.
+     */
     public static final class CommaSeparatedList implements Iterable<String> {
+
+        /**
+         * Looking through a handful of items is quicker than hashing the one being looked for,
+         * but apks can request dozens of permissions.
+         */
+        private static final int MIN_ITEMS_TO_HASH = 8;
+
+        private static final int MAX_SHARED_INSTANCES = 500;
+
+        private static final LruCache<String, CommaSeparatedList> INSTANCES = new LruCache<>(MAX_SHARED_INSTANCES);
+
         private final String value;
+        private final String[] items;
+        private final Set<String> itemSet;
 
         private CommaSeparatedList(String list) {
             value = list;
+            items = split(list);
+            itemSet = items.length < MIN_ITEMS_TO_HASH ? null : new HashSet<>(Arrays.asList(items));
+        }
+
+        /**
+         * Splits the same way as {@link TextUtils.SimpleStringSplitter}, which is what this
+         * used to be iterated with: empty items are kept, except for a single trailing one.
+         */
+        private static String[] split(String list) {
+            final List<String> items = new ArrayList<>();
+            int start = 0;
+            while (start < list.length()) {
+                int end = list.indexOf(',', start);
+                if (end == -1) {
+                    end = list.length();
+                }
+                items.add(list.substring(start, end).intern());
+                start = end + 1;
+            }
+            return items.toArray(new String[items.size()]);
         }
 
         public static CommaSeparatedList make(List<String> list) {
@@ -439,7 +485,7 @@ public final class Utils {
                 }
                 sb.append(list.get(i));
             }
-            return new CommaSeparatedList(sb.toString());
+            return make(sb.toString());
         }
 
         public static CommaSeparatedList make(String[] list) {
@@ -452,14 +498,19 @@ public final class Utils {
                 }
                 sb.append(list[i]);
             }
-            return new CommaSeparatedList(sb.toString());
+            return make(sb.toString());
         }
 
         @Nullable
         public static CommaSeparatedList make(@Nullable String list) {
             if (TextUtils.isEmpty(list))
                 return null;
-            return new CommaSeparatedList(list);
+            CommaSeparatedList instance = INSTANCES.get(list);
+            if (instance == null) {
+                instance = new CommaSeparatedList(list);
+                INSTANCES.put(list, instance);
+            }
+            return instance;
         }
 
         public static String str(CommaSeparatedList instance) {
@@ -475,15 +526,20 @@ public final class Utils {
             return value.replaceAll(",", ", ");
         }
 
+        public int size() {
+            return items.length;
+        }
+
         @Override
         public Iterator<String> iterator() {
-            TextUtils.SimpleStringSplitter splitter = new TextUtils.SimpleStringSplitter(',');
-            splitter.setString(value);
-            return splitter.iterator();
+            return Arrays.asList(items).iterator();
         }
 
         public boolean contains(String v) {
-            for (final String s : this) {
+            if (itemSet != null) {
+                return itemSet.contains(v);
+            }
+            for (final String s : items) {
                 if (s.equals(v))
                     return true;
             }
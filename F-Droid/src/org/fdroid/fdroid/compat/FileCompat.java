@@ -8,6 +8,7 @@ import android.util.Log;
 import org.fdroid.fdroid.Utils;
 import org.fdroid.fdroid.data.SanitizedFile;
 
+import java.io.FileDescriptor;
 import java.io.IOException;
 import java.lang.reflect.Method;
 
@@ -46,6 +47,39 @@ public class FileCompat extends Compatibility {
 
     }
 
+    /**
+     * Reserves the space for {@code length} bytes of a file from {@code offset}, see
+     * posix_fallocate(3), which makes the file at least {@code offset + length} bytes long.
+     * Only possible from Lollipop.
+     * @return Whether the space was reserved, false if it isn't supported here (e.g. a FAT
+     * file system on an SD card).
+     * @throws IOException If there isn't enough space.
+     */
+    public static boolean fallocate(FileDescriptor fd, long offset, long length) throws IOException {
+        return hasApi(21) && new Fallocate21().fallocate(fd, offset, length);
+    }
+
+    /**
+     * A separate class for the same reason as {@link Symlink21}, catching an
+     * {@link ErrnoException} would cause a VerifyError on older phones too.
+     */
+    private static class Fallocate21 {
+
+        @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+        public boolean fallocate(FileDescriptor fd, long offset, long length) throws IOException {
+            try {
+                android.system.Os.posix_fallocate(fd, offset, length);
+                return true;
+            } catch (ErrnoException e) {
+                if (e.errno == android.system.OsConstants.ENOSPC) {
+                    throw new IOException("Not enough space for " + (offset + length) + " bytes");
+                }
+                return false;
+            }
+        }
+
+    }
+
     @TargetApi(21)
     protected static void symlinkOs(SanitizedFile source, SanitizedFile dest) {
         new Symlink21().symlink(source, dest);
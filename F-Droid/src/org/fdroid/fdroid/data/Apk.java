@@ -9,6 +9,50 @@ import java.util.Date;
 
 public class Apk extends ValueObject implements Comparable<Apk> {
 
+    // Identifies which field each column of a cursor is read into, see ColumnMapping.
+    private static final int FIELD_HASH = 0;
+    private static final int FIELD_HASH_TYPE = 1;
+    private static final int FIELD_ADDED_DATE = 2;
+    private static final int FIELD_FEATURES = 3;
+    private static final int FIELD_PACKAGE_NAME = 4;
+    private static final int FIELD_IS_COMPATIBLE = 5;
+    private static final int FIELD_MIN_SDK_VERSION = 6;
+    private static final int FIELD_MAX_SDK_VERSION = 7;
+    private static final int FIELD_NAME = 8;
+    private static final int FIELD_PERMISSIONS = 9;
+    private static final int FIELD_NATIVE_CODE = 10;
+    private static final int FIELD_INCOMPATIBLE_REASONS = 11;
+    private static final int FIELD_REPO_ID = 12;
+    private static final int FIELD_SIGNATURE = 13;
+    private static final int FIELD_SIZE = 14;
+    private static final int FIELD_SOURCE_NAME = 15;
+    private static final int FIELD_VERSION = 16;
+    private static final int FIELD_VERSION_CODE = 17;
+    private static final int FIELD_REPO_VERSION = 18;
+    private static final int FIELD_REPO_ADDRESS = 19;
+
+    private static final ColumnMapping COLUMN_MAPPING = new ColumnMapping()
+            .map(ApkProvider.DataColumns.HASH, FIELD_HASH)
+            .map(ApkProvider.DataColumns.HASH_TYPE, FIELD_HASH_TYPE)
+            .map(ApkProvider.DataColumns.ADDED_DATE, FIELD_ADDED_DATE)
+            .map(ApkProvider.DataColumns.FEATURES, FIELD_FEATURES)
+            .map(ApkProvider.DataColumns.PACKAGE_NAME, FIELD_PACKAGE_NAME)
+            .map(ApkProvider.DataColumns.IS_COMPATIBLE, FIELD_IS_COMPATIBLE)
+            .map(ApkProvider.DataColumns.MIN_SDK_VERSION, FIELD_MIN_SDK_VERSION)
+            .map(ApkProvider.DataColumns.MAX_SDK_VERSION, FIELD_MAX_SDK_VERSION)
+            .map(ApkProvider.DataColumns.NAME, FIELD_NAME)
+            .map(ApkProvider.DataColumns.PERMISSIONS, FIELD_PERMISSIONS)
+            .map(ApkProvider.DataColumns.NATIVE_CODE, FIELD_NATIVE_CODE)
+            .map(ApkProvider.DataColumns.INCOMPATIBLE_REASONS, FIELD_INCOMPATIBLE_REASONS)
+            .map(ApkProvider.DataColumns.REPO_ID, FIELD_REPO_ID)
+            .map(ApkProvider.DataColumns.SIGNATURE, FIELD_SIGNATURE)
+            .map(ApkProvider.DataColumns.SIZE, FIELD_SIZE)
+            .map(ApkProvider.DataColumns.SOURCE_NAME, FIELD_SOURCE_NAME)
+            .map(ApkProvider.DataColumns.VERSION, FIELD_VERSION)
+            .map(ApkProvider.DataColumns.VERSION_CODE, FIELD_VERSION_CODE)
+            .map(ApkProvider.DataColumns.REPO_VERSION, FIELD_REPO_VERSION)
+            .map(ApkProvider.DataColumns.REPO_ADDRESS, FIELD_REPO_ADDRESS);
+
     public String packageName;
     public String version;
     public int vercode;
@@ -50,66 +94,67 @@ public class Apk extends ValueObject implements Comparable<Apk> {
 
         checkCursorPosition(cursor);
 
-        for (int i = 0; i < cursor.getColumnCount(); i++) {
-            switch (cursor.getColumnName(i)) {
-                case ApkProvider.DataColumns.HASH:
+        final int[] fields = COLUMN_MAPPING.fieldsFor(cursor);
+        for (int i = 0; i < fields.length; i++) {
+            switch (fields[i]) {
+                case FIELD_HASH:
                     hash = cursor.getString(i);
                     break;
-                case ApkProvider.DataColumns.HASH_TYPE:
+                case FIELD_HASH_TYPE:
                     hashType = cursor.getString(i);
                     break;
-                case ApkProvider.DataColumns.ADDED_DATE:
+                case FIELD_ADDED_DATE:
                     added = Utils.parseDate(cursor.getString(i), null);
                     break;
-                case ApkProvider.DataColumns.FEATURES:
+                case FIELD_FEATURES:
                     features = Utils.CommaSeparatedList.make(cursor.getString(i));
                     break;
-                case ApkProvider.DataColumns.PACKAGE_NAME:
+                case FIELD_PACKAGE_NAME:
                     packageName = cursor.getString(i);
                     break;
-                case ApkProvider.DataColumns.IS_COMPATIBLE:
+                case FIELD_IS_COMPATIBLE:
                     compatible = cursor.getInt(i) == 1;
                     break;
-                case ApkProvider.DataColumns.MIN_SDK_VERSION:
+                case FIELD_MIN_SDK_VERSION:
                     minSdkVersion = cursor.getInt(i);
                     break;
-                case ApkProvider.DataColumns.MAX_SDK_VERSION:
+                case FIELD_MAX_SDK_VERSION:
                     maxSdkVersion = cursor.getInt(i);
                     break;
-                case ApkProvider.DataColumns.NAME:
+                case FIELD_NAME:
                     apkName = cursor.getString(i);
                     break;
-                case ApkProvider.DataColumns.PERMISSIONS:
+                case FIELD_PERMISSIONS:
                     permissions = Utils.CommaSeparatedList.make(cursor.getString(i));
                     break;
-                case ApkProvider.DataColumns.NATIVE_CODE:
+                case FIELD_NATIVE_CODE:
                     nativecode = Utils.CommaSeparatedList.make(cursor.getString(i));
                     break;
-                case ApkProvider.DataColumns.INCOMPATIBLE_REASONS:
+                case FIELD_INCOMPATIBLE_REASONS:
                     incompatibleReasons = Utils.CommaSeparatedList.make(cursor.getString(i));
                     break;
-                case ApkProvider.DataColumns.REPO_ID:
+                case FIELD_REPO_ID:
                     repo = cursor.getInt(i);
                     break;
-                case ApkProvider.DataColumns.SIGNATURE:
+                case FIELD_SIGNATURE:
                     sig = cursor.getString(i);
                     break;
-                case ApkProvider.DataColumns.SIZE:
+                case FIELD_SIZE:
                     size = cursor.getInt(i);
                     break;
-                case ApkProvider.DataColumns.SOURCE_NAME:
+                case FIELD_SOURCE_NAME:
                     srcname = cursor.getString(i);
                     break;
-                case ApkProvider.DataColumns.VERSION:
+                case FIELD_VERSION:
                     version = cursor.getString(i);
                     break;
-                case ApkProvider.DataColumns.VERSION_CODE:
+                case FIELD_VERSION_CODE:
                     vercode = cursor.getInt(i);
                     break;
-                case ApkProvider.DataColumns.REPO_VERSION:
+                case FIELD_REPO_VERSION:
                     repoVersion = cursor.getInt(i);
                     break;
-                case ApkProvider.DataColumns.REPO_ADDRESS:
+                case FIELD_REPO_ADDRESS:
                     repoAddress = cursor.getString(i);
                     break;
             }
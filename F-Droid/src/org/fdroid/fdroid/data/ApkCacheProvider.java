@@ -0,0 +1,199 @@
+package org.fdroid.fdroid.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The index of the apks kept in {@link org.fdroid.fdroid.Utils#getApkCacheDir(Context)}, one
+ * row per file, keyed by its SHA-256 hash. See {@link org.fdroid.fdroid.net.ApkCache}, which
+ * looks after the files themselves.
+ */
+public class ApkCacheProvider extends FDroidProvider {
+
+    private static final String TAG = "ApkCacheProvider";
+
+    public static class Helper {
+
+        private Helper() { }
+
+        /**
+         * @return The size of the cached apk with this hash, or -1 if there isn't one.
+         */
+        public static long findSize(Context context, String hash) {
+            final String[] projection = {DataColumns.SIZE};
+            Cursor cursor = context.getContentResolver().query(getHashUri(hash), projection, null, null, null);
+            long size = -1;
+            if (cursor != null) {
+                if (cursor.moveToFirst()) {
+                    size = cursor.getLong(0);
+                }
+                cursor.close();
+            }
+            return size;
+        }
+
+        /**
+         * @return The size of each cached apk, keyed by hash, starting with the one which has
+         * gone unused the longest.
+         */
+        public static Map<String, Long> all(Context context) {
+            final String[] projection = {DataColumns.HASH, DataColumns.SIZE};
+            Cursor cursor = context.getContentResolver().query(getContentUri(), projection, null, null, DataColumns.LAST_USED);
+            Map<String, Long> sizes = new LinkedHashMap<>();
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    sizes.put(cursor.getString(0), cursor.getLong(1));
+                }
+                cursor.close();
+            }
+            return sizes;
+        }
+
+        public static void add(Context context, String hash, long size) {
+            ContentValues values = new ContentValues(3);
+            values.put(DataColumns.HASH, hash);
+            values.put(DataColumns.SIZE, size);
+            values.put(DataColumns.LAST_USED, System.currentTimeMillis());
+            context.getContentResolver().insert(getContentUri(), values);
+        }
+
+        public static void markUsed(Context context, String hash) {
+            ContentValues values = new ContentValues(1);
+            values.put(DataColumns.LAST_USED, System.currentTimeMillis());
+            context.getContentResolver().update(getHashUri(hash), values, null, null);
+        }
+
+        public static void remove(Context context, String hash) {
+            context.getContentResolver().delete(getHashUri(hash), null, null);
+        }
+
+        public static void removeAll(Context context) {
+            context.getContentResolver().delete(getContentUri(), null, null);
+        }
+    }
+
+    public interface DataColumns {
+
+        String _ID = "rowid as _id"; // Required for CursorLoaders
+        String HASH = "hash";
+        String SIZE = "size";
+        String LAST_USED = "lastUsed";
+
+        String[] ALL = {_ID, HASH, SIZE, LAST_USED};
+    }
+
+    private static final String PROVIDER_NAME = "ApkCacheProvider";
+
+    private static final UriMatcher matcher = new UriMatcher(-1);
+
+    static {
+        matcher.addURI(getAuthority(), null, CODE_LIST);
+        matcher.addURI(getAuthority(), "*", CODE_SINGLE);
+    }
+
+    public static Uri getContentUri() {
+        return Uri.parse("content://" + getAuthority());
+    }
+
+    public static Uri getHashUri(String hash) {
+        return Uri.withAppendedPath(getContentUri(), hash);
+    }
+
+    public static String getAuthority() {
+        return AUTHORITY + "." + PROVIDER_NAME;
+    }
+
+    @Override
+    protected String getTableName() {
+        return DBHelper.TABLE_APK_CACHE;
+    }
+
+    @Override
+    protected String getProviderName() {
+        return PROVIDER_NAME;
+    }
+
+    @Override
+    protected UriMatcher getMatcher() {
+        return matcher;
+    }
+
+    /**
+     * None of the lookups in {@link LookupCache} read from the cache table.
+     */
+    @Override
+    protected void invalidateLookupCache() {
+    }
+
+    private QuerySelection queryHash(String hash) {
+        return new QuerySelection(DataColumns.HASH + " = ?", new String[] {hash});
+    }
+
+    private QuerySelection querySelection(Uri uri, String customSelection, String[] selectionArgs) {
+        QuerySelection selection = new QuerySelection(customSelection, selectionArgs);
+        switch (matcher.match(uri)) {
+            case CODE_LIST:
+                return selection;
+
+            case CODE_SINGLE:
+                return selection.add(queryHash(uri.getLastPathSegment()));
+
+            default:
+                String message = "Invalid URI for apk cache content provider: " + uri;
+                Log.e(TAG, message);
+                throw new UnsupportedOperationException(message);
+        }
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String customSelection, String[] selectionArgs, String sortOrder) {
+        QuerySelection selection = querySelection(uri, customSelection, selectionArgs);
+        Cursor cursor = read().query(getTableName(), projection, selection.getSelection(), selection.getArgs(), null, null, sortOrder);
+        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        return cursor;
+    }
+
+    /**
+     * Replaces the row for the same hash, if there already is one.
+     */
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        if (matcher.match(uri) != CODE_LIST) {
+            throw new UnsupportedOperationException("Insert not supported for " + uri + ".");
+        }
+
+        validateFields(DataColumns.ALL, values);
+        write().replaceOrThrow(getTableName(), null, values);
+        final Uri hashUri = getHashUri(values.getAsString(DataColumns.HASH));
+        notifyChange(hashUri);
+        return hashUri;
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String where, String[] whereArgs) {
+        if (matcher.match(uri) != CODE_SINGLE) {
+            throw new UnsupportedOperationException("Update not supported for " + uri + ".");
+        }
+
+        validateFields(DataColumns.ALL, values);
+        QuerySelection selection = querySelection(uri, where, whereArgs);
+        int count = write().update(getTableName(), values, selection.getSelection(), selection.getArgs());
+        notifyChange(uri);
+        return count;
+    }
+
+    @Override
+    public int delete(Uri uri, String where, String[] whereArgs) {
+        QuerySelection selection = querySelection(uri, where, whereArgs);
+        int count = write().delete(getTableName(), selection.getSelection(), selection.getArgs());
+        notifyChange(uri);
+        return count;
+    }
+}
@@ -0,0 +1,195 @@
+package org.fdroid.fdroid.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.v4.util.LruCache;
+import android.text.TextUtils;
+import android.util.SparseArray;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The permissions, features and native code of each apk are stored as a comma separated list
+ * of ids (e.g. "3,17,42") which point into {@link DBHelper#TABLE_APK_DICTIONARY}, rather than
+ * as the names themselves. There are only a few hundred distinct names across an entire repo,
+ * but each of them is repeated in thousands of apks.
+ *
+ * Rows in the dictionary are never changed or deleted, so once an id has been seen, it will mean
+ * the same thing for as long as the database exists. Each provider can therefore keep the whole
+ * dictionary in memory, and only needs to read it again when it comes across an id it doesn't
+ * know yet (i.e. one added by another provider, such as {@link TempApkProvider}). The one
+ * exception is a transaction which gets rolled back, see {@link #clear()}.
+ */
+final class ApkDictionary {
+
+    static final String[] ENCODED_COLUMNS = {
+        ApkProvider.DataColumns.PERMISSIONS,
+        ApkProvider.DataColumns.FEATURES,
+        ApkProvider.DataColumns.NATIVE_CODE,
+    };
+
+    /**
+     * Most apks of the same app share the exact same set of permissions, and most native code
+     * lists are one of a handful of combinations, so decoding them again is largely avoidable.
+     */
+    private static final int DECODED_CACHE_SIZE = 500;
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final SparseArray<String> values = new SparseArray<>();
+    private final LruCache<String, String> decoded = new LruCache<>(DECODED_CACHE_SIZE);
+
+    /**
+     * Replaces the value of each of the {@link #ENCODED_COLUMNS} present in {@code values}
+     * with its ids, adding any names which aren't in the dictionary yet.
+     */
+    synchronized void encode(SQLiteDatabase db, ContentValues values) {
+        for (final String column : ENCODED_COLUMNS) {
+            if (values.containsKey(column)) {
+                values.put(column, encode(db, values.getAsString(column)));
+            }
+        }
+    }
+
+    private String encode(SQLiteDatabase db, String list) {
+        if (TextUtils.isEmpty(list)) {
+            return list;
+        }
+
+        final StringBuilder encoded = new StringBuilder();
+        for (final String value : list.split(",", -1)) {
+            if (encoded.length() > 0) {
+                encoded.append(',');
+            }
+            encoded.append(idFor(db, value));
+        }
+        return encoded.toString();
+    }
+
+    private int idFor(SQLiteDatabase db, String value) {
+        Integer id = ids.get(value);
+        if (id == null) {
+            load(db);
+            id = ids.get(value);
+        }
+
+        if (id == null) {
+            ContentValues row = new ContentValues(1);
+            row.put("value", value);
+            long rowId = db.insertWithOnConflict(DBHelper.TABLE_APK_DICTIONARY, null, row, SQLiteDatabase.CONFLICT_IGNORE);
+            if (rowId == -1) {
+                // Somebody else added it since we last looked.
+                load(db);
+                id = ids.get(value);
+            } else {
+                id = (int) rowId;
+                put(id, value);
+            }
+        }
+
+        return id;
+    }
+
+    synchronized String decode(SQLiteDatabase db, String encoded) {
+        if (TextUtils.isEmpty(encoded)) {
+            return encoded;
+        }
+
+        String list = decoded.get(encoded);
+        if (list != null) {
+            return list;
+        }
+
+        final StringBuilder builder = new StringBuilder();
+        for (final String id : encoded.split(",")) {
+            final int key = Integer.parseInt(id);
+            String value = values.get(key);
+            if (value == null) {
+                load(db);
+                value = values.get(key);
+                if (value == null) {
+                    throw new IllegalStateException("No value for id " + key + " in " + DBHelper.TABLE_APK_DICTIONARY);
+                }
+            }
+
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(value);
+        }
+
+        list = builder.toString();
+        decoded.put(encoded, list);
+        return list;
+    }
+
+    /**
+     * Any names added during a transaction which then gets rolled back are gone from the
+     * database again, and their ids will be handed out to different names next time.
+     */
+    synchronized void clear() {
+        ids.clear();
+        values.clear();
+        decoded.evictAll();
+    }
+
+    /**
+     * Reads the entire dictionary. It has few enough rows that this is quicker than looking
+     * up the missing ones individually.
+     */
+    private void load(SQLiteDatabase db) {
+        Cursor cursor = db.query(DBHelper.TABLE_APK_DICTIONARY, new String[] {"id", "value"}, null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                put(cursor.getInt(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void put(int id, String value) {
+        ids.put(value, id);
+        values.put(id, value);
+    }
+
+    /**
+     * @return A cursor which returns the names instead of the ids for any of the
+     * {@link #ENCODED_COLUMNS} it contains.
+     */
+    Cursor decode(SQLiteDatabase db, Cursor cursor) {
+        boolean hasEncodedColumns = false;
+        for (final String column : ENCODED_COLUMNS) {
+            hasEncodedColumns |= cursor.getColumnIndex(column) != -1;
+        }
+        return hasEncodedColumns ? new DecodingCursor(cursor, db, this) : cursor;
+    }
+
+    private static final class DecodingCursor extends CursorWrapper {
+
+        private final SQLiteDatabase db;
+        private final ApkDictionary dictionary;
+        private final boolean[] isEncoded;
+
+        DecodingCursor(Cursor cursor, SQLiteDatabase db, ApkDictionary dictionary) {
+            super(cursor);
+            this.db = db;
+            this.dictionary = dictionary;
+            isEncoded = new boolean[cursor.getColumnCount()];
+            for (final String column : ENCODED_COLUMNS) {
+                final int index = cursor.getColumnIndex(column);
+                if (index != -1) {
+                    isEncoded[index] = true;
+                }
+            }
+        }
+
+        @Override
+        public String getString(int columnIndex) {
+            final String value = super.getString(columnIndex);
+            return isEncoded[columnIndex] ? dictionary.decode(db, value) : value;
+        }
+    }
+}
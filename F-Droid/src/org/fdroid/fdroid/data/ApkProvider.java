@@ -1,10 +1,14 @@
 package org.fdroid.fdroid.data;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.provider.BaseColumns;
 import android.util.Log;
@@ -20,14 +24,6 @@ public class ApkProvider extends FDroidProvider {
 
     private static final String TAG = "ApkProvider";
 
-    /**
-     * SQLite has a maximum of 999 parameters in a query. Each apk we add
-     * requires two (packageName and vercode) so we can only query half of that. Then,
-     * we may want to add additional constraints, so we give our self some
-     * room by saying only 450 apks can be queried at once.
-     */
-    protected static final int MAX_APKS_TO_QUERY = 450;
-
     public static final class Helper {
 
         private Helper() { }
@@ -67,21 +63,12 @@ public class ApkProvider extends FDroidProvider {
         }
 
         public static void deleteApks(final Context context, final List<Apk> apks) {
-            if (apks.size() > ApkProvider.MAX_APKS_TO_QUERY) {
-                int middle = apks.size() / 2;
-                List<Apk> apks1 = apks.subList(0, middle);
-                List<Apk> apks2 = apks.subList(middle, apks.size());
-                deleteApks(context, apks1);
-                deleteApks(context, apks2);
-            } else {
-                deleteApksSafely(context, apks);
+            if (apks.isEmpty()) {
+                return;
             }
-        }
 
-        private static void deleteApksSafely(final Context context, final List<Apk> apks) {
             ContentResolver resolver = context.getContentResolver();
-            final Uri uri = getContentUri(apks);
-            resolver.delete(uri, null, null);
+            resolver.delete(getApksUri(), null, getApkKeys(apks));
         }
 
         public static Apk find(Context context, String packageName, int versionCode) {
@@ -90,12 +77,17 @@ public class ApkProvider extends FDroidProvider {
 
         /**
          * Find all apks for a particular app, but limit it to those originating from the
-         * specified repo.
+         * specified repo. Only meant to be called while updating a repo,
+         * because the lookup briefly holds the write lock.
          */
         public static List<Apk> find(Context context, Repo repo, List<App> apps, String[] projection) {
+            if (apps.isEmpty()) {
+                return new ArrayList<>();
+            }
+
             ContentResolver resolver = context.getContentResolver();
-            final Uri uri = getContentUriForApps(repo, apps);
-            Cursor cursor = resolver.query(uri, projection, null, null, null);
+            final Uri uri = getRepoAppsUri(repo.getId());
+            Cursor cursor = resolver.query(uri, projection, null, getAppKeys(apps), null);
             return cursorToList(cursor);
         }
 
@@ -109,7 +101,7 @@ public class ApkProvider extends FDroidProvider {
         public static Apk find(Context context, String packageName, int versionCode, String[] projection) {
             ContentResolver resolver = context.getContentResolver();
             final Uri uri = getContentUri(packageName, versionCode);
-            Cursor cursor = resolver.query(uri, projection, null, null, null);
+            Cursor cursor = LookupCache.query(resolver, uri, projection, null);
             Apk apk = null;
             if (cursor != null) {
                 if (cursor.getCount() > 0) {
@@ -130,37 +122,22 @@ public class ApkProvider extends FDroidProvider {
             ContentResolver resolver = context.getContentResolver();
             final Uri uri = getAppUri(packageName);
             final String sort = ApkProvider.DataColumns.VERSION_CODE + " DESC";
-            Cursor cursor = resolver.query(uri, projection, null, null, sort);
+            Cursor cursor = LookupCache.query(resolver, uri, projection, sort);
             return cursorToList(cursor);
         }
 
         /**
          * Returns apks in the database, which have the same packageName and version as
-         * one of the apks in the "apks" argument.
+         * one of the apks in the "apks" argument. Only meant to be called while updating a
+         * repo, because the lookup briefly holds the write lock.
          */
         public static List<Apk> knownApks(Context context, List<Apk> apks, String[] fields) {
             if (apks.isEmpty()) {
                 return new ArrayList<>();
             }
 
-            List<Apk> knownApks = new ArrayList<>();
-            if (apks.size() > ApkProvider.MAX_APKS_TO_QUERY) {
-                int middle = apks.size() / 2;
-                List<Apk> apks1 = apks.subList(0, middle);
-                List<Apk> apks2 = apks.subList(middle, apks.size());
-                knownApks.addAll(knownApks(context, apks1, fields));
-                knownApks.addAll(knownApks(context, apks2, fields));
-            } else {
-                knownApks.addAll(knownApksSafe(context, apks, fields));
-            }
-            return knownApks;
-
-        }
-
-        private static List<Apk> knownApksSafe(final Context context, final List<Apk> apks, final String[] fields) {
             ContentResolver resolver = context.getContentResolver();
-            final Uri uri = getContentUri(apks);
-            Cursor cursor = resolver.query(uri, fields, null, null, null);
+            Cursor cursor = resolver.query(getApksUri(), fields, null, getApkKeys(apks), null);
             return cursorToList(cursor);
         }
 
@@ -239,6 +216,8 @@ public class ApkProvider extends FDroidProvider {
 
     private static final UriMatcher matcher = new UriMatcher(-1);
 
+    private final ApkDictionary dictionary = new ApkDictionary();
+
     public static final Map<String, String> REPO_FIELDS = new HashMap<>();
 
     static {
@@ -247,10 +226,10 @@ public class ApkProvider extends FDroidProvider {
 
         matcher.addURI(getAuthority(), PATH_REPO + "/#", CODE_REPO);
         matcher.addURI(getAuthority(), PATH_APK + "/#/*", CODE_SINGLE);
-        matcher.addURI(getAuthority(), PATH_APKS + "/*", CODE_APKS);
+        matcher.addURI(getAuthority(), PATH_APKS, CODE_APKS);
         matcher.addURI(getAuthority(), PATH_APP + "/*", CODE_APP);
-        matcher.addURI(getAuthority(), PATH_REPO_APPS + "/#/*", CODE_REPO_APPS);
-        matcher.addURI(getAuthority(), PATH_REPO_APK + "/#/*", CODE_REPO_APK);
+        matcher.addURI(getAuthority(), PATH_REPO_APPS + "/#", CODE_REPO_APPS);
+        matcher.addURI(getAuthority(), PATH_REPO_APK + "/#", CODE_REPO_APK);
         matcher.addURI(getAuthority(), null, CODE_LIST);
     }
 
@@ -291,58 +270,56 @@ public class ApkProvider extends FDroidProvider {
             .build();
     }
 
-    public static Uri getContentUriForApps(Repo repo, List<App> apps) {
+    /**
+     * All apks from the specified repo which belong to any of the apps given in the selection
+     * args of the query. See {@link #getAppKeys(List)}.
+     */
+    protected static Uri getRepoAppsUri(long repoId) {
         return getContentUri()
             .buildUpon()
             .appendPath(PATH_REPO_APPS)
-            .appendPath(Long.toString(repo.id))
-            .appendPath(buildAppString(apps))
-            .build();
-    }
-
-    public static Uri getContentUriForApks(Repo repo, List<Apk> apks) {
-        return getContentUri()
-            .buildUpon()
-            .appendPath(PATH_REPO_APK)
-            .appendPath(Long.toString(repo.id))
-            .appendPath(buildApkString(apks))
+            .appendPath(Long.toString(repoId))
             .build();
     }
 
     /**
-     * Intentionally left protected because it will break if apks is larger than
-     * {@link org.fdroid.fdroid.data.ApkProvider#MAX_APKS_TO_QUERY}. Instead of using
-     * this directly, think about using
+     * Any apk which matches one of the keys given in the selection args of the query or delete.
+     * Instead of using this directly, think about using
      * {@link org.fdroid.fdroid.data.ApkProvider.Helper#knownApks(android.content.Context, java.util.List, String[])}
+     *
+     * @see #getApkKeys(List)
      */
-    protected static Uri getContentUri(List<Apk> apks) {
+    protected static Uri getApksUri() {
         return getContentUri().buildUpon()
                 .appendPath(PATH_APKS)
-                .appendPath(buildApkString(apks))
                 .build();
     }
 
-    protected static String buildApkString(List<Apk> apks) {
-        StringBuilder builder = new StringBuilder();
+    /**
+     * Queries and deletes for a particular set of apks (e.g. {@link #getApksUri()}) take the
+     * package name and version code of each apk as the selection args, rather than encoding them
+     * in the uri. They get loaded into a temporary table which is joined against, so there is no
+     * limit on how many apks can be asked for at once (see {@link #loadKeys(String, String[], String[])}).
+     */
+    static String[] getApkKeys(List<Apk> apks) {
+        final String[] keys = new String[apks.size() * 2];
         for (int i = 0; i < apks.size(); i++) {
-            if (i != 0) {
-                builder.append(',');
-            }
-            final Apk a = apks.get(i);
-            builder.append(a.packageName).append(':').append(a.vercode);
+            final Apk apk = apks.get(i);
+            keys[i * 2] = apk.packageName;
+            keys[i * 2 + 1] = Integer.toString(apk.vercode);
         }
-        return builder.toString();
+        return keys;
     }
 
-    private static String buildAppString(List<App> apks) {
-        StringBuilder builder = new StringBuilder();
-        for (int i = 0; i < apks.size(); i++) {
-            if (i != 0) {
-                builder.append(',');
-            }
-            builder.append(apks.get(i).packageName);
+    /**
+     * @see #getApkKeys(List)
+     */
+    private static String[] getAppKeys(List<App> apps) {
+        final String[] keys = new String[apps.size()];
+        for (int i = 0; i < apps.size(); i++) {
+            keys[i] = apps.get(i).packageName;
         }
-        return builder.toString();
+        return keys;
     }
 
     @Override
@@ -363,10 +340,32 @@ public class ApkProvider extends FDroidProvider {
     private static class Query extends QueryBuilder {
 
         private boolean repoTableRequired;
+        private String[] selectionArgs;
+        private String apkKeysTable;
 
         @Override
         protected String getRequiredTables() {
-            return DBHelper.TABLE_APK + " AS apk";
+            if (apkKeysTable == null) {
+                return DBHelper.TABLE_APK + " AS apk";
+            }
+            return apkKeysTable + " AS apkKeys CROSS JOIN " + DBHelper.TABLE_APK + " AS apk ON (" + APK_KEYS_JOIN + ")";
+        }
+
+        /**
+         * SQLite has no idea how many keys there are, and would rather loop over every apk
+         * and look each one up in the keys. A CROSS JOIN tells it to do it the other way around.
+         */
+        public void selectFromApkKeys(String table) {
+            apkKeysTable = table;
+        }
+
+        public String[] getSelectionArgs() {
+            return selectionArgs;
+        }
+
+        public void addSelection(QuerySelection selection) {
+            addSelection(selection.getSelection());
+            selectionArgs = selection.getArgs();
         }
 
         @Override
@@ -417,37 +416,104 @@ public class ApkProvider extends FDroidProvider {
         return new QuerySelection(selection, args);
     }
 
-    private QuerySelection queryRepoApps(long repoId, String packageNames) {
-        return queryRepo(repoId).add(AppProvider.queryApps(packageNames, DataColumns.PACKAGE_NAME));
+    private static final String[] APK_KEY_COLUMNS = {"packageName TEXT", "versionCode INTEGER"};
+
+    private static final String[] APP_KEY_COLUMNS = {"packageName TEXT"};
+
+    private static final String APK_KEYS_JOIN = "apkKeys.packageName = apk.id AND apkKeys.versionCode = apk.vercode";
+
+    /**
+     * Loads the keys for a set of apks (see {@link #getApkKeys(List)}) and joins them against the
+     * apk table. Must be called within a transaction, see {@link #loadKeys(String, String[], String[])}.
+     */
+    private void joinApkKeys(Query query, String[] keys) {
+        query.selectFromApkKeys(loadKeys("apk_keys", APK_KEY_COLUMNS, keys));
+    }
+
+    /**
+     * @see #joinApkKeys(Query, String[])
+     */
+    private void joinAppKeys(Query query, String[] keys) {
+        final String table = loadKeys("app_keys", APP_KEY_COLUMNS, keys);
+        query.join(table, "appKeys", "appKeys.packageName = apk.id");
     }
 
-    protected QuerySelection queryApks(String apkKeys) {
-        final String[] apkDetails = apkKeys.split(",");
-        if (apkDetails.length > MAX_APKS_TO_QUERY) {
-            throw new IllegalArgumentException(
-                "Cannot query more than " + MAX_APKS_TO_QUERY + ". " +
-                "You tried to query " + apkDetails.length);
-        }
-        final String[] args = new String[apkDetails.length * 2];
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < apkDetails.length; i++) {
-            String[] parts = apkDetails[i].split(":");
-            String packageName = parts[0];
-            String verCode = parts[1];
-            args[i * 2] = packageName;
-            args[i * 2 + 1] = verCode;
-            if (i != 0) {
-                sb.append(" OR ");
-            }
-            sb.append(" ( id = ? AND vercode = ? ) ");
+    /**
+     * A DELETE statement can't join against another table, so instead select the rowid of each
+     * apk which matches one of the keys. Must be called within a transaction, see
+     * {@link #loadKeys(String, String[], String[])}.
+     */
+    protected QuerySelection queryApkKeys(String[] keys) {
+        final String table = loadKeys("apk_keys", APK_KEY_COLUMNS, keys);
+        final String selection = "rowid IN (" +
+                "SELECT apk.rowid FROM " + table + " AS apkKeys " +
+                "CROSS JOIN " + getTableName() + " AS apk ON " + APK_KEYS_JOIN + ")";
+        return new QuerySelection(selection);
+    }
+
+    /**
+     * The keys are passed in place of the selection args, so there can't be any selection
+     * for them to correspond to.
+     */
+    protected static void assertKeysOnly(Uri uri, String selection) {
+        if (selection != null) {
+            throw new IllegalArgumentException("Cannot add a selection to " + uri + ", its selection args are the keys to look for.");
         }
-        return new QuerySelection(sb.toString(), args);
     }
 
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        Cursor cursor;
+        if (isForKeys(uri)) {
+            cursor = queryKeys(uri, projection, selection, selectionArgs, sortOrder);
+        } else {
+            Query query = buildQuery(uri, projection, selection, selectionArgs, sortOrder);
+            cursor = dictionary.decode(read(), read().rawQuery(query.toString(), query.getSelectionArgs()));
+        }
+        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        return cursor;
+    }
+
+    /**
+     * Loads the keys, and looks them all up with a single query, within one short transaction.
+     * The keys only exist within that transaction, because a temporary table belongs to the
+     * connection which created it, and with write ahead logging any other query could be given
+     * a different connection. For the same reason, all of the rows are read before returning.
+     *
+     * The transaction holds the write lock, but only for as long as it takes to insert the keys
+     * and run the query. Write ahead logging means that nothing reading in the meantime has to
+     * wait. The only thing which looks up apks by their keys is the repo update (see
+     * {@link RepoPersister}), on its own thread, and it is also what does the writing.
+     */
+    private Cursor queryKeys(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        final SQLiteDatabase db = write();
+        db.beginTransaction();
+        try {
+            Query query = buildQuery(uri, projection, selection, selectionArgs, sortOrder);
+            Cursor cursor = dictionary.decode(db, db.rawQuery(query.toString(), query.getSelectionArgs()));
+            Cursor rows = new LookupCache.Rows(cursor).toCursor();
+            cursor.close();
+            db.setTransactionSuccessful();
+            return rows;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private boolean isForKeys(Uri uri) {
+        final int code = matcher.match(uri);
+        return code == CODE_APKS || code == CODE_REPO_APPS;
+    }
+
+    /**
+     * For uris which take keys (see {@link #isForKeys(Uri)}), this loads the selection args into
+     * a temporary table, and so must be called within a transaction on {@link #write()}.
+     * Package-private so that tests can see how SQLite would go about it, see QueryPlan.
+     */
+    Query buildQuery(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
 
         QuerySelection query = new QuerySelection(selection, selectionArgs);
+        Query queryBuilder = new Query();
 
         switch (matcher.match(uri)) {
             case CODE_LIST:
@@ -462,7 +528,9 @@ public class ApkProvider extends FDroidProvider {
                 break;
 
             case CODE_APKS:
-                query = query.add(queryApks(uri.getLastPathSegment()));
+                assertKeysOnly(uri, selection);
+                joinApkKeys(queryBuilder, selectionArgs);
+                query = new QuerySelection(null);
                 break;
 
             case CODE_REPO:
@@ -470,8 +538,9 @@ public class ApkProvider extends FDroidProvider {
                 break;
 
             case CODE_REPO_APPS:
-                List<String> pathSegments = uri.getPathSegments();
-                query = query.add(queryRepoApps(Long.parseLong(pathSegments.get(1)), pathSegments.get(2)));
+                assertKeysOnly(uri, selection);
+                joinAppKeys(queryBuilder, selectionArgs);
+                query = queryRepo(Long.parseLong(uri.getLastPathSegment()));
                 break;
 
             default:
@@ -479,16 +548,12 @@ public class ApkProvider extends FDroidProvider {
                 throw new UnsupportedOperationException("Invalid URI for apk content provider: " + uri);
         }
 
-        Query queryBuilder = new Query();
         for (final String field : projection) {
             queryBuilder.addField(field);
         }
-        queryBuilder.addSelection(query.getSelection());
+        queryBuilder.addSelection(query);
         queryBuilder.addOrderBy(sortOrder);
-
-        Cursor cursor = read().rawQuery(queryBuilder.toString(), query.getArgs());
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
-        return cursor;
+        return queryBuilder;
     }
 
     private static void removeRepoFields(ContentValues values) {
@@ -503,17 +568,33 @@ public class ApkProvider extends FDroidProvider {
         }
     }
 
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+        throws OperationApplicationException {
+        boolean committed = false;
+        try {
+            ContentProviderResult[] result = super.applyBatch(operations);
+            committed = true;
+            return result;
+        } finally {
+            if (!committed) {
+                dictionary.clear();
+            }
+        }
+    }
+
     @Override
     public Uri insert(Uri uri, ContentValues values) {
         removeRepoFields(values);
         validateFields(DataColumns.ALL, values);
+        dictionary.encode(write(), values);
         write().insertOrThrow(getTableName(), null, values);
-        if (!isApplyingBatch()) {
-            getContext().getContentResolver().notifyChange(uri, null);
-        }
-        return getContentUri(
+        invalidateLookupCache();
+        Uri apkUri = getContentUri(
             values.getAsString(DataColumns.PACKAGE_NAME),
             values.getAsInteger(DataColumns.VERSION_CODE));
+        notifyChange(apkUri);
+        return apkUri;
 
     }
 
@@ -533,14 +614,13 @@ public class ApkProvider extends FDroidProvider {
                 break;
 
             case CODE_APKS:
-                query = query.add(queryApks(uri.getLastPathSegment()));
-                break;
+                assertKeysOnly(uri, where);
+                return deleteKeys(uri, new QuerySelection(null), whereArgs);
 
             // TODO: Add tests for this.
             case CODE_REPO_APK:
-                List<String> pathSegments = uri.getPathSegments();
-                query = query.add(queryRepo(Long.parseLong(pathSegments.get(1)))).add(queryApks(pathSegments.get(2)));
-                break;
+                assertKeysOnly(uri, where);
+                return deleteKeys(uri, queryRepo(Long.parseLong(uri.getLastPathSegment())), whereArgs);
 
             case CODE_LIST:
                 throw new UnsupportedOperationException("Can't delete all apks.");
@@ -554,11 +634,31 @@ public class ApkProvider extends FDroidProvider {
         }
 
         int rowsAffected = write().delete(getTableName(), query.getSelection(), query.getArgs());
-        getContext().getContentResolver().notifyChange(uri, null);
+        invalidateLookupCache();
+        notifyChange(uri);
         return rowsAffected;
 
     }
 
+    /**
+     * Deletes each apk matching both the selection and one of the keys (see {@link #getApkKeys(List)}).
+     */
+    protected int deleteKeys(Uri uri, QuerySelection query, String[] keys) {
+        final SQLiteDatabase db = write();
+        int rowsAffected;
+        db.beginTransaction();
+        try {
+            query = query.add(queryApkKeys(keys));
+            rowsAffected = db.delete(getTableName(), query.getSelection(), query.getArgs());
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        invalidateLookupCache();
+        notifyChange(uri);
+        return rowsAffected;
+    }
+
     @Override
     public int update(Uri uri, ContentValues values, String where, String[] whereArgs) {
         if (matcher.match(uri) != CODE_SINGLE) {
@@ -570,14 +670,14 @@ public class ApkProvider extends FDroidProvider {
     protected int performUpdateUnchecked(Uri uri, ContentValues values, String where, String[] whereArgs) {
         validateFields(DataColumns.ALL, values);
         removeRepoFields(values);
+        dictionary.encode(write(), values);
 
         QuerySelection query = new QuerySelection(where, whereArgs);
         query = query.add(querySingle(uri));
 
         int numRows = write().update(getTableName(), values, query.getSelection(), query.getArgs());
-        if (!isApplyingBatch()) {
-            getContext().getContentResolver().notifyChange(uri, null);
-        }
+        invalidateLookupCache();
+        notifyChange(uri);
         return numRows;
     }
 
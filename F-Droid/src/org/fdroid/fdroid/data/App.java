@@ -28,6 +28,74 @@ public class App extends ValueObject implements Comparable<App> {
 
     private static final String TAG = "App";
 
+    // Identifies which field each column of a cursor is read into, see ColumnMapping.
+    private static final int FIELD_IS_COMPATIBLE = 0;
+    private static final int FIELD_PACKAGE_NAME = 1;
+    private static final int FIELD_NAME = 2;
+    private static final int FIELD_SUMMARY = 3;
+    private static final int FIELD_ICON = 4;
+    private static final int FIELD_DESCRIPTION = 5;
+    private static final int FIELD_LICENSE = 6;
+    private static final int FIELD_WEB_URL = 7;
+    private static final int FIELD_TRACKER_URL = 8;
+    private static final int FIELD_SOURCE_URL = 9;
+    private static final int FIELD_CHANGELOG_URL = 10;
+    private static final int FIELD_DONATE_URL = 11;
+    private static final int FIELD_BITCOIN_ADDR = 12;
+    private static final int FIELD_LITECOIN_ADDR = 13;
+    private static final int FIELD_FLATTR_ID = 14;
+    private static final int FIELD_SUGGESTED_APK_VERSION = 15;
+    private static final int FIELD_SUGGESTED_VERSION_CODE = 16;
+    private static final int FIELD_UPSTREAM_VERSION_CODE = 17;
+    private static final int FIELD_UPSTREAM_VERSION = 18;
+    private static final int FIELD_ADDED = 19;
+    private static final int FIELD_LAST_UPDATED = 20;
+    private static final int FIELD_CATEGORIES = 21;
+    private static final int FIELD_ANTI_FEATURES = 22;
+    private static final int FIELD_REQUIREMENTS = 23;
+    private static final int FIELD_IGNORE_ALLUPDATES = 24;
+    private static final int FIELD_IGNORE_THISUPDATE = 25;
+    private static final int FIELD_ICON_URL = 26;
+    private static final int FIELD_ICON_URL_LARGE = 27;
+    private static final int FIELD_INSTALLED_APP_VERSION_CODE = 28;
+    private static final int FIELD_INSTALLED_APP_VERSION_NAME = 29;
+    private static final int FIELD_INSTALLED_APP_SIGNATURE = 30;
+    private static final int FIELD_ID = 31;
+
+    private static final ColumnMapping COLUMN_MAPPING = new ColumnMapping()
+            .map(AppProvider.DataColumns.IS_COMPATIBLE, FIELD_IS_COMPATIBLE)
+            .map(AppProvider.DataColumns.PACKAGE_NAME, FIELD_PACKAGE_NAME)
+            .map(AppProvider.DataColumns.NAME, FIELD_NAME)
+            .map(AppProvider.DataColumns.SUMMARY, FIELD_SUMMARY)
+            .map(AppProvider.DataColumns.ICON, FIELD_ICON)
+            .map(AppProvider.DataColumns.DESCRIPTION, FIELD_DESCRIPTION)
+            .map(AppProvider.DataColumns.LICENSE, FIELD_LICENSE)
+            .map(AppProvider.DataColumns.WEB_URL, FIELD_WEB_URL)
+            .map(AppProvider.DataColumns.TRACKER_URL, FIELD_TRACKER_URL)
+            .map(AppProvider.DataColumns.SOURCE_URL, FIELD_SOURCE_URL)
+            .map(AppProvider.DataColumns.CHANGELOG_URL, FIELD_CHANGELOG_URL)
+            .map(AppProvider.DataColumns.DONATE_URL, FIELD_DONATE_URL)
+            .map(AppProvider.DataColumns.BITCOIN_ADDR, FIELD_BITCOIN_ADDR)
+            .map(AppProvider.DataColumns.LITECOIN_ADDR, FIELD_LITECOIN_ADDR)
+            .map(AppProvider.DataColumns.FLATTR_ID, FIELD_FLATTR_ID)
+            .map(AppProvider.DataColumns.SuggestedApk.VERSION, FIELD_SUGGESTED_APK_VERSION)
+            .map(AppProvider.DataColumns.SUGGESTED_VERSION_CODE, FIELD_SUGGESTED_VERSION_CODE)
+            .map(AppProvider.DataColumns.UPSTREAM_VERSION_CODE, FIELD_UPSTREAM_VERSION_CODE)
+            .map(AppProvider.DataColumns.UPSTREAM_VERSION, FIELD_UPSTREAM_VERSION)
+            .map(AppProvider.DataColumns.ADDED, FIELD_ADDED)
+            .map(AppProvider.DataColumns.LAST_UPDATED, FIELD_LAST_UPDATED)
+            .map(AppProvider.DataColumns.CATEGORIES, FIELD_CATEGORIES)
+            .map(AppProvider.DataColumns.ANTI_FEATURES, FIELD_ANTI_FEATURES)
+            .map(AppProvider.DataColumns.REQUIREMENTS, FIELD_REQUIREMENTS)
+            .map(AppProvider.DataColumns.IGNORE_ALLUPDATES, FIELD_IGNORE_ALLUPDATES)
+            .map(AppProvider.DataColumns.IGNORE_THISUPDATE, FIELD_IGNORE_THISUPDATE)
+            .map(AppProvider.DataColumns.ICON_URL, FIELD_ICON_URL)
+            .map(AppProvider.DataColumns.ICON_URL_LARGE, FIELD_ICON_URL_LARGE)
+            .map(AppProvider.DataColumns.InstalledApp.VERSION_CODE, FIELD_INSTALLED_APP_VERSION_CODE)
+            .map(AppProvider.DataColumns.InstalledApp.VERSION_NAME, FIELD_INSTALLED_APP_VERSION_NAME)
+            .map(AppProvider.DataColumns.InstalledApp.SIGNATURE, FIELD_INSTALLED_APP_SIGNATURE)
+            .map("_id", FIELD_ID);
+
     // True if compatible with the device (i.e. if at least one apk is)
     public boolean compatible;
 
@@ -118,106 +186,106 @@ public class App extends ValueObject implements Comparable<App> {
 
         checkCursorPosition(cursor);
 
-        for (int i = 0; i < cursor.getColumnCount(); i++) {
-            String n = cursor.getColumnName(i);
-            switch (n) {
-                case AppProvider.DataColumns.IS_COMPATIBLE:
+        final int[] fields = COLUMN_MAPPING.fieldsFor(cursor);
+        for (int i = 0; i < fields.length; i++) {
+            switch (fields[i]) {
+                case FIELD_IS_COMPATIBLE:
                     compatible = cursor.getInt(i) == 1;
                     break;
-                case AppProvider.DataColumns.PACKAGE_NAME:
+                case FIELD_PACKAGE_NAME:
                     packageName = cursor.getString(i);
                     break;
-                case AppProvider.DataColumns.NAME:
+                case FIELD_NAME:
                     name = cursor.getString(i);
                     break;
-                case AppProvider.DataColumns.SUMMARY:
+                case FIELD_SUMMARY:
                     summary = cursor.getString(i);
                     break;
-                case AppProvider.DataColumns.ICON:
+                case FIELD_ICON:
                     icon = cursor.getString(i);
                     break;
-                case AppProvider.DataColumns.DESCRIPTION:
+                case FIELD_DESCRIPTION:
                     description = cursor.getString(i);
                     break;
-                case AppProvider.DataColumns.LICENSE:
+                case FIELD_LICENSE:
                     license = cursor.getString(i);
                     break;
-                case AppProvider.DataColumns.WEB_URL:
+                case FIELD_WEB_URL:
                     webURL = cursor.getString(i);
                     break;
-                case AppProvider.DataColumns.TRACKER_URL:
+                case FIELD_TRACKER_URL:
                     trackerURL = cursor.getString(i);
                     break;
-                case AppProvider.DataColumns.SOURCE_URL:
+                case FIELD_SOURCE_URL:
                     sourceURL = cursor.getString(i);
                     break;
-                case AppProvider.DataColumns.CHANGELOG_URL:
+                case FIELD_CHANGELOG_URL:
                     changelogURL = cursor.getString(i);
                     break;
-                case AppProvider.DataColumns.DONATE_URL:
+                case FIELD_DONATE_URL:
                     donateURL = cursor.getString(i);
                     break;
-                case AppProvider.DataColumns.BITCOIN_ADDR:
+                case FIELD_BITCOIN_ADDR:
                     bitcoinAddr = cursor.getString(i);
                     break;
-                case AppProvider.DataColumns.LITECOIN_ADDR:
+                case FIELD_LITECOIN_ADDR:
                     litecoinAddr = cursor.getString(i);
                     break;
-                case AppProvider.DataColumns.FLATTR_ID:
+                case FIELD_FLATTR_ID:
                     flattrID = cursor.getString(i);
                     break;
-                case AppProvider.DataColumns.SuggestedApk.VERSION:
+                case FIELD_SUGGESTED_APK_VERSION:
                     suggestedVersion = cursor.getString(i);
                     break;
-                case AppProvider.DataColumns.SUGGESTED_VERSION_CODE:
+                case FIELD_SUGGESTED_VERSION_CODE:
                     suggestedVercode = cursor.getInt(i);
                     break;
-                case AppProvider.DataColumns.UPSTREAM_VERSION_CODE:
+                case FIELD_UPSTREAM_VERSION_CODE:
                     upstreamVercode = cursor.getInt(i);
                     break;
-                case AppProvider.DataColumns.UPSTREAM_VERSION:
+                case FIELD_UPSTREAM_VERSION:
                     upstreamVersion = cursor.getString(i);
                     break;
-                case AppProvider.DataColumns.ADDED:
+                case FIELD_ADDED:
                     added = Utils.parseDate(cursor.getString(i), null);
                     break;
-                case AppProvider.DataColumns.LAST_UPDATED:
+                case FIELD_LAST_UPDATED:
                     lastUpdated = Utils.parseDate(cursor.getString(i), null);
                     break;
-                case AppProvider.DataColumns.CATEGORIES:
+                case FIELD_CATEGORIES:
                     categories = Utils.CommaSeparatedList.make(cursor.getString(i));
                     break;
-                case AppProvider.DataColumns.ANTI_FEATURES:
+                case FIELD_ANTI_FEATURES:
                     antiFeatures = Utils.CommaSeparatedList.make(cursor.getString(i));
                     break;
-                case AppProvider.DataColumns.REQUIREMENTS:
+                case FIELD_REQUIREMENTS:
                     requirements = Utils.CommaSeparatedList.make(cursor.getString(i));
                     break;
-                case AppProvider.DataColumns.IGNORE_ALLUPDATES:
+                case FIELD_IGNORE_ALLUPDATES:
                     ignoreAllUpdates = cursor.getInt(i) == 1;
                     break;
-                case AppProvider.DataColumns.IGNORE_THISUPDATE:
+                case FIELD_IGNORE_THISUPDATE:
                     ignoreThisUpdate = cursor.getInt(i);
                     break;
-                case AppProvider.DataColumns.ICON_URL:
+                case FIELD_ICON_URL:
                     iconUrl = cursor.getString(i);
                     break;
-                case AppProvider.DataColumns.ICON_URL_LARGE:
+                case FIELD_ICON_URL_LARGE:
                     iconUrlLarge = cursor.getString(i);
                     break;
-                case AppProvider.DataColumns.InstalledApp.VERSION_CODE:
+                case FIELD_INSTALLED_APP_VERSION_CODE:
                     installedVersionCode = cursor.getInt(i);
                     break;
-                case AppProvider.DataColumns.InstalledApp.VERSION_NAME:
+                case FIELD_INSTALLED_APP_VERSION_NAME:
                     installedVersionName = cursor.getString(i);
                     break;
-                case AppProvider.DataColumns.InstalledApp.SIGNATURE:
+                case FIELD_INSTALLED_APP_SIGNATURE:
                     installedSig = cursor.getString(i);
                     break;
-                case "_id":
+                case FIELD_ID:
                     break;
                 default:
-                    Log.e(TAG, "Unknown column name " + n);
+                    Log.e(TAG, "Unknown column name " + cursor.getColumnName(i));
             }
         }
     }
@@ -408,6 +476,10 @@ public class App extends ValueObject implements Comparable<App> {
      * True if there are new versions (apks) available
      */
     public boolean hasUpdates() {
+        return hasUpdates(suggestedVercode, installedVersionCode);
+    }
+
+    public static boolean hasUpdates(int suggestedVercode, int installedVersionCode) {
         boolean updates = false;
         if (suggestedVercode > 0) {
             updates = installedVersionCode > 0 && installedVersionCode < suggestedVercode;
@@ -419,8 +491,11 @@ public class App extends ValueObject implements Comparable<App> {
     // to be notified about them
     public boolean canAndWantToUpdate() {
         boolean canUpdate = hasUpdates();
-        boolean wantsUpdate = !ignoreAllUpdates && ignoreThisUpdate < suggestedVercode;
-        return canUpdate && wantsUpdate && !isFiltered();
+        return canUpdate && wantsUpdate(ignoreAllUpdates, ignoreThisUpdate, suggestedVercode) && !isFiltered();
+    }
+
+    public static boolean wantsUpdate(boolean ignoreAllUpdates, int ignoreThisUpdate, int suggestedVercode) {
+        return !ignoreAllUpdates && ignoreThisUpdate < suggestedVercode;
     }
 
     // Whether the app is filtered or not based on AntiFeatures and root
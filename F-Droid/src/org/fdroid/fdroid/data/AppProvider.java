@@ -1,12 +1,15 @@
 package org.fdroid.fdroid.data;
 
+import android.annotation.TargetApi;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.CancellationSignal;
 import android.util.Log;
 
 import org.fdroid.fdroid.Preferences;
@@ -18,6 +21,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
 
 public class AppProvider extends FDroidProvider {
@@ -128,7 +132,7 @@ public class AppProvider extends FDroidProvider {
         public static App findByPackageName(ContentResolver resolver, String packageName,
                                             String[] projection) {
             final Uri uri = getContentUri(packageName);
-            Cursor cursor = resolver.query(uri, projection, null, null, null);
+            Cursor cursor = LookupCache.query(resolver, uri, projection, null);
             App app = null;
             if (cursor != null) {
                 if (cursor.getCount() > 0) {
@@ -140,6 +144,26 @@ public class AppProvider extends FDroidProvider {
             return app;
         }
 
+        /**
+         * Descriptions are not part of any projection (see {@link DataColumns#DESCRIPTION}),
+         * they are only read when somebody is actually going to look at one.
+         *
+         * @return The HTML description of the app, or an empty string if there isn't one.
+         */
+        public static String findDescription(ContentResolver resolver, String packageName) {
+            final String[] projection = {DataColumns.DESCRIPTION};
+            Cursor cursor = resolver.query(getDescriptionUri(packageName), projection, null, null, null);
+            String description = null;
+            if (cursor != null) {
+                if (cursor.getCount() > 0) {
+                    cursor.moveToFirst();
+                    description = CompressedText.decompress(cursor.getBlob(0));
+                }
+                cursor.close();
+            }
+            return description == null ? "" : description;
+        }
+
         /*
          * I wasn't quite sure on the best way to execute arbitrary queries using the same DBHelper as the
          * content provider class, so I've hidden the implementation of this (by making it private) in case
@@ -163,7 +187,7 @@ public class AppProvider extends FDroidProvider {
     static final class UpgradeHelper {
 
         public static void updateIconUrls(Context context, SQLiteDatabase db) {
-            AppProvider.updateIconUrls(context, db, DBHelper.TABLE_APP, DBHelper.TABLE_APK);
+            AppProvider.updateIconUrls(context, db, DBHelper.TABLE_APP, DBHelper.TABLE_APK, null);
         }
 
     }
@@ -177,6 +201,11 @@ public class AppProvider extends FDroidProvider {
         String NAME = "name";
         String SUMMARY = "summary";
         String ICON = "icon";
+        /**
+         * Can be inserted or updated like any other column, but is stored compressed in a
+         * table of its own, and so is not returned by queries. Use
+         * {@link Helper#findDescription(ContentResolver, String)} instead.
+         */
         String DESCRIPTION = "description";
         String LICENSE = "license";
         String WEB_URL = "webURL";
@@ -211,7 +240,7 @@ public class AppProvider extends FDroidProvider {
         }
 
         String[] ALL = {
-            _ID, IS_COMPATIBLE, PACKAGE_NAME, NAME, SUMMARY, ICON, DESCRIPTION,
+            _ID, IS_COMPATIBLE, PACKAGE_NAME, NAME, SUMMARY, ICON,
             LICENSE, WEB_URL, TRACKER_URL, SOURCE_URL, CHANGELOG_URL, DONATE_URL,
             BITCOIN_ADDR, LITECOIN_ADDR, FLATTR_ID,
             UPSTREAM_VERSION, UPSTREAM_VERSION_CODE, ADDED, LAST_UPDATED,
@@ -290,6 +319,7 @@ public class AppProvider extends FDroidProvider {
         private boolean requiresInstalledTable;
         private boolean categoryFieldAdded;
         private boolean countFieldAppended;
+        private String[] selectionArgs;
 
         @Override
         protected String getRequiredTables() {
@@ -313,8 +343,13 @@ public class AppProvider extends FDroidProvider {
             return countFieldAppended ? null : getTableName() + ".id";
         }
 
+        public String[] getSelectionArgs() {
+            return selectionArgs;
+        }
+
         public void addSelection(AppQuerySelection selection) {
             addSelection(selection.getSelection());
+            selectionArgs = selection.getArgs();
             if (selection.naturalJoinToInstalled()) {
                 naturalJoinToInstalledTable();
             }
@@ -436,6 +471,11 @@ public class AppProvider extends FDroidProvider {
     private static final String PATH_IGNORED = "ignored";
     private static final String PATH_CALC_APP_DETAILS_FROM_INDEX = "calcDetailsFromIndex";
     private static final String PATH_REPO = "repo";
+    private static final String PATH_PURGE_REPO = "purgeRepo";
+    private static final String PATH_MAINTENANCE = "maintenance";
+    private static final String PATH_DESCRIPTION = "description";
+
+    private static final String QUERY_REMOVE_REPO = "removeRepo";
 
     private static final int CAN_UPDATE = CODE_SINGLE + 1;
     private static final int INSTALLED = CAN_UPDATE + 1;
@@ -451,6 +491,9 @@ public class AppProvider extends FDroidProvider {
     private static final int SEARCH_REPO = REPO + 1;
     private static final int SEARCH_INSTALLED = SEARCH_REPO + 1;
     private static final int SEARCH_CAN_UPDATE = SEARCH_INSTALLED + 1;
+    private static final int PURGE_REPO = SEARCH_CAN_UPDATE + 1;
+    private static final int MAINTENANCE = PURGE_REPO + 1;
+    private static final int DESCRIPTION = MAINTENANCE + 1;
 
     static {
         matcher.addURI(getAuthority(), null, CODE_LIST);
@@ -464,6 +507,9 @@ public class AppProvider extends FDroidProvider {
         matcher.addURI(getAuthority(), PATH_SEARCH_CAN_UPDATE + "/*", SEARCH_CAN_UPDATE);
         matcher.addURI(getAuthority(), PATH_SEARCH_REPO + "/*/*", SEARCH_REPO);
         matcher.addURI(getAuthority(), PATH_REPO + "/#", REPO);
+        matcher.addURI(getAuthority(), PATH_PURGE_REPO + "/#", PURGE_REPO);
+        matcher.addURI(getAuthority(), PATH_MAINTENANCE, MAINTENANCE);
+        matcher.addURI(getAuthority(), PATH_DESCRIPTION + "/*", DESCRIPTION);
         matcher.addURI(getAuthority(), PATH_CAN_UPDATE, CAN_UPDATE);
         matcher.addURI(getAuthority(), PATH_INSTALLED, INSTALLED);
         matcher.addURI(getAuthority(), PATH_NO_APKS, NO_APKS);
@@ -498,6 +544,36 @@ public class AppProvider extends FDroidProvider {
             .build();
     }
 
+    /**
+     * Deleting this removes every apk from the repo, and any apps which are left without apks.
+     * @param removeRepo Whether the repo itself is deleted too, as part of the same transaction.
+     * @see RepoProvider.Helper#purgeApps(Context, Repo)
+     * @see RepoProvider.Helper#remove(Context, long)
+     */
+    static Uri getPurgeRepoUri(long repoId, boolean removeRepo) {
+        final Uri.Builder builder = getContentUri().buildUpon()
+            .appendPath(PATH_PURGE_REPO)
+            .appendPath(Long.toString(repoId));
+        if (removeRepo) {
+            builder.appendQueryParameter(QUERY_REMOVE_REPO, "true");
+        }
+        return builder.build();
+    }
+
+    /**
+     * @see DatabaseMaintenance#perform(Context)
+     */
+    static Uri getMaintenanceUri() {
+        return Uri.withAppendedPath(getContentUri(), PATH_MAINTENANCE);
+    }
+
+    private static Uri getDescriptionUri(String packageName) {
+        return getContentUri().buildUpon()
+            .appendPath(PATH_DESCRIPTION)
+            .appendPath(packageName)
+            .build();
+    }
+
     public static Uri getNoApksUri() {
         return Uri.withAppendedPath(getContentUri(), PATH_NO_APKS);
     }
@@ -579,6 +655,10 @@ public class AppProvider extends FDroidProvider {
         return DBHelper.TABLE_APK;
     }
 
+    protected String getDescriptionTableName() {
+        return DBHelper.TABLE_APP_DESCRIPTION;
+    }
+
     @Override
     protected String getProviderName() {
         return "AppProvider";
@@ -616,7 +696,6 @@ public class AppProvider extends FDroidProvider {
                 getTableName() + ".id",
                 getTableName() + ".name",
                 getTableName() + ".summary",
-                getTableName() + ".description",
         };
 
         // Remove duplicates, surround in % for wildcard searching
@@ -630,7 +709,7 @@ public class AppProvider extends FDroidProvider {
 
         // Build selection string and fill out keyword arguments
         final StringBuilder selection = new StringBuilder();
-        final String[] selectionKeywords = new String[columns.length * keywords.length];
+        final String[] selectionKeywords = new String[(columns.length + 1) * keywords.length];
         iKeyword = 0;
         boolean firstColumn = true;
         for (final String column : columns) {
@@ -653,6 +732,19 @@ public class AppProvider extends FDroidProvider {
             }
             selection.append(") ");
         }
+
+        // Descriptions live in a table of their own, see getDescriptionTableName(). Only their
+        // words are kept for searching, in lower case, see SearchWords.
+        final String description = getDescriptionTableName();
+        selection.append("OR EXISTS (SELECT 1 FROM ").append(description)
+                .append(" WHERE ").append(description).append(".id = ").append(getTableName()).append(".id");
+        for (final String keyword : keywords) {
+            selection.append(" AND ").append(description).append(".words like ?");
+            selectionKeywords[iKeyword] = keyword.toLowerCase(Locale.ENGLISH);
+            iKeyword++;
+        }
+        selection.append(") ");
+
         return new AppQuerySelection(selection.toString(), selectionKeywords);
     }
 
@@ -724,6 +816,61 @@ public class AppProvider extends FDroidProvider {
 
     @Override
     public Cursor query(Uri uri, String[] projection, String customSelection, String[] selectionArgs, String sortOrder) {
+        if (matcher.match(uri) == DESCRIPTION) {
+            return queryDescription(uri);
+        }
+
+        Query query = buildQuery(uri, projection, customSelection, selectionArgs, sortOrder);
+        Cursor cursor = read().rawQuery(query.toString(), query.getSelectionArgs());
+        cursor.setNotificationUri(getContext().getContentResolver(), getNotificationUri(uri));
+        return cursor;
+    }
+
+    /**
+     * From API 16 onwards, the {@link android.content.ContentResolver} will always end up here.
+     * Passing the {@link CancellationSignal} through to SQLite means that queries which are no
+     * longer of interest (e.g. a search which was superseded by the user typing another
+     * character) stop running, rather than holding onto the database until they complete.
+     */
+    @TargetApi(16)
+    @Override
+    public Cursor query(Uri uri, String[] projection, String customSelection, String[] selectionArgs, String sortOrder, CancellationSignal cancellationSignal) {
+        if (matcher.match(uri) == DESCRIPTION) {
+            return queryDescription(uri);
+        }
+
+        Query query = buildQuery(uri, projection, customSelection, selectionArgs, sortOrder);
+        Cursor cursor = read().rawQuery(query.toString(), query.getSelectionArgs(), cancellationSignal);
+        cursor.setNotificationUri(getContext().getContentResolver(), getNotificationUri(uri));
+        return cursor;
+    }
+
+    /**
+     * @return The compressed description, see {@link Helper#findDescription(ContentResolver, String)}.
+     */
+    private Cursor queryDescription(Uri uri) {
+        final String[] columns = {DataColumns.DESCRIPTION};
+        final String[] args = {uri.getLastPathSegment()};
+        Cursor cursor = read().query(getDescriptionTableName(), columns, "id = ?", args, null, null, null);
+        cursor.setNotificationUri(getContext().getContentResolver(), getContentUri(uri.getLastPathSegment()));
+        return cursor;
+    }
+
+    /**
+     * Changes are notified using the uri of the specific app which changed (see
+     * {@link FDroidProvider#notifyChange(Uri)}). A single app will only be reloaded when it
+     * changes, but any list of apps (e.g. installed, or search results) could include the
+     * app that changed, so they listen for changes to all apps.
+     */
+    private Uri getNotificationUri(Uri uri) {
+        return matcher.match(uri) == CODE_SINGLE ? uri : getContentUri();
+    }
+
+    /**
+     * The query which {@link #query(Uri, String[], String, String[], String)} runs for this uri.
+     * Package-private so that tests can see how SQLite would go about it, see QueryPlan.
+     */
+    Query buildQuery(Uri uri, String[] projection, String customSelection, String[] selectionArgs, String sortOrder) {
         AppQuerySelection selection = new AppQuerySelection(customSelection, selectionArgs);
 
         // Queries which are for the main list of apps should not include swap apps.
@@ -819,10 +966,7 @@ public class AppProvider extends FDroidProvider {
         query.addSelection(selection);
         query.addFields(projection); // TODO: Make the order of addFields/addSelection not dependent on each other...
         query.addOrderBy(sortOrder);
-
-        Cursor cursor = read().rawQuery(query.toString(), selection.getArgs());
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
-        return cursor;
+        return query;
     }
 
     @Override
@@ -835,23 +979,46 @@ public class AppProvider extends FDroidProvider {
                 query = query.add(queryNoApks());
                 break;
 
+            case PURGE_REPO:
+                final boolean removeRepo = "true".equals(uri.getQueryParameter(QUERY_REMOVE_REPO));
+                return purgeRepo(Long.parseLong(uri.getLastPathSegment()), removeRepo);
+
             default:
                 throw new UnsupportedOperationException("Delete not supported for " + uri + ".");
 
         }
 
-        int count = write().delete(getTableName(), query.getSelection(), query.getArgs());
-        getContext().getContentResolver().notifyChange(uri, null);
+        final SQLiteDatabase db = write();
+        int count;
+        db.beginTransaction();
+        try {
+            count = db.delete(getTableName(), query.getSelection(), query.getArgs());
+            deleteOrphanedDescriptions(null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        invalidateLookupCache();
+        notifyChange(uri);
         return count;
     }
 
     @Override
     public Uri insert(Uri uri, ContentValues values) {
-        write().insertOrThrow(getTableName(), null, values);
-        if (!isApplyingBatch()) {
-            getContext().getContentResolver().notifyChange(uri, null);
+        final SQLiteDatabase db = write();
+        db.beginTransaction();
+        try {
+            saveDescription(values.getAsString(DataColumns.PACKAGE_NAME), values);
+            values = withoutDescription(values);
+            db.insertOrThrow(getTableName(), null, values);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
-        return getContentUri(values.getAsString(DataColumns.PACKAGE_NAME));
+        invalidateLookupCache();
+        Uri appUri = getContentUri(values.getAsString(DataColumns.PACKAGE_NAME));
+        notifyChange(appUri);
+        return appUri;
     }
 
     @Override
@@ -861,6 +1028,11 @@ public class AppProvider extends FDroidProvider {
 
             case CALC_APP_DETAILS_FROM_INDEX:
                 updateAppDetails();
+                invalidateLookupCache();
+                return 0;
+
+            case MAINTENANCE:
+                performMaintenance();
                 return 0;
 
             case CODE_SINGLE:
@@ -871,18 +1043,179 @@ public class AppProvider extends FDroidProvider {
                 throw new UnsupportedOperationException("Update not supported for " + uri + ".");
 
         }
-        int count = write().update(getTableName(), values, query.getSelection(), query.getArgs());
-        if (!isApplyingBatch()) {
-            getContext().getContentResolver().notifyChange(uri, null);
-        }
+        int count = updateWithDescription(uri.getLastPathSegment(), values, query);
+        invalidateLookupCache();
+        notifyChange(uri);
         return count;
     }
 
+    /**
+     * Updates a single app, but with its description (if there is one in {@code values})
+     * saved to {@link #getDescriptionTableName()} instead of the app table.
+     */
+    protected final int updateWithDescription(String packageName, ContentValues values, QuerySelection query) {
+        final SQLiteDatabase db = write();
+        db.beginTransaction();
+        try {
+            saveDescription(packageName, values);
+            values = withoutDescription(values);
+            int count = values.size() == 0 ? 0 : db.update(getTableName(), values, query.getSelection(), query.getArgs());
+            db.setTransactionSuccessful();
+            return count;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * A copy, so that the caller's values (e.g. those of a {@link android.content.ContentProviderOperation}
+     * which may be applied again) still have the description in them.
+     */
+    private static ContentValues withoutDescription(ContentValues values) {
+        if (!values.containsKey(DataColumns.DESCRIPTION)) {
+            return values;
+        }
+        final ContentValues copy = new ContentValues(values);
+        copy.remove(DataColumns.DESCRIPTION);
+        return copy;
+    }
+
+    /**
+     * The descriptions are compressed here as they are ingested from the index, on whichever
+     * thread is saving the apps, so that it only happens once per change to each description.
+     */
+    private void saveDescription(String packageName, ContentValues values) {
+        if (!values.containsKey(DataColumns.DESCRIPTION)) {
+            return;
+        }
+
+        final String description = values.getAsString(DataColumns.DESCRIPTION);
+        if (description == null) {
+            write().delete(getDescriptionTableName(), "id = ?", new String[] {packageName});
+        } else {
+            ContentValues compressed = new ContentValues(3);
+            compressed.put("id", packageName);
+            compressed.put(DataColumns.DESCRIPTION, CompressedText.compress(description));
+            compressed.put("words", SearchWords.from(description));
+            write().replaceOrThrow(getDescriptionTableName(), null, compressed);
+        }
+    }
+
+    /**
+     * @param restriction Only look at descriptions of apps which match this, or all apps if null.
+     */
+    private void deleteOrphanedDescriptions(String restriction) {
+        final String description = getDescriptionTableName();
+        final String noApp = "NOT EXISTS (SELECT 1 FROM " + getTableName() + " WHERE " + getTableName() + ".id = " + description + ".id)";
+        write().delete(description, restriction == null ? noApp : restriction + " AND " + noApp, null);
+    }
+
+    /**
+     * Removes every apk belonging to the repo, and then every app which no longer has any apks,
+     * all within one transaction. The apps which still have apks from other repos only need
+     * their details (e.g. suggested version) recalculated if they lost an apk, so rather than
+     * doing so for every app like {@link #updateAppDetails()}, only they are updated.
+     *
+     * @param removeRepo Whether to delete the repo too, so that it never shows up without
+     *                   its apps, or its apps without it.
+     * @return The number of apps which were removed.
+     */
+    private int purgeRepo(long repoId, boolean removeRepo) {
+        final SQLiteDatabase db = write();
+        final String apk = getApkTableName();
+        final String app = getTableName();
+        final String[] repoArgs = {Long.toString(repoId)};
+
+        int apkCount;
+        int appCount;
+        db.beginTransaction();
+        try {
+            final String affectedApps = loadKeys("purged_apps", new String[] {"packageName TEXT"}, null);
+            db.execSQL("INSERT INTO " + affectedApps + " SELECT DISTINCT id FROM " + apk + " WHERE repo = ?", repoArgs);
+
+            apkCount = db.delete(apk, "repo = ?", repoArgs);
+
+            final String isAffected = app + ".id IN (SELECT packageName FROM " + affectedApps + ")";
+            final String hasNoApks = "NOT EXISTS (SELECT 1 FROM " + apk + " WHERE " + apk + ".id = " + app + ".id)";
+            appCount = db.delete(app, isAffected + " AND " + hasNoApks, null);
+            deleteOrphanedDescriptions(getDescriptionTableName() + ".id IN (SELECT packageName FROM " + affectedApps + ")");
+
+            updateAppDetails(isAffected);
+            if (removeRepo) {
+                RepoProvider.deleteRepo(db, repoId);
+            } else {
+                RepoProvider.clearStatsCounts(db, repoId);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        Utils.debugLog(TAG, "Removed " + apkCount + " apks and " + appCount + " apps with no apks from repo " + repoId);
+        DatabaseMaintenance.recordChurn(getContext(), apkCount + appCount);
+        invalidateLookupCache();
+        notifyChange(getContentUri());
+        notifyChange(ApkProvider.getContentUri());
+        notifyChange(RepoProvider.getStatsUri());
+        if (removeRepo) {
+            notifyChange(RepoProvider.getContentUri(repoId));
+        }
+        return appCount;
+    }
+
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    /**
+     * Brings the statistics used by the query planner up to date, and gives the pages which
+     * used to belong to dropped tables or deleted rows back to the file system. Databases
+     * created before incremental vacuuming was enabled need one full VACUUM to switch over.
+     * Neither can be done within a transaction.
+     */
+    private void performMaintenance() {
+        final SQLiteDatabase db = write();
+        db.execSQL("ANALYZE");
+
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) == AUTO_VACUUM_INCREMENTAL) {
+            stepToCompletion(db, "PRAGMA incremental_vacuum");
+        } else {
+            Log.i(TAG, "Switching database to incremental vacuuming, requires a full VACUUM.");
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+        }
+
+        // With write-ahead logging, nothing actually leaves the database file until
+        // the log has been written back to it.
+        stepToCompletion(db, "PRAGMA wal_checkpoint");
+    }
+
+    /**
+     * Some pragmas only do their work one row at a time, as each row is stepped through.
+     */
+    private static void stepToCompletion(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        cursor.getCount();
+        cursor.close();
+    }
+
     protected void updateAppDetails() {
-        updateCompatibleFlags();
-        updateSuggestedFromUpstream();
-        updateSuggestedFromLatest();
-        updateIconUrls(getContext(), write(), getTableName(), getApkTableName());
+        updateAppDetails(null);
+    }
+
+    /**
+     * @param restriction If not null, only apps matching this condition are updated.
+     */
+    private void updateAppDetails(String restriction) {
+        updateCompatibleFlags(restriction);
+        updateSuggestedFromUpstream(restriction);
+        updateSuggestedFromLatest(restriction);
+        updateIconUrls(getContext(), write(), getTableName(), getApkTableName(), restriction);
+    }
+
+    private static String whereSql(String condition, String restriction) {
+        if (restriction == null) {
+            return condition == null ? "" : " WHERE " + condition;
+        }
+        return condition == null ? " WHERE " + restriction : " WHERE ( " + condition + " ) AND ( " + restriction + " )";
     }
 
     /**
@@ -896,7 +1229,7 @@ public class AppProvider extends FDroidProvider {
      *      FROM fdroid_apk
      *      WHERE fdroid_apk.id = fdroid_app.id );
      */
-    private void updateCompatibleFlags() {
+    private void updateCompatibleFlags(String restriction) {
 
         Utils.debugLog(TAG, "Calculating whether apps are compatible, based on whether any of their apks are compatible");
 
@@ -907,7 +1240,8 @@ public class AppProvider extends FDroidProvider {
                 "UPDATE " + app + " SET compatible = ( " +
                 " SELECT TOTAL( " + apk + ".compatible ) > 0 " +
                 " FROM " + apk +
-                " WHERE " + apk + ".id = " + app + ".id );";
+                " WHERE " + apk + ".id = " + app + ".id ) " +
+                whereSql(null, restriction);
 
         write().execSQL(updateSql);
     }
@@ -931,7 +1265,7 @@ public class AppProvider extends FDroidProvider {
      *   )
      *   WHERE upstreamVercode > 0
      */
-    private void updateSuggestedFromUpstream() {
+    private void updateSuggestedFromUpstream(String restriction) {
 
         Utils.debugLog(TAG, "Calculating suggested versions for all apps which specify an upstream version code.");
 
@@ -948,7 +1282,7 @@ public class AppProvider extends FDroidProvider {
                     app + ".id = " + apk + ".id AND " +
                     restrictToStable +
                     " ( " + app + ".compatible = 0 OR " + apk + ".compatible = 1 ) ) " +
-                " WHERE upstreamVercode > 0 ";
+                whereSql("upstreamVercode > 0", restriction);
 
         write().execSQL(updateSql);
     }
@@ -972,7 +1306,7 @@ public class AppProvider extends FDroidProvider {
      *  )
      *  WHERE upstreamVercode = 0 OR upstreamVercode IS NULL OR suggestedVercode IS NULL;
      */
-    private void updateSuggestedFromLatest() {
+    private void updateSuggestedFromLatest(String restriction) {
 
         Utils.debugLog(TAG, "Calculating suggested versions for all apps which don't specify an upstream version code.");
 
@@ -986,7 +1320,7 @@ public class AppProvider extends FDroidProvider {
                 " WHERE " +
                     app + ".id = " + apk + ".id AND " +
                     " ( " + app + ".compatible = 0 OR " + apk + ".compatible = 1 ) ) " +
-                " WHERE upstreamVercode = 0 OR upstreamVercode IS NULL OR suggestedVercode IS NULL ";
+                whereSql("upstreamVercode = 0 OR upstreamVercode IS NULL OR suggestedVercode IS NULL", restriction);
 
         write().execSQL(updateSql);
     }
@@ -996,7 +1330,7 @@ public class AppProvider extends FDroidProvider {
      * it without instantiating an {@link AppProvider}. This is also the reason it needs to accept
      * the context and database as arguments.
      */
-    private static void updateIconUrls(Context context, SQLiteDatabase db, String appTable, String apkTable) {
+    private static void updateIconUrls(Context context, SQLiteDatabase db, String appTable, String apkTable, String restriction) {
         final String iconsDir = Utils.getIconsDir(context, 1.0);
         final String iconsDirLarge = Utils.getIconsDir(context, 1.5);
         String repoVersion = Integer.toString(Repo.VERSION_DENSITY_SPECIFIC_ICONS);
@@ -1004,7 +1338,7 @@ public class AppProvider extends FDroidProvider {
                 + repoVersion);
         Utils.debugLog(TAG, "Using icons dir '" + iconsDir + "'");
         Utils.debugLog(TAG, "Using large icons dir '" + iconsDirLarge + "'");
-        String query = getIconUpdateQuery(appTable, apkTable);
+        String query = getIconUpdateQuery(appTable, apkTable) + whereSql(null, restriction);
         final String[] params = {
             repoVersion, iconsDir, Utils.FALLBACK_ICONS_DIR,
             repoVersion, iconsDirLarge, Utils.FALLBACK_ICONS_DIR,
@@ -0,0 +1,72 @@
+package org.fdroid.fdroid.data;
+
+import android.database.Cursor;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Works out which field of a value object each column of a cursor corresponds to. Doing so
+ * means comparing the name of each column against every field we know about. Rather than doing
+ * that for every single row (as the {@link App} and {@link Apk} constructors used to), it is
+ * done once per projection, after which reading a row is just a switch on an int for each column.
+ */
+final class ColumnMapping {
+
+    public static final int UNKNOWN = -1;
+
+    /**
+     * There are only a handful of different projections used throughout the app, so this should
+     * never be hit in practice. It is only here to make sure we don't grow without bound if that
+     * ever changes.
+     */
+    private static final int MAX_PROJECTIONS = 32;
+
+    private final Map<String, Integer> fieldsByColumn = new HashMap<>();
+
+    private final Map<List<String>, int[]> fieldsByProjection = new HashMap<>();
+
+    /**
+     * The vast majority of lookups are for the same cursor as last time (e.g. when iterating
+     * over all of its rows), in which case we don't even need to look in {@link #fieldsByProjection}.
+     */
+    private String[] lastColumns;
+    private int[] lastFields;
+
+    public ColumnMapping map(String column, int field) {
+        fieldsByColumn.put(column, field);
+        return this;
+    }
+
+    /**
+     * @return An array with one entry per column in the cursor, each of which is either
+     * the field passed to {@link #map(String, int)} for that column, or {@link #UNKNOWN}.
+     */
+    public synchronized int[] fieldsFor(Cursor cursor) {
+        final String[] columns = cursor.getColumnNames();
+        if (columns == lastColumns) {
+            return lastFields;
+        }
+
+        final List<String> projection = Arrays.asList(columns);
+        int[] fields = fieldsByProjection.get(projection);
+        if (fields == null) {
+            fields = new int[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                Integer field = fieldsByColumn.get(columns[i]);
+                fields[i] = field == null ? UNKNOWN : field;
+            }
+
+            if (fieldsByProjection.size() >= MAX_PROJECTIONS) {
+                fieldsByProjection.clear();
+            }
+            fieldsByProjection.put(projection, fields);
+        }
+
+        lastColumns = columns;
+        lastFields = fields;
+        return fields;
+    }
+}
@@ -0,0 +1,70 @@
+package org.fdroid.fdroid.data;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Descriptions are HTML, full of the same tags and words over and over again, and typically
+ * shrink to around a third of their size when deflated. They are only ever read one at a time
+ * (see {@link AppProvider.Helper#findDescription(android.content.ContentResolver, String)}),
+ * so the cost of inflating them again doesn't matter.
+ */
+final class CompressedText {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private CompressedText() { }
+
+    static byte[] compress(String text) {
+        final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            final byte[] input = text.getBytes(UTF_8);
+            deflater.setInput(input);
+            deflater.finish();
+
+            final ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 2 + 16);
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                output.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @return The original text, or null if {@code compressed} is null or was not produced
+     * by {@link #compress(String)}.
+     */
+    static String decompress(byte[] compressed) {
+        if (compressed == null) {
+            return null;
+        }
+
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+
+            final ByteArrayOutputStream output = new ByteArrayOutputStream(compressed.length * 3);
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            while (!inflater.finished()) {
+                final int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    return null;
+                }
+                output.write(buffer, 0, length);
+            }
+            return new String(output.toByteArray(), UTF_8);
+        } catch (DataFormatException e) {
+            return null;
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -1,16 +1,21 @@
 package org.fdroid.fdroid.data;
 
+import android.annotation.TargetApi;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.text.TextUtils;
 import android.util.Log;
 
 import org.fdroid.fdroid.R;
 import org.fdroid.fdroid.Utils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class DBHelper extends SQLiteOpenHelper {
@@ -51,9 +56,9 @@ public class DBHelper extends SQLiteOpenHelper {
             + "srcname string, "
             + "minSdkVersion integer, "
             + "maxSdkVersion integer, "
-            + "permissions string, "
-            + "features string, "
-            + "nativecode string, "
+            + "permissions text, "
+            + "features text, "
+            + "nativecode text, "
             + "hashType string, "
             + "added string, "
             + "compatible int not null, "
@@ -68,7 +73,6 @@ public class DBHelper extends SQLiteOpenHelper {
             + "name text not null, "
             + "summary text not null, "
             + "icon text, "
-            + "description text not null, "
             + "license text not null, "
             + "webURL text, "
             + "trackerURL text, "
@@ -93,6 +97,20 @@ public class DBHelper extends SQLiteOpenHelper {
             + "iconUrlLarge text, "
             + "primary key(id));";
 
+    /**
+     * The description of each app, deflated by {@link CompressedText}. Nothing but the app
+     * details screen needs these, so they are kept out of the way of the app table, which
+     * every list of apps has to read. Searching needs the text, so the words of each
+     * description are also kept here, see {@link SearchWords}.
+     */
+    public static final String TABLE_APP_DESCRIPTION = "fdroid_appDescription";
+    private static final String CREATE_TABLE_APP_DESCRIPTION = "CREATE TABLE " + TABLE_APP_DESCRIPTION
+            + " ( "
+            + "id TEXT NOT NULL PRIMARY KEY, "
+            + "description BLOB NOT NULL, "
+            + "words TEXT NOT NULL"
+            + " );";
+
     public static final String TABLE_INSTALLED_APP = "fdroid_installedApp";
     private static final String CREATE_TABLE_INSTALLED_APP = "CREATE TABLE " + TABLE_INSTALLED_APP
             + " ( "
@@ -100,17 +118,84 @@ public class DBHelper extends SQLiteOpenHelper {
             + InstalledAppProvider.DataColumns.VERSION_CODE + " INT NOT NULL, "
             + InstalledAppProvider.DataColumns.VERSION_NAME + " TEXT NOT NULL, "
             + InstalledAppProvider.DataColumns.APPLICATION_LABEL + " TEXT NOT NULL, "
-            + InstalledAppProvider.DataColumns.SIGNATURE + " TEXT NOT NULL "
+            + InstalledAppProvider.DataColumns.SIGNATURE + " TEXT NOT NULL, "
+            + InstalledAppProvider.DataColumns.LAST_UPDATE_TIME + " INTEGER NOT NULL DEFAULT 0 "
             + " );";
     private static final String DROP_TABLE_INSTALLED_APP = "DROP TABLE " + TABLE_INSTALLED_APP + ";";
 
-    private static final int DB_VERSION = 52;
+    /**
+     * One row per repo which has been updated, see {@link RepoStats}.
+     */
+    public static final String TABLE_REPO_STATS = "fdroid_repoStats";
+    private static final String CREATE_TABLE_REPO_STATS = "CREATE TABLE " + TABLE_REPO_STATS
+            + " ( "
+            + RepoProvider.StatsColumns.REPO_ID + " INTEGER NOT NULL PRIMARY KEY, "
+            + RepoProvider.StatsColumns.APP_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+            + RepoProvider.StatsColumns.APK_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+            + RepoProvider.StatsColumns.COMPATIBLE_APK_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+            + RepoProvider.StatsColumns.LAST_UPDATE_DURATION + " INTEGER NOT NULL DEFAULT 0, "
+            + RepoProvider.StatsColumns.INDEX_SIZE + " INTEGER NOT NULL DEFAULT 0 "
+            + " );";
+
+    /**
+     * Every distinct permission, feature and native code name used by an apk, see {@link ApkDictionary}.
+     */
+    public static final String TABLE_APK_DICTIONARY = "fdroid_apkDictionary";
+    private static final String CREATE_TABLE_APK_DICTIONARY = "CREATE TABLE " + TABLE_APK_DICTIONARY
+            + " ( "
+            + "id INTEGER NOT NULL PRIMARY KEY, "
+            + "value TEXT NOT NULL UNIQUE"
+            + " );";
+
+    /**
+     * One row per apk in the apk cache, see {@link ApkCacheProvider}.
+     */
+    public static final String TABLE_APK_CACHE = "fdroid_apkCache";
+    private static final String CREATE_TABLE_APK_CACHE = "CREATE TABLE " + TABLE_APK_CACHE
+            + " ( "
+            + ApkCacheProvider.DataColumns.HASH + " TEXT NOT NULL PRIMARY KEY, "
+            + ApkCacheProvider.DataColumns.SIZE + " INTEGER NOT NULL, "
+            + ApkCacheProvider.DataColumns.LAST_USED + " INTEGER NOT NULL"
+            + " );";
+
+    private static final int DB_VERSION = 59;
 
     private final Context context;
 
     public DBHelper(Context context) {
         super(context, DATABASE_NAME, null, DB_VERSION);
         this.context = context;
+        if (Build.VERSION.SDK_INT >= 16) {
+            enableWriteAheadLogging();
+        }
+    }
+
+    /**
+     * Write-ahead logging means that queries from the UI (e.g. the app lists or
+     * {@link org.fdroid.fdroid.AppDetails}) read from the last committed state of the
+     * database, rather than waiting for the lock while a repo update commits in the background.
+     * From API 16, this is configured before the database is opened, so that the connection
+     * pool is set up with more than one connection for reading from.
+     */
+    @TargetApi(16)
+    private void enableWriteAheadLogging() {
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * API 11 - 15 have no way to ask for write-ahead logging before the database is opened,
+     * so it is turned on here instead. Once it has been enabled, SQLite remembers it for the
+     * database file, but the connection still needs to be told that it may read concurrently.
+     */
+    @TargetApi(11)
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (Build.VERSION.SDK_INT >= 11 && Build.VERSION.SDK_INT < 16 && !db.isReadOnly()) {
+            if (!db.enableWriteAheadLogging()) {
+                Log.w(TAG, "Unable to enable write-ahead logging, reads will block during writes");
+            }
+        }
     }
 
     private void populateRepoNames(SQLiteDatabase db, int oldVersion) {
@@ -196,6 +281,9 @@ public class DBHelper extends SQLiteOpenHelper {
         createAppApk(db);
         createInstalledApp(db);
         db.execSQL(CREATE_TABLE_REPO);
+        db.execSQL(CREATE_TABLE_REPO_STATS);
+        db.execSQL(CREATE_TABLE_APK_DICTIONARY);
+        db.execSQL(CREATE_TABLE_APK_CACHE);
 
         insertRepo(
                 db,
@@ -288,6 +376,14 @@ public class DBHelper extends SQLiteOpenHelper {
         updateIconUrlLarge(db, oldVersion);
         recreateInstalledCache(db, oldVersion);
         addCredentialsToRepo(db, oldVersion);
+        addRepoIndexToApk(db, oldVersion);
+        // Has to come before anything which rebuilds the app table, which would otherwise
+        // leave the descriptions behind, see moveDescriptionsToSideTable().
+        moveDescriptionsToSideTable(db, oldVersion);
+        rebuildAppApk(db, oldVersion);
+        addRepoStats(db, oldVersion);
+        encodeApkLists(db, oldVersion);
+        addApkCache(db, oldVersion);
     }
 
     /**
@@ -436,6 +532,147 @@ public class DBHelper extends SQLiteOpenHelper {
         }
     }
 
+    /**
+     * Removing or disabling a repo deletes all of its apks, which without this index means
+     * scanning every apk from every repo.
+     */
+    private void addRepoIndexToApk(SQLiteDatabase db, int oldVersion) {
+        if (oldVersion < 54) {
+            Utils.debugLog(TAG, "Adding index on repo column of " + TABLE_APK);
+            db.execSQL("create index if not exists apk_repo on " + TABLE_APK + " (repo);");
+        }
+    }
+
+    /**
+     * Each repo update used to replace the app and apk tables with a copy made via
+     * "CREATE TABLE ... AS SELECT", which has neither a primary key nor any of the indexes.
+     * Rebuild them with the proper structure, keeping the contents (and hence which updates
+     * the user has chosen to ignore).
+     */
+    private void rebuildAppApk(SQLiteDatabase db, int oldVersion) {
+        if (oldVersion < 55) {
+            Utils.debugLog(TAG, "Rebuilding " + TABLE_APP + " and " + TABLE_APK + " with their primary keys and indexes");
+            final String oldApp = TABLE_APP + "__old__";
+            db.execSQL("ALTER TABLE " + TABLE_APP + " RENAME TO " + oldApp);
+            dropIndexes(db, oldApp);
+            createAppTable(db, TABLE_APP, "");
+            copyRows(db, oldApp, TABLE_APP);
+            db.execSQL("DROP TABLE " + oldApp);
+
+            final String oldApk = TABLE_APK + "__old__";
+            db.execSQL("ALTER TABLE " + TABLE_APK + " RENAME TO " + oldApk);
+            dropIndexes(db, oldApk);
+            createApkTable(db, TABLE_APK, "");
+            copyRows(db, oldApk, TABLE_APK);
+            db.execSQL("DROP TABLE " + oldApk);
+        }
+    }
+
+    /**
+     * The counts can be worked out from what is already in the apk table, but how long the
+     * last update took and how big the index was won't be known until the next update.
+     */
+    private void addRepoStats(SQLiteDatabase db, int oldVersion) {
+        if (oldVersion < 56) {
+            Utils.debugLog(TAG, "Creating " + TABLE_REPO_STATS + " table");
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_REPO_STATS);
+            db.execSQL(CREATE_TABLE_REPO_STATS);
+            db.execSQL("INSERT INTO " + TABLE_REPO_STATS + " (" +
+                    RepoProvider.StatsColumns.REPO_ID + ", " +
+                    RepoProvider.StatsColumns.APP_COUNT + ", " +
+                    RepoProvider.StatsColumns.APK_COUNT + ", " +
+                    RepoProvider.StatsColumns.COMPATIBLE_APK_COUNT + ") " +
+                    "SELECT repo, COUNT(DISTINCT id), COUNT(*), TOTAL(compatible) FROM " + TABLE_APK + " GROUP BY repo");
+        }
+    }
+
+    /**
+     * SQLite can't drop a column, so once the descriptions have been moved, the app table is
+     * rebuilt without it. The app table is only missing the column already if it was created
+     * from scratch by {@link #resetTransient(SQLiteDatabase, int)}, in which case there is
+     * nothing to move.
+     */
+    private void moveDescriptionsToSideTable(SQLiteDatabase db, int oldVersion) {
+        if (oldVersion < 57 && columnExists(db, TABLE_APP, "description")) {
+            Utils.debugLog(TAG, "Compressing app descriptions into " + TABLE_APP_DESCRIPTION);
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_APP_DESCRIPTION);
+            createAppDescriptionTable(db, TABLE_APP_DESCRIPTION);
+
+            final SQLiteStatement insert = db.compileStatement("INSERT OR REPLACE INTO " + TABLE_APP_DESCRIPTION + " (id, description, words) VALUES (?, ?, ?)");
+            final Cursor cursor = db.rawQuery("SELECT id, description FROM " + TABLE_APP + " WHERE description IS NOT NULL", null);
+            try {
+                while (cursor.moveToNext()) {
+                    final String description = cursor.getString(1);
+                    insert.bindString(1, cursor.getString(0));
+                    insert.bindBlob(2, CompressedText.compress(description));
+                    insert.bindString(3, SearchWords.from(description));
+                    insert.executeInsert();
+                }
+            } finally {
+                cursor.close();
+                insert.close();
+            }
+
+            Utils.debugLog(TAG, "Rebuilding " + TABLE_APP + " without its description column");
+            final String oldApp = TABLE_APP + "__old__";
+            db.execSQL("ALTER TABLE " + TABLE_APP + " RENAME TO " + oldApp);
+            dropIndexes(db, oldApp);
+            createAppTable(db, TABLE_APP, "");
+            copyRows(db, oldApp, TABLE_APP);
+            db.execSQL("DROP TABLE " + oldApp);
+        }
+    }
+
+    private void encodeApkLists(SQLiteDatabase db, int oldVersion) {
+        if (oldVersion < 58) {
+            Utils.debugLog(TAG, "Moving permissions, features and native code of each apk into " + TABLE_APK_DICTIONARY);
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_APK_DICTIONARY);
+            db.execSQL(CREATE_TABLE_APK_DICTIONARY);
+
+            // The lists used to be declared as "string", which SQLite gives numeric affinity,
+            // so a list of just the one id would be stored as an integer rather than as text.
+            final String oldApk = TABLE_APK + "__old__";
+            db.execSQL("ALTER TABLE " + TABLE_APK + " RENAME TO " + oldApk);
+            dropIndexes(db, oldApk);
+            createApkTable(db, TABLE_APK, "");
+            copyRows(db, oldApk, TABLE_APK);
+            db.execSQL("DROP TABLE " + oldApk);
+
+            final ApkDictionary dictionary = new ApkDictionary();
+            final String[] projection = {
+                "rowid",
+                ApkProvider.DataColumns.PERMISSIONS,
+                ApkProvider.DataColumns.FEATURES,
+                ApkProvider.DataColumns.NATIVE_CODE,
+            };
+            final Cursor cursor = db.query(TABLE_APK, projection, null, null, null, null, null);
+            try {
+                final ContentValues values = new ContentValues(3);
+                while (cursor.moveToNext()) {
+                    for (int i = 1; i < projection.length; i++) {
+                        values.put(projection[i], cursor.getString(i));
+                    }
+                    dictionary.encode(db, values);
+                    db.update(TABLE_APK, values, "rowid = ?", new String[] {cursor.getString(0)});
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Apks cached before this was added are named after the apk rather than its hash, and
+     * will be deleted by {@link org.fdroid.fdroid.net.ApkCache#tidy(Context)}.
+     */
+    private void addApkCache(SQLiteDatabase db, int oldVersion) {
+        if (oldVersion < 59) {
+            Utils.debugLog(TAG, "Creating " + TABLE_APK_CACHE + " table");
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_APK_CACHE);
+            db.execSQL(CREATE_TABLE_APK_CACHE);
+        }
+    }
+
     private void addChangelogToApp(SQLiteDatabase db, int oldVersion) {
         if (oldVersion < 48 && !columnExists(db, TABLE_APP, "changelogURL")) {
             Utils.debugLog(TAG, "Adding changelogURL column to " + TABLE_APP);
@@ -485,11 +722,90 @@ public class DBHelper extends SQLiteOpenHelper {
     }
 
     private static void createAppApk(SQLiteDatabase db) {
-        db.execSQL(CREATE_TABLE_APP);
-        db.execSQL("create index app_id on " + TABLE_APP + " (id);");
-        db.execSQL(CREATE_TABLE_APK);
-        db.execSQL("create index apk_vercode on " + TABLE_APK + " (vercode);");
-        db.execSQL("create index apk_id on " + TABLE_APK + " (id);");
+        createAppTable(db, TABLE_APP, "");
+        createAppDescriptionTable(db, TABLE_APP_DESCRIPTION);
+        createApkTable(db, TABLE_APK, "");
+    }
+
+    /**
+     * Creates an empty table with the same structure as {@link #TABLE_APP}, e.g. for
+     * {@link TempAppProvider} to fill in before it replaces the real one.
+     * @param indexPrefix Index names are unique across the entire database rather than per
+     * table, so any table other than the real one needs to name its indexes differently,
+     * see {@link TempAppProvider#getIndexPrefix(SQLiteDatabase, String)}.
+     */
+    static void createAppTable(SQLiteDatabase db, String table, String indexPrefix) {
+        db.execSQL(CREATE_TABLE_APP.replaceFirst(TABLE_APP, table));
+        createAppIndexes(db, table, indexPrefix);
+    }
+
+    /**
+     * @see #createAppTable(SQLiteDatabase, String, String)
+     */
+    static void createAppDescriptionTable(SQLiteDatabase db, String table) {
+        db.execSQL(CREATE_TABLE_APP_DESCRIPTION.replaceFirst(TABLE_APP_DESCRIPTION, table));
+    }
+
+    static void createAppIndexes(SQLiteDatabase db, String table, String indexPrefix) {
+        db.execSQL("create index " + indexPrefix + "app_id on " + table + " (id);");
+    }
+
+    /**
+     * @see #createAppTable(SQLiteDatabase, String, String)
+     */
+    static void createApkTable(SQLiteDatabase db, String table, String indexPrefix) {
+        db.execSQL(CREATE_TABLE_APK.replaceFirst(TABLE_APK, table));
+        createApkIndexes(db, table, indexPrefix);
+    }
+
+    static void createApkIndexes(SQLiteDatabase db, String table, String indexPrefix) {
+        db.execSQL("create index " + indexPrefix + "apk_vercode on " + table + " (vercode);");
+        db.execSQL("create index " + indexPrefix + "apk_id on " + table + " (id);");
+        db.execSQL("create index " + indexPrefix + "apk_repo on " + table + " (repo);");
+    }
+
+    /**
+     * Drops every index on the table other than the one for its primary key, which SQLite
+     * creates itself and which can't be dropped. Renaming a table keeps its indexes, along
+     * with their names.
+     */
+    static void dropIndexes(SQLiteDatabase db, String table) {
+        final List<String> indexes = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'index' AND tbl_name = ? AND sql IS NOT NULL",
+                new String[] {table});
+        try {
+            while (cursor.moveToNext()) {
+                indexes.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        for (final String index : indexes) {
+            db.execSQL("DROP INDEX " + index);
+        }
+    }
+
+    /**
+     * Copies every row from one table to another, for each column which they both have.
+     * Columns added by {@link #onUpgrade(SQLiteDatabase, int, int)} end up in a different
+     * order to those in a freshly created table, so "INSERT ... SELECT *" is not an option.
+     * Rows which clash with the primary key of an earlier one replace it.
+     */
+    static void copyRows(SQLiteDatabase db, String from, String to) {
+        final List<String> columns = getColumnNames(db, from);
+        columns.retainAll(getColumnNames(db, to));
+        final String names = TextUtils.join(", ", columns);
+        db.execSQL("INSERT OR REPLACE INTO " + to + " (" + names + ") SELECT " + names + " FROM " + from);
+    }
+
+    private static List<String> getColumnNames(SQLiteDatabase db, String table) {
+        Cursor cursor = db.rawQuery("select * from " + table + " limit 0,1", null);
+        try {
+            return new ArrayList<>(Arrays.asList(cursor.getColumnNames()));
+        } finally {
+            cursor.close();
+        }
     }
 
     private void createInstalledApp(SQLiteDatabase db) {
@@ -500,7 +816,7 @@ public class DBHelper extends SQLiteOpenHelper {
     // If any column was added or removed, just drop the table, create it
     // again and let the cache be filled from scratch again.
     private void recreateInstalledCache(SQLiteDatabase db, int oldVersion) {
-        if (oldVersion < 51) {
+        if (oldVersion < 53) {
             db.execSQL(DROP_TABLE_INSTALLED_APP);
             createInstalledApp(db);
         }
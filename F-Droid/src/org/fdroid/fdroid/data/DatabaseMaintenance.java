@@ -0,0 +1,147 @@
+package org.fdroid.fdroid.data;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.os.Build;
+import android.os.PowerManager;
+import android.util.Log;
+
+import java.io.File;
+
+/**
+ * Each repo update replaces the entire app and apk tables (see {@link TempAppProvider}), and
+ * disabling or removing a repo deletes all of its apks (see {@link AppProvider#getPurgeRepoUri(long, boolean)}).
+ * Over time, this leaves the database file full of free pages, and the statistics which SQLite
+ * uses to choose between indexes describe tables which no longer exist.
+ *
+ * The number of rows written and deleted is tallied up as it happens, and once it gets large
+ * enough, {@link #performIfDue(Context)} will run ANALYZE and reclaim the free pages. The file
+ * size and the time taken to query the list of apps, both before and after, are kept along with
+ * the time of the last run, so that the effect can be seen in the logs.
+ */
+public final class DatabaseMaintenance {
+
+    private static final String TAG = "DatabaseMaintenance";
+
+    private static final String PREFERENCES_FILE = "databaseMaintenance";
+
+    private static final String KEY_CHURN = "churn";
+    private static final String KEY_LAST_RUN = "lastRun";
+    private static final String KEY_LAST_DURATION = "lastDurationMs";
+    private static final String KEY_SIZE_BEFORE = "lastSizeBefore";
+    private static final String KEY_SIZE_AFTER = "lastSizeAfter";
+    private static final String KEY_QUERY_BEFORE = "lastQueryBeforeMs";
+    private static final String KEY_QUERY_AFTER = "lastQueryAfterMs";
+
+    /**
+     * About the size of the main F-Droid repo being replaced twice, i.e. two updates.
+     */
+    static final long CHURN_THRESHOLD = 20000;
+
+    private DatabaseMaintenance() { }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFERENCES_FILE, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @param rows The number of rows which were inserted, updated or deleted.
+     */
+    static synchronized void recordChurn(Context context, long rows) {
+        final SharedPreferences prefs = getPreferences(context);
+        prefs.edit().putLong(KEY_CHURN, prefs.getLong(KEY_CHURN, 0) + rows).commit();
+    }
+
+    public static long getChurn(Context context) {
+        return getPreferences(context).getLong(KEY_CHURN, 0);
+    }
+
+    /**
+     * Maintenance is due once enough rows have changed, but will only actually be performed
+     * while nobody is using the device, because nothing can write to the database while
+     * it is vacuumed.
+     */
+    public static boolean isDue(Context context) {
+        return isDue(getChurn(context), isIdle(context));
+    }
+
+    static boolean isDue(long churn, boolean idle) {
+        return churn >= CHURN_THRESHOLD && idle;
+    }
+
+    public static void performIfDue(Context context) {
+        if (isDue(context)) {
+            perform(context);
+        }
+    }
+
+    /**
+     * Must not be called on the UI thread. Takes a number of seconds on a large database.
+     */
+    public static void perform(Context context) {
+        final long startTime = System.currentTimeMillis();
+        final long churn = getChurn(context);
+        final long sizeBefore = getDatabaseSize(context);
+        final long queryBefore = timeAppListQuery(context);
+
+        context.getContentResolver().update(AppProvider.getMaintenanceUri(), null, null, null);
+
+        final long sizeAfter = getDatabaseSize(context);
+        final long queryAfter = timeAppListQuery(context);
+        final long duration = System.currentTimeMillis() - startTime;
+
+        synchronized (DatabaseMaintenance.class) {
+            final SharedPreferences prefs = getPreferences(context);
+            prefs.edit()
+                    .putLong(KEY_CHURN, Math.max(0, prefs.getLong(KEY_CHURN, 0) - churn))
+                    .putLong(KEY_LAST_RUN, System.currentTimeMillis())
+                    .putLong(KEY_LAST_DURATION, duration)
+                    .putLong(KEY_SIZE_BEFORE, sizeBefore)
+                    .putLong(KEY_SIZE_AFTER, sizeAfter)
+                    .putLong(KEY_QUERY_BEFORE, queryBefore)
+                    .putLong(KEY_QUERY_AFTER, queryAfter)
+                    .commit();
+        }
+
+        Log.i(TAG, "Database maintenance after " + churn + " changed rows took " + duration + "ms. " +
+                "Size went from " + sizeBefore + " to " + sizeAfter + " bytes, " +
+                "listing all apps went from " + queryBefore + "ms to " + queryAfter + "ms.");
+    }
+
+    /**
+     * Includes the write-ahead log, which is where everything ends up until it is checkpointed.
+     */
+    private static long getDatabaseSize(Context context) {
+        final File database = context.getDatabasePath(DBHelper.DATABASE_NAME);
+        final File wal = new File(database.getPath() + "-wal");
+        return database.length() + wal.length();
+    }
+
+    /**
+     * The same query as the main list of available apps, which is the one most affected by
+     * stale statistics because it joins the app, apk and installed app tables.
+     */
+    private static long timeAppListQuery(Context context) {
+        final long startTime = System.currentTimeMillis();
+        Cursor cursor = context.getContentResolver().query(AppProvider.getContentUri(),
+                AppProvider.DataColumns.ALL, null, null, AppProvider.DataColumns.NAME);
+        if (cursor != null) {
+            // Queries aren't actually run until the cursor needs to know about its rows.
+            cursor.getCount();
+            cursor.close();
+        }
+        return System.currentTimeMillis() - startTime;
+    }
+
+    @TargetApi(20)
+    @SuppressWarnings("deprecation")
+    private static boolean isIdle(Context context) {
+        final PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        if (Build.VERSION.SDK_INT >= 20) {
+            return !powerManager.isInteractive();
+        }
+        return !powerManager.isScreenOn();
+    }
+}
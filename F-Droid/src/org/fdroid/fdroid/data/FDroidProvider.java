@@ -8,11 +8,17 @@ import android.content.ContentValues;
 import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.os.Build;
+import android.text.TextUtils;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -25,8 +31,22 @@ public abstract class FDroidProvider extends ContentProvider {
 
     private DBHelper dbHelper;
 
+    /**
+     * When more than this many uris belonging to the same provider change within one batch,
+     * a single notification is sent for that entire provider instead. Anyone observing a
+     * list will reload it once either way, and it saves the content resolver having to walk
+     * its observer tree for each package that was changed.
+     */
+    static final int MAX_INDIVIDUAL_CHANGES = 10;
+
     private boolean isApplyingBatch;
 
+    /**
+     * Uris which have changed during the batch currently being applied. These are only
+     * published once the batch has been committed, see {@link #notifyChange(Uri)}.
+     */
+    private final Set<Uri> pendingChanges = new LinkedHashSet<>();
+
     protected abstract String getTableName();
 
     protected abstract String getProviderName();
@@ -52,24 +72,135 @@ public abstract class FDroidProvider extends ContentProvider {
     public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
         throws OperationApplicationException {
         ContentProviderResult[] result = null;
+        boolean committed = false;
         isApplyingBatch = true;
         write().beginTransaction();
         try {
             result = super.applyBatch(operations);
             write().setTransactionSuccessful();
+            committed = true;
         } finally {
             write().endTransaction();
             isApplyingBatch = false;
+
+            // Each operation will have invalidated the cache as it went, but a lookup which ran
+            // concurrently could have been served from the not yet committed state.
+            invalidateLookupCache();
+            publishPendingChanges(committed);
         }
         return result;
     }
 
+    /**
+     * Tells observers that the data at this uri has changed. When called as part of
+     * {@link #applyBatch(ArrayList)}, nothing is sent until the entire batch has been committed,
+     * at which point each uri is only notified once (see {@link #coalesce(Collection)}).
+     * Nothing is sent at all if the batch fails, because the changes will have been rolled back.
+     *
+     * Where possible, pass the uri for the specific item which changed (e.g.
+     * {@link AppProvider#getContentUri(String)}) rather than the uri for the whole provider.
+     * Observers of lists register for all of the descendants of the provider, so they will still
+     * be notified, but observers of other items (e.g. {@link org.fdroid.fdroid.AppDetails}) won't.
+     */
+    protected void notifyChange(Uri uri) {
+        if (isApplyingBatch()) {
+            synchronized (pendingChanges) {
+                pendingChanges.add(uri);
+            }
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    private void publishPendingChanges(boolean committed) {
+        final List<Uri> changes;
+        synchronized (pendingChanges) {
+            changes = committed ? coalesce(pendingChanges) : new ArrayList<Uri>(0);
+            pendingChanges.clear();
+        }
+
+        for (final Uri uri : changes) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Removes any uris which are covered by another one in the collection, because a
+     * notification for a uri also reaches the observers of all of its descendants. If too
+     * many uris for the same provider remain, they are replaced by the root uri of that provider.
+     */
+    static List<Uri> coalesce(Collection<Uri> uris) {
+        final Map<String, List<Uri>> byAuthority = new HashMap<>();
+        for (final Uri uri : uris) {
+            List<Uri> changes = byAuthority.get(uri.getAuthority());
+            if (changes == null) {
+                changes = new ArrayList<>();
+                byAuthority.put(uri.getAuthority(), changes);
+            }
+            if (!isCovered(uri, changes)) {
+                // Anything we already have which is a descendant of this uri is now redundant.
+                for (int i = changes.size() - 1; i >= 0; i--) {
+                    if (isAncestor(uri, changes.get(i))) {
+                        changes.remove(i);
+                    }
+                }
+                changes.add(uri);
+            }
+        }
+
+        final List<Uri> coalesced = new ArrayList<>();
+        for (final Map.Entry<String, List<Uri>> entry : byAuthority.entrySet()) {
+            final List<Uri> changes = entry.getValue();
+            if (changes.size() > MAX_INDIVIDUAL_CHANGES) {
+                coalesced.add(new Uri.Builder()
+                        .scheme(changes.get(0).getScheme())
+                        .authority(entry.getKey())
+                        .build());
+            } else {
+                coalesced.addAll(changes);
+            }
+        }
+        return coalesced;
+    }
+
+    private static boolean isCovered(Uri uri, List<Uri> candidates) {
+        for (final Uri candidate : candidates) {
+            if (isAncestor(candidate, uri)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return True if {@code descendant} is the same as, or a descendant of, {@code ancestor}.
+     * Only the paths are compared, the caller is expected to check that the authorities match.
+     */
+    private static boolean isAncestor(Uri ancestor, Uri descendant) {
+        final List<String> ancestorPath = ancestor.getPathSegments();
+        final List<String> descendantPath = descendant.getPathSegments();
+        return ancestorPath.size() <= descendantPath.size()
+                && ancestorPath.equals(descendantPath.subList(0, ancestorPath.size()));
+    }
+
     @Override
     public boolean onCreate() {
         dbHelper = new DBHelper(getContext());
+        // Anything cached from before this provider existed was not read through it, and hence
+        // may not correspond to the database it is about to open.
+        LookupCache.invalidateAll();
         return true;
     }
 
+    /**
+     * Should be called after every write to the database, so that subsequent lookups via
+     * {@link LookupCache} don't return stale results. Providers which only write to tables
+     * that none of the cached lookups read from can override this to do nothing.
+     */
+    protected void invalidateLookupCache() {
+        LookupCache.invalidateAll();
+    }
+
     protected final DBHelper db() {
         return dbHelper;
     }
@@ -110,6 +241,58 @@ public abstract class FDroidProvider extends ContentProvider {
         return sb.toString();
     }
 
+    /**
+     * Loads a set of keys into a temporary table, so that a query can join against it rather
+     * than binding each key to its own parameter in an enormous "IN (?, ?, ...)" clause. SQLite
+     * only allows 999 parameters per statement, whereas this table can hold any number of keys,
+     * and is indexed by them.
+     *
+     * Temporary tables only exist for the connection which created them, and with write ahead
+     * logging there is more than one connection. Hence this must be called within a transaction
+     * on {@link #write()}, and whatever uses the table must run within that same transaction.
+     *
+     * @param columns The definition of each column in the key table, e.g. "packageName TEXT".
+     * The type matters, otherwise "10" will not be equal to the integer 10 when joining.
+     * @param keys The value of each column for the first key, followed by the second key, etc.
+     * @return The name of the table to join against.
+     */
+    protected final String loadKeys(String name, String[] columns, String[] keys) {
+        final SQLiteDatabase db = write();
+        if (!db.inTransaction()) {
+            throw new IllegalStateException("Keys must be loaded within a transaction, or they may not be visible to the query which uses them.");
+        }
+
+        if (keys != null && keys.length % columns.length != 0) {
+            throw new IllegalArgumentException("Expected " + columns.length + " values for each key, but got " + keys.length + " values.");
+        }
+
+        final String[] names = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            names[i] = columns[i].split(" ")[0];
+        }
+
+        final String table = "temp." + name;
+        final String columnNames = TextUtils.join(", ", names);
+        db.execSQL("CREATE TEMP TABLE IF NOT EXISTS " + name + " (" + TextUtils.join(", ", columns) + ", PRIMARY KEY (" + columnNames + "))");
+        db.execSQL("DELETE FROM " + table);
+
+        if (keys != null) {
+            final SQLiteStatement insert = db.compileStatement("INSERT OR IGNORE INTO " + table + " (" + columnNames + ") " +
+                    "VALUES (" + generateQuestionMarksForInClause(columns.length) + ")");
+            try {
+                for (int i = 0; i < keys.length; i += columns.length) {
+                    for (int column = 0; column < columns.length; column++) {
+                        insert.bindString(column + 1, keys[i + column]);
+                    }
+                    insert.executeInsert();
+                }
+            } finally {
+                insert.close();
+            }
+        }
+        return table;
+    }
+
     @TargetApi(11)
     protected Set<String> getKeySet(ContentValues values) {
 
@@ -43,10 +43,7 @@ public class InstalledAppCacheUpdater {
      * how many apps are installed).
      */
     public static void updateInForeground(Context context) {
-        InstalledAppCacheUpdater updater = new InstalledAppCacheUpdater(context);
-        if (updater.update()) {
-            updater.notifyProviders();
-        }
+        new InstalledAppCacheUpdater(context).update();
     }
 
     /**
@@ -72,12 +69,6 @@ public class InstalledAppCacheUpdater {
         return hasChanged();
     }
 
-    protected void notifyProviders() {
-        Utils.debugLog(TAG, "Installed app cache has changed, notifying content providers (so they can update the relevant views).");
-        context.getContentResolver().notifyChange(AppProvider.getContentUri(), null);
-        context.getContentResolver().notifyChange(ApkProvider.getContentUri(), null);
-    }
-
     protected void startBackgroundWorker() {
         new PostponedWorker().execute();
     }
@@ -107,16 +98,30 @@ public class InstalledAppCacheUpdater {
 
     }
 
+    /**
+     * Only packages which are not cached, or whose version code or last update time differ from
+     * what is cached, get (re)inserted. Most of the time, that is none of them, so the signature
+     * and label (both of which are expensive to get) are only fetched for those packages.
+     */
     private void compareCacheToPackageManager() {
 
         Map<String, Integer> cachedInfo = InstalledAppProvider.Helper.all(context);
+        Map<String, Long> cachedUpdateTimes = InstalledAppProvider.Helper.lastUpdateTimes(context);
 
-        List<PackageInfo> installedPackages = context.getPackageManager()
-                .getInstalledPackages(PackageManager.GET_SIGNATURES);
+        PackageManager pm = context.getPackageManager();
+        List<PackageInfo> installedPackages = pm.getInstalledPackages(0);
         for (PackageInfo appInfo : installedPackages) {
-            toInsert.add(appInfo);
-            if (cachedInfo.containsKey(appInfo.packageName)) {
-                cachedInfo.remove(appInfo.packageName);
+            Integer cachedVersionCode = cachedInfo.remove(appInfo.packageName);
+            Long cachedUpdateTime = cachedUpdateTimes.get(appInfo.packageName);
+            if (cachedVersionCode != null && cachedVersionCode == appInfo.versionCode
+                    && cachedUpdateTime != null
+                    && cachedUpdateTime == InstalledAppProvider.getLastUpdateTime(appInfo)) {
+                continue;
+            }
+
+            PackageInfo infoWithSignatures = getPackageInfoWithSignatures(pm, appInfo.packageName);
+            if (infoWithSignatures != null) {
+                toInsert.add(infoWithSignatures);
             }
         }
 
@@ -127,20 +132,24 @@ public class InstalledAppCacheUpdater {
         }
     }
 
+    private static PackageInfo getPackageInfoWithSignatures(PackageManager pm, String packageName) {
+        try {
+            return pm.getPackageInfo(packageName, PackageManager.GET_SIGNATURES);
+        } catch (PackageManager.NameNotFoundException e) {
+            // Uninstalled since we asked for the list of installed packages, so don't cache it.
+            Utils.debugLog(TAG, "Could not get package info on '" + packageName + "' - skipping.");
+            return null;
+        }
+    }
+
     private List<ContentProviderOperation> insertIntoCache(List<PackageInfo> appsToInsert) {
         List<ContentProviderOperation> ops = new ArrayList<>(appsToInsert.size());
         if (appsToInsert.size() > 0) {
-            Utils.debugLog(TAG, "Preparing to cache installed info for " + appsToInsert.size() + " new apps.");
+            Utils.debugLog(TAG, "Preparing to cache installed info for " + appsToInsert.size() + " new or updated apps.");
             Uri uri = InstalledAppProvider.getContentUri();
             for (PackageInfo info : appsToInsert) {
                 ContentProviderOperation op = ContentProviderOperation.newInsert(uri)
-                        .withValue(InstalledAppProvider.DataColumns.PACKAGE_NAME, info.packageName)
-                        .withValue(InstalledAppProvider.DataColumns.VERSION_CODE, info.versionCode)
-                        .withValue(InstalledAppProvider.DataColumns.VERSION_NAME, info.versionName)
-                        .withValue(InstalledAppProvider.DataColumns.APPLICATION_LABEL,
-                                InstalledAppProvider.getApplicationLabel(context, info.packageName))
-                        .withValue(InstalledAppProvider.DataColumns.SIGNATURE,
-                                InstalledAppProvider.getPackageSig(info))
+                        .withValues(InstalledAppProvider.getContentValues(context, info))
                         .build();
                 ops.add(op);
             }
@@ -165,21 +174,15 @@ public class InstalledAppCacheUpdater {
      * This is due to a bug where the database was locked as F-Droid was starting,
      * which caused a crash.
      */
-    private class PostponedWorker extends AsyncTask<Void, Void, Boolean> {
+    private class PostponedWorker extends AsyncTask<Void, Void, Void> {
 
         @Override
-        protected Boolean doInBackground(Void... params) {
+        protected Void doInBackground(Void... params) {
             try {
                 Thread.sleep(10000);
             } catch (InterruptedException ignored) { }
-            return update();
-        }
-
-        @Override
-        protected void onPostExecute(Boolean changed) {
-            if (changed) {
-                notifyProviders();
-            }
+            update();
+            return null;
         }
     }
 
@@ -1,5 +1,6 @@
 package org.fdroid.fdroid.data;
 
+import android.annotation.TargetApi;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.UriMatcher;
@@ -10,6 +11,7 @@ import android.content.pm.Signature;
 import android.content.res.Resources;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Build;
 import android.util.Log;
 
 import org.fdroid.fdroid.Hasher;
@@ -54,6 +56,55 @@ public class InstalledAppProvider extends FDroidProvider {
             return cachedInfo;
         }
 
+        /**
+         * @return The keys are the app ids (package names), and their corresponding values are
+         * the {@link PackageInfo#lastUpdateTime} of the version which is installed.
+         */
+        public static Map<String, Long> lastUpdateTimes(Context context) {
+
+            Map<String, Long> cachedInfo = new HashMap<>();
+
+            final Uri uri = InstalledAppProvider.getContentUri();
+            final String[] projection = {
+                InstalledAppProvider.DataColumns.PACKAGE_NAME,
+                InstalledAppProvider.DataColumns.LAST_UPDATE_TIME,
+            };
+            Cursor cursor = context.getContentResolver().query(uri, projection, null, null, null);
+            if (cursor != null) {
+                if (cursor.getCount() > 0) {
+                    cursor.moveToFirst();
+                    while (!cursor.isAfterLast()) {
+                        cachedInfo.put(cursor.getString(0), cursor.getLong(1));
+                        cursor.moveToNext();
+                    }
+                }
+                cursor.close();
+            }
+
+            return cachedInfo;
+        }
+
+        /**
+         * @return True if the cached details of this package are for this exact version of it,
+         * in which case there is no need to calculate its label and signature hash again.
+         * @see InstalledAppProvider#getLastUpdateTime(PackageInfo)
+         */
+        public static boolean isCached(Context context, PackageInfo info) {
+            final Uri uri = getAppUri(info.packageName);
+            final String[] projection = {DataColumns.VERSION_CODE, DataColumns.LAST_UPDATE_TIME};
+            Cursor cursor = context.getContentResolver().query(uri, projection, null, null, null);
+            boolean isCached = false;
+            if (cursor != null) {
+                if (cursor.getCount() > 0) {
+                    cursor.moveToFirst();
+                    isCached = cursor.getInt(0) == info.versionCode
+                            && cursor.getLong(1) == getLastUpdateTime(info);
+                }
+                cursor.close();
+            }
+            return isCached;
+        }
+
     }
 
     public interface DataColumns {
@@ -64,10 +115,11 @@ public class InstalledAppProvider extends FDroidProvider {
         String VERSION_NAME = "versionName";
         String APPLICATION_LABEL = "applicationLabel";
         String SIGNATURE = "sig";
+        String LAST_UPDATE_TIME = "lastUpdateTime";
 
         String[] ALL = {
             _ID, PACKAGE_NAME, VERSION_CODE, VERSION_NAME, APPLICATION_LABEL,
-            SIGNATURE,
+            SIGNATURE, LAST_UPDATE_TIME,
         };
 
     }
@@ -112,6 +164,33 @@ public class InstalledAppProvider extends FDroidProvider {
         return packageName; // all else fails, return packageName
     }
 
+    /**
+     * Together with the version code, this tells us whether a package has changed since it was
+     * cached, without having to look at its signature. It is not available before API 9, in which
+     * case only the version code will be compared.
+     */
+    @TargetApi(9)
+    public static long getLastUpdateTime(PackageInfo info) {
+        return Build.VERSION.SDK_INT >= 9 ? info.lastUpdateTime : 0;
+    }
+
+    /**
+     * Everything we cache about an installed package. Working out the label and signature hash
+     * is relatively slow, which is why this should only be called for packages which are not
+     * already cached (see {@link Helper#isCached(Context, PackageInfo)}).
+     * @param info Must have been requested with {@link PackageManager#GET_SIGNATURES}.
+     */
+    public static ContentValues getContentValues(Context context, PackageInfo info) {
+        ContentValues values = new ContentValues(6);
+        values.put(DataColumns.PACKAGE_NAME, info.packageName);
+        values.put(DataColumns.VERSION_CODE, info.versionCode);
+        values.put(DataColumns.VERSION_NAME, info.versionName);
+        values.put(DataColumns.APPLICATION_LABEL, getApplicationLabel(context, info.packageName));
+        values.put(DataColumns.SIGNATURE, getPackageSig(info));
+        values.put(DataColumns.LAST_UPDATE_TIME, getLastUpdateTime(info));
+        return values;
+    }
+
     public static String getPackageSig(PackageInfo info) {
         if (info == null || info.signatures == null || info.signatures.length < 1) {
             return "";
@@ -196,9 +275,8 @@ public class InstalledAppProvider extends FDroidProvider {
         query = query.add(queryApp(uri.getLastPathSegment()));
 
         int count = write().delete(getTableName(), query.getSelection(), query.getArgs());
-        if (!isApplyingBatch()) {
-            getContext().getContentResolver().notifyChange(uri, null);
-        }
+        invalidateLookupCache();
+        notifyPackageChanged(uri.getLastPathSegment());
         return count;
     }
 
@@ -211,12 +289,22 @@ public class InstalledAppProvider extends FDroidProvider {
 
         verifyVersionNameNotNull(values);
         write().replaceOrThrow(getTableName(), null, values);
-        if (!isApplyingBatch()) {
-            getContext().getContentResolver().notifyChange(uri, null);
-        }
+        invalidateLookupCache();
+        notifyPackageChanged(values.getAsString(DataColumns.PACKAGE_NAME));
         return getAppUri(values.getAsString(DataColumns.PACKAGE_NAME));
     }
 
+    /**
+     * Whether or not an app is installed (and which version) is part of what the
+     * {@link AppProvider} and {@link ApkProvider} return for that app, so their observers
+     * need to hear about it too.
+     */
+    private void notifyPackageChanged(String packageName) {
+        notifyChange(getAppUri(packageName));
+        notifyChange(AppProvider.getContentUri(packageName));
+        notifyChange(ApkProvider.getAppUri(packageName));
+    }
+
     @Override
     public int update(Uri uri, ContentValues values, String where, String[] whereArgs) {
         throw new UnsupportedOperationException("\"Update' not supported for installed appp provider. Instead, you should insert, and it will overwrite the relevant rows if one exists.");
@@ -0,0 +1,136 @@
+package org.fdroid.fdroid.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.support.v4.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read-through cache for the lookups which are repeated over and over again for the same
+ * packages, e.g. {@link AppProvider.Helper#findByPackageName(ContentResolver, String)} and
+ * {@link ApkProvider.Helper#find(android.content.Context, String, int)}, which get called
+ * several times each time {@link org.fdroid.fdroid.AppDetails} is shown.
+ *
+ * Rather than caching the {@link App} or {@link Apk} value objects themselves (which are
+ * mutable, and often get modified by whoever asked for them), the rows returned from the
+ * content provider are cached. Each hit builds a fresh cursor from these rows, and hence
+ * results in new value objects, just like a query to the database would.
+ *
+ * The results from the {@link AppProvider} depend on the apk, repo and installed app tables
+ * too, so any write to the real (i.e. not temporary) tables invalidates the entire cache. See
+ * {@link FDroidProvider#invalidateLookupCache()}.
+ */
+public final class LookupCache {
+
+    private static final int MAX_ENTRIES = 100;
+
+    private static final LruCache<String, Rows> CACHE = new LruCache<>(MAX_ENTRIES);
+
+    /**
+     * Incremented each time the cache is invalidated. Used to make sure that a query which
+     * started before an invalidation doesn't put stale data into the cache once it finishes.
+     */
+    private static long generation;
+
+    private LookupCache() { }
+
+    /**
+     * Same as {@link ContentResolver#query(Uri, String[], String, String[], String)} with no
+     * selection, but will return the cached rows from a previous query where possible.
+     */
+    static Cursor query(ContentResolver resolver, Uri uri, String[] projection, String sortOrder) {
+        final String key = key(uri, projection, sortOrder);
+        Rows cached = CACHE.get(key);
+        if (cached != null) {
+            return cached.toCursor();
+        }
+
+        final long queryGeneration = getGeneration();
+        Cursor cursor = resolver.query(uri, projection, null, null, sortOrder);
+        if (cursor == null) {
+            return null;
+        }
+
+        Rows rows = new Rows(cursor);
+        cursor.close();
+        putIfCurrent(key, rows, queryGeneration);
+        return rows.toCursor();
+    }
+
+    public static void invalidateAll() {
+        synchronized (LookupCache.class) {
+            generation++;
+            CACHE.evictAll();
+        }
+    }
+
+    public static int hitCount() {
+        return CACHE.hitCount();
+    }
+
+    public static int missCount() {
+        return CACHE.missCount();
+    }
+
+    public static int size() {
+        return CACHE.size();
+    }
+
+    private static synchronized long getGeneration() {
+        return generation;
+    }
+
+    private static synchronized void putIfCurrent(String key, Rows rows, long queryGeneration) {
+        if (queryGeneration == generation) {
+            CACHE.put(key, rows);
+        }
+    }
+
+    private static String key(Uri uri, String[] projection, String sortOrder) {
+        StringBuilder key = new StringBuilder(uri.toString()).append('|');
+        if (projection != null) {
+            for (final String field : projection) {
+                key.append(field).append(',');
+            }
+        }
+        return key.append('|').append(sortOrder).toString();
+    }
+
+    /**
+     * A copy of every row in a cursor, stored as strings. {@link MatrixCursor} will convert
+     * them back to ints as required when {@link Cursor#getInt(int)} is called on it.
+     */
+    static final class Rows {
+
+        private final String[] columnNames;
+        private final List<String[]> rows;
+
+        Rows(Cursor cursor) {
+            columnNames = cursor.getColumnNames();
+            rows = new ArrayList<>(cursor.getCount());
+            if (cursor.getCount() > 0) {
+                cursor.moveToFirst();
+                while (!cursor.isAfterLast()) {
+                    String[] row = new String[columnNames.length];
+                    for (int i = 0; i < columnNames.length; i++) {
+                        row[i] = cursor.getString(i);
+                    }
+                    rows.add(row);
+                    cursor.moveToNext();
+                }
+            }
+        }
+
+        Cursor toCursor() {
+            MatrixCursor cursor = new MatrixCursor(columnNames, rows.size());
+            for (final String[] row : rows) {
+                cursor.addRow(row);
+            }
+            return cursor;
+        }
+    }
+}
@@ -14,6 +14,8 @@ abstract class QueryBuilder {
 
     public abstract void addField(String field);
 
+    public abstract String[] getSelectionArgs();
+
     protected int fieldCount() {
         return fields.size();
     }
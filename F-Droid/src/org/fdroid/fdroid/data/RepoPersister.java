@@ -80,9 +80,14 @@ public class RepoPersister {
         }
     }
 
-    public void commit(ContentValues repoDetailsToSave) throws RepoUpdater.UpdateException {
+    /**
+     * @param updateDuration How long it took to process the index, in milliseconds.
+     * @param indexSize The size of the index.jar, in bytes.
+     * @see RepoStats
+     */
+    public void commit(ContentValues repoDetailsToSave, long updateDuration, long indexSize) throws RepoUpdater.UpdateException {
         flushBufferToDb();
-        TempAppProvider.Helper.commitAppsAndApks(context);
+        TempAppProvider.Helper.commitAppsAndApks(context, repo, updateDuration, indexSize);
         RepoProvider.Helper.update(context, repo, repoDetailsToSave);
     }
 
@@ -271,8 +276,10 @@ public class RepoPersister {
         if (toDelete.size() == 0) {
             return null;
         }
-        Uri uri = TempApkProvider.getApksUri(repo, toDelete);
-        return ContentProviderOperation.newDelete(uri).build();
+        Uri uri = TempApkProvider.getApksUri(repo);
+        return ContentProviderOperation.newDelete(uri)
+                .withSelection(null, ApkProvider.getApkKeys(toDelete))
+                .build();
     }
 
     /**
@@ -6,6 +6,7 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.provider.BaseColumns;
 import android.text.TextUtils;
@@ -175,37 +176,67 @@ public class RepoProvider extends FDroidProvider {
             return resolver.insert(uri, values);
         }
 
-        public static void remove(Context context, long repoId) {
-            ContentResolver resolver = context.getContentResolver();
-            Uri uri = RepoProvider.getContentUri(repoId);
-            resolver.delete(uri, null, null);
+        /**
+         * Removes the repo, along with all of its apks and any apps which only it provided, in
+         * a single transaction. This can take a while for large repos, so don't call it from the
+         * UI thread, see {@link org.fdroid.fdroid.RepoPurgeService#remove(Context, Repo)} instead.
+         *
+         * @return The number of apps which were removed.
+         */
+        public static int remove(Context context, long repoId) {
+            return purgeApps(context, repoId, true);
         }
 
-        public static void purgeApps(Context context, Repo repo) {
-            Uri apkUri = ApkProvider.getRepoUri(repo.getId());
-            ContentResolver resolver = context.getContentResolver();
-            int apkCount = resolver.delete(apkUri, null, null);
-            Utils.debugLog(TAG, "Removed " + apkCount + " apks from repo " + repo.name);
+        /**
+         * Removes all apks from the repo, and any apps which are no longer provided by any repo,
+         * in a single transaction. This can take a while for large repos, so don't call it from
+         * the UI thread, see {@link org.fdroid.fdroid.RepoPurgeService#purge(Context, Repo)} instead.
+         *
+         * @return The number of apps which were removed.
+         */
+        public static int purgeApps(Context context, Repo repo) {
+            return purgeApps(context, repo.getId(), false);
+        }
 
-            Uri appUri = AppProvider.getNoApksUri();
-            int appCount = resolver.delete(appUri, null, null);
-            Utils.debugLog(TAG, "Removed " + appCount + " apps with no apks.");
+        private static int purgeApps(Context context, long repoId, boolean removeRepo) {
+            ContentResolver resolver = context.getContentResolver();
+            int appCount = resolver.delete(AppProvider.getPurgeRepoUri(repoId, removeRepo), null, null);
+            Utils.debugLog(TAG, "Removed " + appCount + " apps with no apks after purging repo " + repoId);
+            return appCount;
         }
 
-        public static int countAppsForRepo(Context context, long repoId) {
+        /**
+         * Reads the stats which were saved the last time this repo was updated, rather than
+         * counting its apps and apks.
+         */
+        public static RepoStats getStats(Context context, long repoId) {
             ContentResolver resolver = context.getContentResolver();
-            final String[] projection = {ApkProvider.DataColumns._COUNT_DISTINCT_ID};
-            Uri apkUri = ApkProvider.getRepoUri(repoId);
-            Cursor cursor = resolver.query(apkUri, projection, null, null, null);
-            int count = 0;
+            Cursor cursor = resolver.query(getStatsUri(repoId), StatsColumns.ALL, null, null, null);
+            RepoStats stats = null;
             if (cursor != null) {
                 if (cursor.getCount() > 0) {
                     cursor.moveToFirst();
-                    count = cursor.getInt(0);
+                    stats = new RepoStats(cursor);
                 }
                 cursor.close();
             }
-            return count;
+            return stats == null ? new RepoStats(repoId) : stats;
+        }
+
+        /**
+         * @return True if any repo has provided any apps, without having to look at them.
+         */
+        public static boolean hasApps(Context context) {
+            ContentResolver resolver = context.getContentResolver();
+            final String[] projection = {StatsColumns.REPO_ID};
+            final String selection = StatsColumns.APP_COUNT + " > 0";
+            Cursor cursor = resolver.query(getStatsUri(), projection, selection, null, null);
+            boolean hasApps = false;
+            if (cursor != null) {
+                hasApps = cursor.getCount() > 0;
+                cursor.close();
+            }
+            return hasApps;
         }
     }
 
@@ -233,16 +264,38 @@ public class RepoProvider extends FDroidProvider {
         };
     }
 
+    /**
+     * @see RepoStats
+     */
+    public interface StatsColumns {
+
+        String REPO_ID              = "repoId";
+        String APP_COUNT            = "appCount";
+        String APK_COUNT            = "apkCount";
+        String COMPATIBLE_APK_COUNT = "compatibleApkCount";
+        String LAST_UPDATE_DURATION = "lastUpdateDuration";
+        String INDEX_SIZE           = "indexSize";
+
+        String[] ALL = {
+            REPO_ID, APP_COUNT, APK_COUNT, COMPATIBLE_APK_COUNT, LAST_UPDATE_DURATION, INDEX_SIZE,
+        };
+    }
+
     private static final String PROVIDER_NAME = "RepoProvider";
     private static final String PATH_ALL_EXCEPT_SWAP = "allExceptSwap";
+    private static final String PATH_STATS = "stats";
 
     private static final int CODE_ALL_EXCEPT_SWAP = CODE_SINGLE + 1;
+    private static final int CODE_STATS           = CODE_ALL_EXCEPT_SWAP + 1;
+    private static final int CODE_STATS_SINGLE    = CODE_STATS + 1;
 
     private static final UriMatcher matcher = new UriMatcher(-1);
 
     static {
         matcher.addURI(AUTHORITY + "." + PROVIDER_NAME, null, CODE_LIST);
         matcher.addURI(AUTHORITY + "." + PROVIDER_NAME, PATH_ALL_EXCEPT_SWAP, CODE_ALL_EXCEPT_SWAP);
+        matcher.addURI(AUTHORITY + "." + PROVIDER_NAME, PATH_STATS, CODE_STATS);
+        matcher.addURI(AUTHORITY + "." + PROVIDER_NAME, PATH_STATS + "/#", CODE_STATS_SINGLE);
         matcher.addURI(AUTHORITY + "." + PROVIDER_NAME, "#", CODE_SINGLE);
     }
 
@@ -264,6 +317,57 @@ public class RepoProvider extends FDroidProvider {
                 .build();
     }
 
+    public static Uri getStatsUri() {
+        return getContentUri().buildUpon()
+                .appendPath(PATH_STATS)
+                .build();
+    }
+
+    public static Uri getStatsUri(long repoId) {
+        return ContentUris.withAppendedId(getStatsUri(), repoId);
+    }
+
+    /**
+     * Counts the apps and apks of the repo as they are in {@link DBHelper#TABLE_APK}, and saves
+     * them along with the details of the update which put them there. This is called as part
+     * of the same transaction which swaps in the results of that update, so that the stats
+     * are never out of sync with the apks.
+     */
+    static void updateStats(SQLiteDatabase db, long repoId, long updateDuration, long indexSize) {
+        db.execSQL("INSERT OR REPLACE INTO " + DBHelper.TABLE_REPO_STATS + " (" +
+                StatsColumns.REPO_ID + ", " +
+                StatsColumns.APP_COUNT + ", " +
+                StatsColumns.APK_COUNT + ", " +
+                StatsColumns.COMPATIBLE_APK_COUNT + ", " +
+                StatsColumns.LAST_UPDATE_DURATION + ", " +
+                StatsColumns.INDEX_SIZE + ") " +
+                "SELECT ?, COUNT(DISTINCT id), COUNT(*), TOTAL(compatible), ?, ? " +
+                "FROM " + DBHelper.TABLE_APK + " WHERE repo = ?",
+                new Object[] {repoId, updateDuration, indexSize, repoId});
+    }
+
+    /**
+     * Deletes the repo and its stats, for when it is removed along with its apps, see
+     * {@link Helper#remove(Context, long)}. Must be called within a transaction.
+     */
+    static void deleteRepo(SQLiteDatabase db, long repoId) {
+        final String[] args = {Long.toString(repoId)};
+        db.delete(DBHelper.TABLE_REPO, DataColumns._ID + " = ?", args);
+        db.delete(DBHelper.TABLE_REPO_STATS, StatsColumns.REPO_ID + " = ?", args);
+    }
+
+    /**
+     * Once all of a repo's apks have been purged, it doesn't provide anything any more. The
+     * details of its last update are kept, because they still apply if it is enabled again.
+     */
+    static void clearStatsCounts(SQLiteDatabase db, long repoId) {
+        ContentValues values = new ContentValues(3);
+        values.put(StatsColumns.APP_COUNT, 0);
+        values.put(StatsColumns.APK_COUNT, 0);
+        values.put(StatsColumns.COMPATIBLE_APK_COUNT, 0);
+        db.update(DBHelper.TABLE_REPO_STATS, values, StatsColumns.REPO_ID + " = ?", new String[] {Long.toString(repoId)});
+    }
+
     @Override
     protected String getTableName() {
         return DBHelper.TABLE_REPO;
@@ -282,6 +386,11 @@ public class RepoProvider extends FDroidProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
 
+        final int code = matcher.match(uri);
+        if (code == CODE_STATS || code == CODE_STATS_SINGLE) {
+            return queryStats(uri, projection, selection, selectionArgs, sortOrder);
+        }
+
         if (TextUtils.isEmpty(sortOrder)) {
             sortOrder = "_ID ASC";
         }
@@ -311,6 +420,18 @@ public class RepoProvider extends FDroidProvider {
         return cursor;
     }
 
+    private Cursor queryStats(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        if (matcher.match(uri) == CODE_STATS_SINGLE) {
+            selection = (selection == null ? "" : selection + " AND ") +
+                StatsColumns.REPO_ID + " = " + uri.getLastPathSegment();
+        }
+
+        Cursor cursor = read().query(DBHelper.TABLE_REPO_STATS, projection, selection,
+                selectionArgs, null, null, sortOrder);
+        cursor.setNotificationUri(getContext().getContentResolver(), getStatsUri());
+        return cursor;
+    }
+
     @Override
     public Uri insert(Uri uri, ContentValues values) {
 
@@ -343,8 +464,9 @@ public class RepoProvider extends FDroidProvider {
         }
 
         long id = write().insertOrThrow(getTableName(), null, values);
+        invalidateLookupCache();
         Utils.debugLog(TAG, "Inserted repo. Notifying provider change: '" + uri + "'.");
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return getContentUri(id);
     }
 
@@ -366,17 +488,32 @@ public class RepoProvider extends FDroidProvider {
                 throw new UnsupportedOperationException("Invalid URI for repo content provider: " + uri);
         }
 
-        int rowsAffected = write().delete(getTableName(), where, whereArgs);
+        // The where clause may mean that the repo doesn't get deleted after all, in which case
+        // its stats need to stay too.
+        final SQLiteDatabase db = write();
+        int rowsAffected;
+        db.beginTransaction();
+        try {
+            rowsAffected = db.delete(getTableName(), where, whereArgs);
+            if (rowsAffected > 0) {
+                db.delete(DBHelper.TABLE_REPO_STATS, StatsColumns.REPO_ID + " = " + uri.getLastPathSegment(), null);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        invalidateLookupCache();
         Utils.debugLog(TAG, "Deleted repos. Notifying provider change: '" + uri + "'.");
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return rowsAffected;
     }
 
     @Override
     public int update(Uri uri, ContentValues values, String where, String[] whereArgs) {
         int numRows = write().update(getTableName(), values, where, whereArgs);
+        invalidateLookupCache();
         Utils.debugLog(TAG, "Updated repo. Notifying provider change: '" + uri + "'.");
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return numRows;
     }
 }
@@ -0,0 +1,57 @@
+package org.fdroid.fdroid.data;
+
+import android.database.Cursor;
+
+/**
+ * How much each repo contributes to the catalogue, as of the last time it was updated. These
+ * are worked out when an update is committed (see {@link TempAppProvider}), rather than by
+ * counting the apps and apks of a repo every time somebody wants to show how many there are.
+ */
+public class RepoStats extends ValueObject {
+
+    public long repoId;
+    public int appCount;
+    public int apkCount;
+    public int compatibleApkCount;
+
+    /** Milliseconds taken to process the index last time it changed, 0 if unknown */
+    public long lastUpdateDuration;
+
+    /** Size in bytes of the index.jar last time it changed, 0 if unknown */
+    public long indexSize;
+
+    /**
+     * Stats for a repo which has never been updated, and hence has nothing in it.
+     */
+    public RepoStats(long repoId) {
+        this.repoId = repoId;
+    }
+
+    public RepoStats(Cursor cursor) {
+
+        checkCursorPosition(cursor);
+
+        for (int i = 0; i < cursor.getColumnCount(); i++) {
+            switch (cursor.getColumnName(i)) {
+                case RepoProvider.StatsColumns.REPO_ID:
+                    repoId = cursor.getLong(i);
+                    break;
+                case RepoProvider.StatsColumns.APP_COUNT:
+                    appCount = cursor.getInt(i);
+                    break;
+                case RepoProvider.StatsColumns.APK_COUNT:
+                    apkCount = cursor.getInt(i);
+                    break;
+                case RepoProvider.StatsColumns.COMPATIBLE_APK_COUNT:
+                    compatibleApkCount = cursor.getInt(i);
+                    break;
+                case RepoProvider.StatsColumns.LAST_UPDATE_DURATION:
+                    lastUpdateDuration = cursor.getLong(i);
+                    break;
+                case RepoProvider.StatsColumns.INDEX_SIZE:
+                    indexSize = cursor.getLong(i);
+                    break;
+            }
+        }
+    }
+}
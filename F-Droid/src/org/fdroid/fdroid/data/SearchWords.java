@@ -0,0 +1,167 @@
+package org.fdroid.fdroid.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * What is kept of each description so that it can be searched, without keeping a second copy
+ * of the whole text next to the compressed one (see {@link CompressedText}). Searches look for
+ * each keyword anywhere within the description (see
+ * {@link AppProvider#querySearch(String)}), so all that is needed is each distinct word once,
+ * in lower case, without any of the HTML around it. A word which is part of a longer one
+ * (e.g. "app" in "apps") would be found within that one anyway, and so is left out too.
+ *
+ * This runs for every app as the index is saved, so it goes over the HTML once, rather than
+ * parsing it properly with {@link android.text.Html#fromHtml(String)}.
+ */
+final class SearchWords {
+
+    /**
+     * Tags which start a new line or block when displayed, and so separate the words either side
+     * of them. Any other tag (e.g. "<b>F</b>-Droid") is part of the word it is in.
+     */
+    private static final Set<String> BREAKING_TAGS = new HashSet<>(Arrays.asList(
+            "br", "p", "div", "li", "ul", "ol", "dl", "dt", "dd", "blockquote", "pre",
+            "h1", "h2", "h3", "h4", "h5", "h6", "hr", "table", "tr", "td", "th"));
+
+    /**
+     * Stripped from either end of each word, so that e.g. "apps," and "(apps)" count as "apps".
+     */
+    private static final String PUNCTUATION = ".,;:!?()[]{}\"'";
+
+    private static final Comparator<String> LONGEST_FIRST = new Comparator<String>() {
+        @Override
+        public int compare(String lhs, String rhs) {
+            return rhs.length() - lhs.length();
+        }
+    };
+
+    private SearchWords() { }
+
+    /**
+     * @return The words of {@code html}, separated by spaces, in no particular order.
+     */
+    static String from(String html) {
+        final Set<String> distinct = new HashSet<>();
+        final StringBuilder word = new StringBuilder();
+        final int length = html.length();
+        int i = 0;
+        while (i < length) {
+            final char c = html.charAt(i);
+            if (c == '<') {
+                final int end = html.indexOf('>', i);
+                if (end == -1) {
+                    break;
+                }
+                if (isBreakingTag(html.substring(i + 1, end))) {
+                    addWord(distinct, word);
+                }
+                i = end + 1;
+            } else if (c == '&') {
+                final int end = html.indexOf(';', i);
+                final String decoded = end == -1 || end - i > 10 ? null : decodeEntity(html.substring(i + 1, end));
+                if (decoded == null) {
+                    word.append(c);
+                    i++;
+                } else {
+                    if (decoded.equals(" ")) {
+                        addWord(distinct, word);
+                    } else {
+                        word.append(decoded);
+                    }
+                    i = end + 1;
+                }
+            } else {
+                if (Character.isWhitespace(c)) {
+                    addWord(distinct, word);
+                } else {
+                    word.append(c);
+                }
+                i++;
+            }
+        }
+        addWord(distinct, word);
+        return withoutPartWords(distinct);
+    }
+
+    private static boolean isBreakingTag(String tag) {
+        int start = tag.startsWith("/") ? 1 : 0;
+        int end = start;
+        while (end < tag.length() && Character.isLetterOrDigit(tag.charAt(end))) {
+            end++;
+        }
+        return BREAKING_TAGS.contains(tag.substring(start, end).toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Only the entities which turn up in descriptions are decoded, anything else is left as is.
+     */
+    private static String decodeEntity(String entity) {
+        switch (entity) {
+            case "amp":
+                return "&";
+            case "lt":
+                return "<";
+            case "gt":
+                return ">";
+            case "quot":
+                return "\"";
+            case "apos":
+                return "'";
+            case "nbsp":
+                return " ";
+        }
+
+        if (entity.length() > 1 && entity.charAt(0) == '#') {
+            try {
+                final boolean hex = entity.charAt(1) == 'x' || entity.charAt(1) == 'X';
+                final int codePoint = Integer.parseInt(entity.substring(hex ? 2 : 1), hex ? 16 : 10);
+                return Character.isWhitespace(codePoint) ? " " : new String(Character.toChars(codePoint));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static void addWord(Set<String> distinct, StringBuilder word) {
+        int start = 0;
+        int end = word.length();
+        while (start < end && PUNCTUATION.indexOf(word.charAt(start)) != -1) {
+            start++;
+        }
+        while (end > start && PUNCTUATION.indexOf(word.charAt(end - 1)) != -1) {
+            end--;
+        }
+        if (start < end) {
+            distinct.add(word.substring(start, end).toLowerCase(Locale.ENGLISH));
+        }
+        word.setLength(0);
+    }
+
+    /**
+     * Goes through the longest words first, so that any word which is part of one already kept
+     * can be found in what has been kept so far. None of the words have spaces in them, so a
+     * match can't span two of them.
+     */
+    private static String withoutPartWords(Set<String> distinct) {
+        final List<String> words = new ArrayList<>(distinct);
+        Collections.sort(words, LONGEST_FIRST);
+        final StringBuilder kept = new StringBuilder();
+        for (final String word : words) {
+            if (kept.indexOf(word) == -1) {
+                if (kept.length() > 0) {
+                    kept.append(' ');
+                }
+                kept.append(word);
+            }
+        }
+        return kept.toString();
+    }
+}
@@ -3,6 +3,7 @@ package org.fdroid.fdroid.data;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.UriMatcher;
+import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.util.Log;
 
@@ -28,7 +29,7 @@ public class TempApkProvider extends ApkProvider {
     static {
         matcher.addURI(getAuthority(), PATH_INIT, CODE_INIT);
         matcher.addURI(getAuthority(), PATH_APK + "/#/*", CODE_SINGLE);
-        matcher.addURI(getAuthority(), PATH_REPO_APK + "/#/*", CODE_REPO_APK);
+        matcher.addURI(getAuthority(), PATH_REPO_APK + "/#", CODE_REPO_APK);
     }
 
     @Override
@@ -53,15 +54,34 @@ public class TempApkProvider extends ApkProvider {
                 .build();
     }
 
-    public static Uri getApksUri(Repo repo, List<Apk> apks) {
+    /**
+     * Apks from this repo which match one of the keys given in the selection args of a delete,
+     * see {@link ApkProvider#getApkKeys(List)}.
+     */
+    public static Uri getApksUri(Repo repo) {
         return getContentUri()
                 .buildUpon()
                 .appendPath(PATH_REPO_APK)
                 .appendPath(Long.toString(repo.id))
-                .appendPath(buildApkString(apks))
                 .build();
     }
 
+    /**
+     * @see TempAppProvider#invalidateLookupCache()
+     */
+    @Override
+    protected void invalidateLookupCache() {
+        // Do nothing.
+    }
+
+    /**
+     * @see TempAppProvider#notifyChange(Uri)
+     */
+    @Override
+    protected void notifyChange(Uri uri) {
+        // Do nothing.
+    }
+
     public static class Helper {
 
         /**
@@ -99,33 +119,23 @@ public class TempApkProvider extends ApkProvider {
     @Override
     public int delete(Uri uri, String where, String[] whereArgs) {
 
-        QuerySelection query = new QuerySelection(where, whereArgs);
-
-        switch (matcher.match(uri)) {
-            case CODE_REPO_APK:
-                List<String> pathSegments = uri.getPathSegments();
-                query = query.add(queryRepo(Long.parseLong(pathSegments.get(1)))).add(queryApks(pathSegments.get(2)));
-                break;
-
-            default:
-                Log.e(TAG, "Invalid URI for apk content provider: " + uri);
-                throw new UnsupportedOperationException("Invalid URI for apk content provider: " + uri);
-        }
-
-        int rowsAffected = write().delete(getTableName(), query.getSelection(), query.getArgs());
-        if (!isApplyingBatch()) {
-            getContext().getContentResolver().notifyChange(uri, null);
+        if (matcher.match(uri) != CODE_REPO_APK) {
+            Log.e(TAG, "Invalid URI for apk content provider: " + uri);
+            throw new UnsupportedOperationException("Invalid URI for apk content provider: " + uri);
         }
-        return rowsAffected;
 
+        assertKeysOnly(uri, where);
+        return deleteKeys(uri, queryRepo(Long.parseLong(uri.getLastPathSegment())), whereArgs);
     }
 
+    /**
+     * @see TempAppProvider#initTable()
+     */
     private void initTable() {
-        write().execSQL("DROP TABLE IF EXISTS " + getTableName());
-        write().execSQL("CREATE TABLE " + getTableName() + " AS SELECT * FROM " + DBHelper.TABLE_APK);
-        write().execSQL("CREATE INDEX IF NOT EXISTS apk_vercode on " + getTableName() + " (vercode);");
-        write().execSQL("CREATE INDEX IF NOT EXISTS apk_id on " + getTableName() + " (id);");
-        write().execSQL("CREATE INDEX IF NOT EXISTS apk_compatible ON " + getTableName() + " (compatible);");
+        final SQLiteDatabase db = write();
+        db.execSQL("DROP TABLE IF EXISTS " + getTableName());
+        DBHelper.createApkTable(db, getTableName(), TempAppProvider.getIndexPrefix(db, DBHelper.TABLE_APK));
+        DBHelper.copyRows(db, DBHelper.TABLE_APK, getTableName());
     }
 
 }
@@ -3,6 +3,7 @@ package org.fdroid.fdroid.data;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.UriMatcher;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.util.Log;
@@ -20,6 +21,13 @@ public class TempAppProvider extends AppProvider {
 
     private static final String TABLE_TEMP_APP = "temp_" + DBHelper.TABLE_APP;
 
+    private static final String TABLE_TEMP_APP_DESCRIPTION = "temp_" + DBHelper.TABLE_APP_DESCRIPTION;
+
+    /**
+     * @see #getIndexPrefix(SQLiteDatabase, String)
+     */
+    private static final String INDEX_PREFIX = "temp_";
+
     private static final String PATH_INIT = "init";
     private static final String PATH_COMMIT = "commit";
 
@@ -39,6 +47,11 @@ public class TempAppProvider extends AppProvider {
         return TABLE_TEMP_APP;
     }
 
+    @Override
+    protected String getDescriptionTableName() {
+        return TABLE_TEMP_APP_DESCRIPTION;
+    }
+
     public static String getAuthority() {
         return AUTHORITY + "." + PROVIDER_NAME;
     }
@@ -65,10 +78,17 @@ public class TempAppProvider extends AppProvider {
         /**
          * Saves data from the temp table to the apk table, by removing _EVERYTHING_ from the real
          * apk table and inserting all of the records from here. The temporary table is then removed.
+         * As well as committing, updates the {@link RepoStats} of the repo which was just updated.
+         * @param updateDuration How long it took to process the index, in milliseconds.
+         * @param indexSize The size of the index.jar, in bytes.
          */
-        public static void commitAppsAndApks(Context context) {
+        public static void commitAppsAndApks(Context context, Repo repo, long updateDuration, long indexSize) {
             Uri uri = Uri.withAppendedPath(getContentUri(), PATH_COMMIT);
-            context.getContentResolver().insert(uri, new ContentValues());
+            ContentValues values = new ContentValues(3);
+            values.put(RepoProvider.StatsColumns.REPO_ID, repo.getId());
+            values.put(RepoProvider.StatsColumns.LAST_UPDATE_DURATION, updateDuration);
+            values.put(RepoProvider.StatsColumns.INDEX_SIZE, indexSize);
+            context.getContentResolver().insert(uri, values);
         }
     }
 
@@ -77,6 +97,25 @@ public class TempAppProvider extends AppProvider {
         return TempApkProvider.TABLE_TEMP_APK;
     }
 
+    /**
+     * Nothing reads from the temporary table via the {@link LookupCache}, so there is no need
+     * to invalidate it until {@link TempAppProvider#commitTable(ContentValues)} swaps it in.
+     */
+    @Override
+    protected void invalidateLookupCache() {
+        // Do nothing.
+    }
+
+    /**
+     * Nobody observes the temporary tables. Observers of the real tables are notified once,
+     * when {@link TempAppProvider#commitTable(ContentValues)} swaps them in. Until then, nothing has changed
+     * as far as they are concerned.
+     */
+    @Override
+    protected void notifyChange(Uri uri) {
+        // Do nothing.
+    }
+
     @Override
     public Uri insert(Uri uri, ContentValues values) {
         switch (matcher.match(uri)) {
@@ -85,7 +124,7 @@ public class TempAppProvider extends AppProvider {
                 return null;
             case CODE_COMMIT:
                 updateAppDetails();
-                commitTable();
+                commitTable(values);
                 return null;
             default:
                 return super.insert(uri, values);
@@ -104,23 +143,56 @@ public class TempAppProvider extends AppProvider {
                 throw new UnsupportedOperationException("Update not supported for " + uri + ".");
         }
 
-        int count = write().update(getTableName(), values, query.getSelection(), query.getArgs());
-        if (!isApplyingBatch()) {
-            getContext().getContentResolver().notifyChange(uri, null);
-        }
+        int count = updateWithDescription(uri.getLastPathSegment(), values, query);
+        notifyChange(uri);
         return count;
     }
 
+    /**
+     * The copy needs to be created with the same primary key and indexes as the real table,
+     * both so that the updates which get applied to it are quick, and because it becomes
+     * the real table once {@link #commitTable(ContentValues)} renames it.
+     */
     private void initTable() {
-        write().execSQL("DROP TABLE IF EXISTS " + getTableName());
-        write().execSQL("CREATE TABLE " + getTableName() + " AS SELECT * FROM " + DBHelper.TABLE_APP);
-        write().execSQL("CREATE INDEX IF NOT EXISTS app_id ON " + getTableName() + " (id);");
-        write().execSQL("CREATE INDEX IF NOT EXISTS app_upstreamVercode ON " + getTableName() + " (upstreamVercode);");
-        write().execSQL("CREATE INDEX IF NOT EXISTS app_compatible ON " + getTableName() + " (compatible);");
+        final SQLiteDatabase db = write();
+        db.execSQL("DROP TABLE IF EXISTS " + getTableName());
+        DBHelper.createAppTable(db, getTableName(), getIndexPrefix(db, DBHelper.TABLE_APP));
+        DBHelper.copyRows(db, DBHelper.TABLE_APP, getTableName());
+
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_TEMP_APP_DESCRIPTION);
+        DBHelper.createAppDescriptionTable(db, TABLE_TEMP_APP_DESCRIPTION);
+        DBHelper.copyRows(db, DBHelper.TABLE_APP_DESCRIPTION, TABLE_TEMP_APP_DESCRIPTION);
+    }
+
+    /**
+     * Index names are unique across the entire database, and SQLite can't rename an index.
+     * Hence the copy of a table gets whichever of the two prefixes the indexes of the real
+     * table don't have, and keeps them once it becomes the real table. Then committing only
+     * has to rename the tables, rather than rebuild every index while holding the transaction.
+     * @see DBHelper#createAppTable(SQLiteDatabase, String, String)
+     */
+    static String getIndexPrefix(SQLiteDatabase db, String realTable) {
+        final long prefixed = DatabaseUtils.longForQuery(db,
+                "SELECT COUNT(*) FROM sqlite_master WHERE type = 'index' AND tbl_name = ? AND substr(name, 1, ?) = ?",
+                new String[] {realTable, Integer.toString(INDEX_PREFIX.length()), INDEX_PREFIX});
+        return prefixed > 0 ? "" : INDEX_PREFIX;
     }
 
-    private void commitTable() {
+    /**
+     * @param stats If this contains a {@link RepoProvider.StatsColumns#REPO_ID}, then the stats
+     * for that repo are updated as part of the same transaction.
+     */
+    private void commitTable(ContentValues stats) {
         final SQLiteDatabase db = write();
+        boolean committed = false;
+
+        // Every row of both the old and the new tables gets dropped or written. They are counted
+        // beforehand, so as not to hold up everyone else while the tables are swapped over.
+        long churn = 0;
+        for (final String table : new String[] {DBHelper.TABLE_APP, TABLE_TEMP_APP, DBHelper.TABLE_APK, TempApkProvider.TABLE_TEMP_APK}) {
+            churn += DatabaseUtils.queryNumEntries(db, table);
+        }
+
         try {
             db.beginTransaction();
 
@@ -128,17 +200,36 @@ public class TempAppProvider extends AppProvider {
             db.execSQL("DROP TABLE " + DBHelper.TABLE_APP);
             db.execSQL("ALTER TABLE " + TABLE_TEMP_APP + " RENAME TO " + DBHelper.TABLE_APP);
 
+            Log.i(TAG, "Renaming " + TABLE_TEMP_APP_DESCRIPTION + " to " + DBHelper.TABLE_APP_DESCRIPTION);
+            db.execSQL("DROP TABLE " + DBHelper.TABLE_APP_DESCRIPTION);
+            db.execSQL("ALTER TABLE " + TABLE_TEMP_APP_DESCRIPTION + " RENAME TO " + DBHelper.TABLE_APP_DESCRIPTION);
+
             Log.i(TAG, "Renaming " + TempApkProvider.TABLE_TEMP_APK + " to " + DBHelper.TABLE_APK);
             db.execSQL("DROP TABLE " + DBHelper.TABLE_APK);
             db.execSQL("ALTER TABLE " + TempApkProvider.TABLE_TEMP_APK + " RENAME TO " + DBHelper.TABLE_APK);
 
+            if (stats.containsKey(RepoProvider.StatsColumns.REPO_ID)) {
+                RepoProvider.updateStats(db,
+                        stats.getAsLong(RepoProvider.StatsColumns.REPO_ID),
+                        stats.getAsLong(RepoProvider.StatsColumns.LAST_UPDATE_DURATION),
+                        stats.getAsLong(RepoProvider.StatsColumns.INDEX_SIZE));
+            }
+
             Utils.debugLog(TAG, "Successfully renamed both tables, will commit transaction");
             db.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            db.endTransaction();
+            LookupCache.invalidateAll();
+        }
 
+        // Only notify once the transaction has ended. Reads don't wait for it (the database uses
+        // write-ahead logging), so anyone who reloaded any earlier would still see the old tables.
+        if (committed) {
+            DatabaseMaintenance.recordChurn(getContext(), churn);
             getContext().getContentResolver().notifyChange(AppProvider.getContentUri(), null);
             getContext().getContentResolver().notifyChange(ApkProvider.getContentUri(), null);
-        } finally {
-            db.endTransaction();
+            getContext().getContentResolver().notifyChange(RepoProvider.getStatsUri(), null);
         }
     }
 }
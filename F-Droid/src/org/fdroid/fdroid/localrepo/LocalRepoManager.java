@@ -24,8 +24,10 @@ import org.fdroid.fdroid.Hasher;
 import org.fdroid.fdroid.Preferences;
 import org.fdroid.fdroid.R;
 import org.fdroid.fdroid.Utils;
+import org.fdroid.fdroid.data.Apk;
 import org.fdroid.fdroid.data.App;
 import org.fdroid.fdroid.data.SanitizedFile;
+import org.fdroid.fdroid.net.ApkCache;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
 import org.xmlpull.v1.XmlSerializer;
@@ -237,6 +239,7 @@ public final class LocalRepoManager {
 
     public void deleteRepo() {
         deleteContents(repoDir);
+        ApkCache.unpinAll();
     }
 
     public void copyApksToRepo() {
@@ -249,7 +252,7 @@ public final class LocalRepoManager {
 
             if (app.installedApk != null) {
                 SanitizedFile outFile = new SanitizedFile(repoDir, app.installedApk.apkName);
-                if (Utils.symlinkOrCopyFileQuietly(app.installedApk.installedFile, outFile))
+                if (Utils.symlinkOrCopyFileQuietly(getApkToServe(app.installedApk), outFile))
                     continue;
             }
             // if we got here, something went wrong
@@ -257,6 +260,17 @@ public final class LocalRepoManager {
         }
     }
 
+    /**
+     * A copy of the installed apk in the {@link ApkCache} is used if there is one. Unlike the
+     * installed apk, it doesn't move or go away if the app gets updated or uninstalled while
+     * swapping, which would break the link to it in the repo. Nor does it get evicted from the
+     * cache, until the repo is deleted.
+     */
+    private SanitizedFile getApkToServe(Apk apk) {
+        final File cached = ApkCache.findToServe(context, apk);
+        return cached != null ? SanitizedFile.knownSanitized(cached) : apk.installedFile;
+    }
+
     public void addApp(Context context, String packageName) {
         App app;
         try {
@@ -0,0 +1,296 @@
+package org.fdroid.fdroid.net;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.fdroid.fdroid.Hasher;
+import org.fdroid.fdroid.Preferences;
+import org.fdroid.fdroid.Utils;
+import org.fdroid.fdroid.data.Apk;
+import org.fdroid.fdroid.data.ApkCacheProvider;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Apks which have been downloaded before, kept so that they don't need to be downloaded
+ * again, e.g. to install an app again or to swap it with someone else. Each one is stored
+ * under its SHA-256 hash rather than its name, so an apk which is in more than one repo (or
+ * on more than one mirror) is only kept once, and two different apks with the same name
+ * can't be mixed up.
+ *
+ * The hash, size and when each file was last used are kept in {@link ApkCacheProvider}. Once
+ * the files add up to more than {@link Preferences#getApkCacheSize()}, the ones which have
+ * gone unused the longest are deleted, other than those which are being served to others by
+ * the local repo, see {@link #findToServe(Context, Apk)}.
+ */
+public final class ApkCache {
+
+    private static final String TAG = "ApkCache";
+
+    private static final String EXTENSION = ".apk";
+
+    /**
+     * Some file systems (e.g. FAT on an SD card) only store the time a file was last modified
+     * to the nearest couple of seconds.
+     */
+    private static final long MODIFIED_TIME_RESOLUTION_MS = 2000;
+
+    /**
+     * Hashes of the cached apks which the local repo links to, which mustn't be evicted while
+     * it might still serve them. Kept in memory only, like the local repo's web server.
+     */
+    private static final Set<String> PINNED = new HashSet<>();
+
+    private ApkCache() { }
+
+    /**
+     * Repos have used "sha256" and "SHA-256" for the same thing. Apks with any other type of
+     * hash can't be cached.
+     */
+    private static boolean canCache(Apk apk) {
+        return apk.hash != null && apk.hashType != null
+                && "sha256".equalsIgnoreCase(apk.hashType.replace("-", ""));
+    }
+
+    private static String hashOf(Apk apk) {
+        return apk.hash.toLowerCase(Locale.ENGLISH);
+    }
+
+    private static File fileFor(Context context, String hash) {
+        return new File(Utils.getApkCacheDir(context), hash + EXTENSION);
+    }
+
+    /**
+     * @return The cached copy of {@code apk}, or null if there isn't one. The file is not
+     * checked against the hash, only its size is, so anything which trusts its contents
+     * should use {@link #copyTo(Context, Apk, File)} instead.
+     */
+    @Nullable
+    public static File find(@NonNull Context context, @NonNull Apk apk) {
+        if (!canCache(apk)) {
+            return null;
+        }
+
+        final String hash = hashOf(apk);
+        final long size = ApkCacheProvider.Helper.findSize(context, hash);
+        if (size < 0) {
+            return null;
+        }
+
+        final File file = fileFor(context, hash);
+        if (file.length() != size) {
+            Utils.debugLog(TAG, "Cached apk " + file + " is missing or has changed, forgetting about it");
+            remove(context, hash);
+            return null;
+        }
+
+        ApkCacheProvider.Helper.markUsed(context, hash);
+        return file;
+    }
+
+    /**
+     * Like {@link #find(Context, Apk)}, but also keeps the cached copy from being evicted
+     * until {@link #unpinAll()}, so that the local repo can link to it rather than copy it.
+     */
+    @Nullable
+    public static File findToServe(@NonNull Context context, @NonNull Apk apk) {
+        synchronized (PINNED) {
+            final File file = find(context, apk);
+            if (file != null) {
+                PINNED.add(hashOf(apk));
+            }
+            return file;
+        }
+    }
+
+    /**
+     * Call once the local repo no longer links to any of the apks from
+     * {@link #findToServe(Context, Apk)}.
+     */
+    public static void unpinAll() {
+        synchronized (PINNED) {
+            PINNED.clear();
+        }
+    }
+
+    /**
+     * Copies the cached copy of {@code apk} to {@code destination}, checking the hash on the way
+     * through. The cache is usually on external storage, where other apps are able to change it,
+     * which is why the copy is what gets checked, not the cached file.
+     * @return Whether {@code destination} is now an exact copy of {@code apk}. If not, it will
+     * have been deleted (as will the cached copy if that is what was wrong).
+     */
+    public static boolean copyTo(@NonNull Context context, @NonNull Apk apk, @NonNull File destination) {
+        final File cached = find(context, apk);
+        if (cached == null) {
+            return false;
+        }
+
+        final String hash;
+        try {
+            hash = copy(cached, destination);
+        } catch (IOException | NoSuchAlgorithmException e) {
+            Log.e(TAG, "Couldn't copy cached apk " + cached + " to " + destination, e);
+            delete(destination);
+            return false;
+        }
+
+        if (!hash.equals(hashOf(apk))) {
+            Log.w(TAG, "Cached apk " + cached + " doesn't match its hash, deleting it");
+            delete(destination);
+            remove(context, hashOf(apk));
+            return false;
+        }
+
+        Utils.debugLog(TAG, "Using cached apk " + cached);
+        return true;
+    }
+
+    /**
+     * @return The SHA-256 hash of what was copied.
+     */
+    private static String copy(File source, File destination) throws IOException, NoSuchAlgorithmException {
+        final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        final byte[] buffer = new byte[64 * 1024];
+        InputStream input = null;
+        OutputStream output = null;
+        try {
+            input = new FileInputStream(source);
+            output = new FileOutputStream(destination);
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, count);
+                output.write(buffer, 0, count);
+            }
+        } finally {
+            Utils.closeQuietly(output);
+            Utils.closeQuietly(input);
+        }
+        return Hasher.hex(digest.digest());
+    }
+
+    /**
+     * Keeps a copy of {@code file}, which must already have been checked against the hash of
+     * {@code apk}. Does nothing if caching is turned off, or the apk is already cached.
+     */
+    public static void add(@NonNull Context context, @NonNull Apk apk, @NonNull File file) {
+        if (!Preferences.get().shouldCacheApks() || !canCache(apk)) {
+            return;
+        }
+
+        final String hash = hashOf(apk);
+        final File cached = fileFor(context, hash);
+        if (cached.length() != file.length() || ApkCacheProvider.Helper.findSize(context, hash) != file.length()) {
+            Utils.debugLog(TAG, "Copying " + file + " to cache at " + cached);
+            if (!Utils.copyQuietly(file, cached)) {
+                delete(cached);
+                return;
+            }
+        }
+
+        ApkCacheProvider.Helper.add(context, hash, cached.length());
+        trim(context);
+    }
+
+    /**
+     * Deletes the least recently used apks until what is left fits within
+     * {@link Preferences#getApkCacheSize()}. Pinned apks are never deleted, even if that
+     * means going over.
+     */
+    public static void trim(@NonNull Context context) {
+        synchronized (PINNED) {
+            final Map<String, Long> sizes = ApkCacheProvider.Helper.all(context);
+            final long budget = Preferences.get().getApkCacheSize();
+            long total = 0;
+            for (final long size : sizes.values()) {
+                total += size;
+            }
+
+            for (final Map.Entry<String, Long> entry : sizes.entrySet()) {
+                if (total <= budget) {
+                    break;
+                }
+                if (PINNED.contains(entry.getKey())) {
+                    continue;
+                }
+                Utils.debugLog(TAG, "Evicting " + entry.getKey() + " from the apk cache to stay within " + budget + " bytes");
+                remove(context, entry.getKey());
+                total -= entry.getValue();
+            }
+        }
+    }
+
+    /**
+     * Brings the files in the cache and their index back in line with each other. Files
+     * which aren't in the index (e.g. apks cached by name before there was an index) are
+     * deleted, as are index entries for files which have gone missing. Then the cache is
+     * {@link #trim(Context)}med, in case the budget has been made smaller.
+     * If caching has been turned off, everything is deleted instead.
+     *
+     * Files which have been written to since this started are left alone, they are most
+     * likely still being {@link #add(Context, Apk, File)}ed, and so aren't in the index yet.
+     */
+    public static void tidy(@NonNull Context context) {
+        if (!Preferences.get().shouldCacheApks()) {
+            Utils.deleteFiles(Utils.getApkCacheDir(context), null, EXTENSION);
+            ApkCacheProvider.Helper.removeAll(context);
+            return;
+        }
+
+        final long started = System.currentTimeMillis() - MODIFIED_TIME_RESOLUTION_MS;
+        final Map<String, Long> sizes = ApkCacheProvider.Helper.all(context);
+        final Set<String> present = new HashSet<>();
+        final File[] files = Utils.getApkCacheDir(context).listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                final String name = file.getName();
+                if (!name.endsWith(EXTENSION)) {
+                    continue;
+                }
+                final String hash = name.substring(0, name.length() - EXTENSION.length());
+                final Long size = sizes.get(hash);
+                if (size != null && size == file.length()) {
+                    present.add(hash);
+                } else if (file.lastModified() >= started) {
+                    // Its row may well be added after the index was read, so that has to be
+                    // left for the next tidy to deal with too.
+                    present.add(hash);
+                } else {
+                    delete(file);
+                }
+            }
+        }
+
+        for (final String hash : sizes.keySet()) {
+            if (!present.contains(hash)) {
+                ApkCacheProvider.Helper.remove(context, hash);
+            }
+        }
+
+        trim(context);
+    }
+
+    private static void remove(Context context, String hash) {
+        delete(fileFor(context, hash));
+        ApkCacheProvider.Helper.remove(context, hash);
+    }
+
+    private static void delete(File file) {
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Couldn't delete " + file);
+        }
+    }
+}
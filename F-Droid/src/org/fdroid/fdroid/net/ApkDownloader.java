@@ -24,11 +24,13 @@ import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.v4.content.LocalBroadcastManager;
+import android.support.v4.util.LruCache;
+import android.text.TextUtils;
 import android.util.Log;
 
 import org.fdroid.fdroid.Hasher;
-import org.fdroid.fdroid.Preferences;
 import org.fdroid.fdroid.ProgressListener;
 import org.fdroid.fdroid.Utils;
 import org.fdroid.fdroid.compat.FileCompat;
@@ -39,6 +41,7 @@ import org.fdroid.fdroid.data.SanitizedFile;
 import java.io.File;
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
 import org.fdroid.fdroid.data.Credentials;
 
 /**
@@ -64,6 +67,14 @@ public class ApkDownloader implements AsyncDownloader.Listener {
     private static final String EVENT_SOURCE_ID = "sourceId";
     private static long downloadIdCounter;
 
+    /**
+     * Hashes of apks which have already been worked out, either while they were being
+     * downloaded or by reading them afterwards, keyed by path. Each one only counts for as
+     * long as the file still has the same size and modification time. This saves reading
+     * every apk back from storage once it is downloaded, or copied out of the {@link ApkCache}.
+     */
+    private static final LruCache<String, KnownHash> KNOWN_HASHES = new LruCache<>(50);
+
     /**
      * Used as a key to pass data through with an error event, explaining the type of event.
      */
@@ -74,12 +85,12 @@ public class ApkDownloader implements AsyncDownloader.Listener {
     @NonNull private final Context context;
     @NonNull private final String repoAddress;
     @NonNull private final SanitizedFile localFile;
-    @NonNull private final SanitizedFile potentiallyCachedFile;
 
     private ProgressListener listener;
     private AsyncDownloader dlWrapper;
     private Credentials credentials;
     private boolean isComplete;
+    private int priority = DownloadQueue.PRIORITY_NORMAL;
 
     private final long id = ++downloadIdCounter;
 
@@ -97,7 +108,6 @@ public class ApkDownloader implements AsyncDownloader.Listener {
         curApk = apk;
         this.repoAddress = repoAddress;
         localFile = new SanitizedFile(Utils.getApkDownloadDir(context), apk.apkName);
-        potentiallyCachedFile = new SanitizedFile(Utils.getApkCacheDir(context), apk.apkName);
     }
 
     /**
@@ -129,11 +139,33 @@ public class ApkDownloader implements AsyncDownloader.Listener {
     }
 
     private boolean hashMatches(@NonNull final File apkFile) {
-        if (!apkFile.exists()) {
+        if (!apkFile.exists() || curApk.hash == null) {
             return false;
         }
-        Hasher hasher = createHasher(apkFile);
-        return hasher != null && hasher.match(curApk.hash);
+
+        String hash = getKnownHash(apkFile);
+        if (hash == null) {
+            Hasher hasher = createHasher(apkFile);
+            if (hasher == null) {
+                return false;
+            }
+            hash = hasher.getHash();
+            if (TextUtils.isEmpty(hash)) {
+                return false;
+            }
+            rememberHash(apkFile, hash);
+        }
+        return hash.equals(curApk.hash.toLowerCase(Locale.ENGLISH));
+    }
+
+    @Nullable
+    private String getKnownHash(@NonNull final File apkFile) {
+        KnownHash known = KNOWN_HASHES.get(apkFile.getAbsolutePath());
+        return known != null && known.isStillValidFor(apkFile, curApk.hashType) ? known.hash : null;
+    }
+
+    private void rememberHash(@NonNull final File apkFile, @NonNull final String hash) {
+        KNOWN_HASHES.put(apkFile.getAbsolutePath(), new KnownHash(apkFile, curApk.hashType, hash));
     }
 
     /**
@@ -159,6 +191,8 @@ public class ApkDownloader implements AsyncDownloader.Listener {
                 Log.w(TAG, "Could not delete file " + file);
             }
         }
+        KNOWN_HASHES.remove(file.getAbsolutePath());
+        PartialDownload.forget(file);
     }
 
     private void prepareApkFileAndSendCompleteMessage() {
@@ -185,10 +219,11 @@ public class ApkDownloader implements AsyncDownloader.Listener {
      */
     public boolean download() {
 
-        // Can we use the cached version?
-        if (verifyOrDelete(potentiallyCachedFile)) {
-            delete(localFile);
-            Utils.copyQuietly(potentiallyCachedFile, localFile);
+        // Can we use the cached version? If so, it was checked against the hash while it was
+        // being copied, and anything left over from an earlier download has been replaced.
+        if (ApkCache.copyTo(context, curApk, localFile)) {
+            PartialDownload.forget(localFile);
+            rememberHash(localFile, curApk.hash.toLowerCase(Locale.ENGLISH));
             prepareApkFileAndSendCompleteMessage();
             return false;
         }
@@ -196,8 +231,15 @@ public class ApkDownloader implements AsyncDownloader.Listener {
         String remoteAddress = Utils.getApkUrl(repoAddress, curApk);
         Utils.debugLog(TAG, "Downloading apk from " + remoteAddress + " to " + localFile);
 
+        KNOWN_HASHES.remove(localFile.getAbsolutePath());
         try {
             dlWrapper = DownloaderFactory.createAsync(context, remoteAddress, localFile, app.name + " " + curApk.version, curApk.packageName, credentials, this);
+            try {
+                dlWrapper.setHashType(curApk.hashType);
+            } catch (NoSuchAlgorithmException e) {
+                // Reported when the hash gets checked after the download, see createHasher().
+            }
+            dlWrapper.setPriority(priority);
             dlWrapper.download();
             return true;
         } catch (IOException e) {
@@ -237,25 +279,28 @@ public class ApkDownloader implements AsyncDownloader.Listener {
     public void onErrorDownloading(String localisedExceptionDetails) {
         Log.e(TAG, "Download failed: " + localisedExceptionDetails);
         sendError(ERROR_DOWNLOAD_FAILED);
-        delete(localFile);
-    }
 
-    private void cacheIfRequired() {
-        if (Preferences.get().shouldCacheApks()) {
-            Utils.debugLog(TAG, "Copying .apk file to cache at " + potentiallyCachedFile.getAbsolutePath());
-            Utils.copyQuietly(localFile, potentiallyCachedFile);
+        // Whatever did get downloaded is kept, so the next attempt can carry on from there.
+        if (!PartialDownload.exists(localFile)) {
+            delete(localFile);
         }
     }
 
     @Override
     public void onDownloadComplete() {
 
+        // Saves reading the whole file back again to check it.
+        String hash = dlWrapper.getHash();
+        if (hash != null) {
+            rememberHash(localFile, hash);
+        }
+
         if (!verifyOrDelete(localFile)) {
             sendError(ERROR_HASH_MISMATCH);
             return;
         }
 
-        cacheIfRequired();
+        ApkCache.add(context, curApk, localFile);
 
         Utils.debugLog(TAG, "Download finished: " + localFile);
         prepareApkFileAndSendCompleteMessage();
@@ -298,4 +343,34 @@ public class ApkDownloader implements AsyncDownloader.Listener {
     public void setCredentials(final Credentials credentials) {
         this.credentials = credentials;
     }
+
+    /**
+     * See {@link DownloadQueue}. Can be changed after {@link #download()}, while the apk is
+     * still waiting for its turn to be downloaded.
+     */
+    public void setPriority(int priority) {
+        this.priority = priority;
+        if (dlWrapper != null) {
+            dlWrapper.setPriority(priority);
+        }
+    }
+
+    private static final class KnownHash {
+
+        final String hashType;
+        final String hash;
+        final long length;
+        final long lastModified;
+
+        KnownHash(File file, String hashType, String hash) {
+            this.hashType = hashType;
+            this.hash = hash;
+            length = file.length();
+            lastModified = file.lastModified();
+        }
+
+        boolean isStillValidFor(File file, String hashType) {
+            return TextUtils.equals(this.hashType, hashType) && file.length() == length && file.lastModified() == lastModified;
+        }
+    }
 }
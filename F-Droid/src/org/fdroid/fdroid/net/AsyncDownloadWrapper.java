@@ -3,23 +3,24 @@ package org.fdroid.fdroid.net;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
-import android.util.Log;
 
-import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
 
 class AsyncDownloadWrapper extends Handler implements AsyncDownloader {
 
-    private static final String TAG = "AsyncDownloadWrapper";
+    static final int MSG_DOWNLOAD_COMPLETE  = 2;
+    static final int MSG_DOWNLOAD_CANCELLED = 3;
+    static final int MSG_ERROR              = 4;
+    private static final String MSG_DATA    = "data";
 
-    private static final int MSG_DOWNLOAD_COMPLETE  = 2;
-    private static final int MSG_DOWNLOAD_CANCELLED = 3;
-    private static final int MSG_ERROR              = 4;
-    private static final String MSG_DATA            = "data";
-
-    private final Downloader downloader;
-    private DownloadThread downloadThread;
+    /**
+     * Replaced by {@link DownloadQueue} if the same download was already queued by someone
+     * else, so that the progress of the one which is actually happening gets reported.
+     */
+    private volatile Downloader downloader;
 
     private final Listener listener;
+    private int priority = DownloadQueue.PRIORITY_NORMAL;
 
     /**
      * Normally the listener would be provided using a setListener method.
@@ -41,15 +42,48 @@ class AsyncDownloadWrapper extends Handler implements AsyncDownloader {
         return downloader.getTotalBytes();
     }
 
+    public void setHashType(String hashType) throws NoSuchAlgorithmException {
+        downloader.setHashType(hashType);
+    }
+
+    public String getHash() {
+        return downloader.getHash();
+    }
+
+    void setDownloader(Downloader downloader) {
+        this.downloader = downloader;
+    }
+
+    public void setPriority(int priority) {
+        this.priority = priority;
+        DownloadQueue.get().setPriority(this, priority);
+    }
+
+    /**
+     * Adds the download to the {@link DownloadQueue}, which will start it once there is room.
+     */
     public void download() {
-        downloadThread = new DownloadThread();
-        downloadThread.start();
+        DownloadQueue.get().add(this, downloader, priority);
     }
 
     public void attemptCancel(boolean userRequested) {
-        if (downloadThread != null) {
-            downloadThread.interrupt();
+        DownloadQueue.get().cancel(this);
+    }
+
+    /**
+     * Called by the {@link DownloadQueue} from whichever thread the download ran on.
+     * @param messageType One of {@link #MSG_DOWNLOAD_COMPLETE}, {@link #MSG_DOWNLOAD_CANCELLED}
+     * or {@link #MSG_ERROR}, in which case {@code error} is the reason.
+     */
+    void sendResult(int messageType, String error) {
+        Message message = new Message();
+        message.arg1 = messageType;
+        if (error != null) {
+            Bundle data = new Bundle(1);
+            data.putString(MSG_DATA, error);
+            message.setData(data);
         }
+        sendMessage(message);
     }
 
     /**
@@ -69,30 +103,4 @@ class AsyncDownloadWrapper extends Handler implements AsyncDownloader {
                 break;
         }
     }
-
-    private class DownloadThread extends Thread {
-
-        public void run() {
-            try {
-                downloader.download();
-                sendMessage(MSG_DOWNLOAD_COMPLETE);
-            } catch (InterruptedException e) {
-                sendMessage(MSG_DOWNLOAD_CANCELLED);
-            } catch (IOException e) {
-                Log.e(TAG, "I/O exception in download thread", e);
-                Bundle data = new Bundle(1);
-                data.putString(MSG_DATA, e.getLocalizedMessage());
-                Message message = new Message();
-                message.arg1 = MSG_ERROR;
-                message.setData(data);
-                AsyncDownloadWrapper.this.sendMessage(message);
-            }
-        }
-
-        private void sendMessage(int messageType) {
-            Message message = new Message();
-            message.arg1 = messageType;
-            AsyncDownloadWrapper.this.sendMessage(message);
-        }
-    }
 }
@@ -2,6 +2,8 @@ package org.fdroid.fdroid.net;
 
 import org.fdroid.fdroid.ProgressListener;
 
+import java.security.NoSuchAlgorithmException;
+
 public interface AsyncDownloader {
 
     interface Listener extends ProgressListener {
@@ -16,6 +18,23 @@ public interface AsyncDownloader {
 
     int getTotalBytes();
 
+    /**
+     * Must be called before {@link #download()}, see {@link Downloader#setHashType(String)}.
+     */
+    void setHashType(String hashType) throws NoSuchAlgorithmException;
+
+    /**
+     * @return The hash of the downloaded file, if it was worked out during the download,
+     * otherwise null. See {@link Downloader#getHash()}.
+     */
+    String getHash();
+
+    /**
+     * @param priority {@link DownloadQueue#PRIORITY_NORMAL} or {@link DownloadQueue#PRIORITY_HIGH}.
+     * Can be changed while the download is waiting to start.
+     */
+    void setPriority(int priority);
+
     void download();
 
     void attemptCancel(boolean userRequested);
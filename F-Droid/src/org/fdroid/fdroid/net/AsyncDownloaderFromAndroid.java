@@ -37,10 +37,16 @@ public class AsyncDownloaderFromAndroid implements AsyncDownloader {
     private final String downloadTitle;
     private final String uniqueDownloadId;
     private final Listener listener;
-    private boolean isCancelled;
+    private volatile boolean isCancelled;
 
     private long downloadManagerId = -1;
 
+    /**
+     * As last seen by the {@link DownloadManagerObserver}.
+     */
+    private volatile int bytesRead;
+    private volatile int totalBytes;
+
     /**
      * Normally the listener would be provided using a setListener method.
      * However for the purposes of this async downloader, it doesn't make
@@ -86,6 +92,7 @@ public class AsyncDownloaderFromAndroid implements AsyncDownloader {
         downloadManagerId = isDownloadComplete(context, uniqueDownloadId);
         if (downloadManagerId > 0) {
             // clear the download
+            DownloadManagerObserver.get(context).stopWatching(downloadManagerId);
             dm.remove(downloadManagerId);
 
             try {
@@ -116,20 +123,7 @@ public class AsyncDownloaderFromAndroid implements AsyncDownloader {
         context.registerReceiver(receiver,
                 new IntentFilter(DownloadManager.ACTION_DOWNLOAD_COMPLETE));
 
-        Thread progressThread = new Thread() {
-            @Override
-            public void run() {
-                while (!isCancelled && isDownloading(context, uniqueDownloadId) >= 0) {
-                    try {
-                        Thread.sleep(1000);
-                    } catch (Exception e) {
-                        // ignore
-                    }
-                    sendProgress(getBytesRead(), getTotalBytes());
-                }
-            }
-        };
-        progressThread.start();
+        DownloadManagerObserver.get(context).watch(downloadManagerId, this);
     }
 
     /**
@@ -149,46 +143,54 @@ public class AsyncDownloaderFromAndroid implements AsyncDownloader {
         }
     }
 
+    String getUniqueDownloadId() {
+        return uniqueDownloadId;
+    }
+
+    /**
+     * Doesn't ask the {@link DownloadManager}, the {@link DownloadManagerObserver} already has.
+     */
     @Override
     public int getBytesRead() {
-        if (downloadManagerId < 0) return 0;
+        return bytesRead;
+    }
 
-        DownloadManager.Query query = new DownloadManager.Query();
-        query.setFilterById(downloadManagerId);
-        Cursor c = dm.query(query);
+    @Override
+    public int getTotalBytes() {
+        return totalBytes;
+    }
 
-        try {
-            if (c.moveToFirst()) {
-                // we use the description column to store the unique id of this download
-                int columnIndex = c.getColumnIndex(DownloadManager.COLUMN_BYTES_DOWNLOADED_SO_FAR);
-                return c.getInt(columnIndex);
-            }
-        } finally {
-            c.close();
+    /**
+     * Called by the {@link DownloadManagerObserver} each time it checks on the download.
+     * Nothing is broadcast unless there has been some progress since last time.
+     */
+    void onProgress(int bytesRead, int totalBytes) {
+        if (isCancelled || (bytesRead == this.bytesRead && totalBytes == this.totalBytes)) {
+            return;
         }
-
-        return 0;
+        this.bytesRead = bytesRead;
+        this.totalBytes = totalBytes;
+        sendProgress(bytesRead, totalBytes);
     }
 
+    /**
+     * The {@link DownloadManager} writes the file itself, so there is no chance to work out
+     * its hash along the way.
+     */
     @Override
-    public int getTotalBytes() {
-        if (downloadManagerId < 0) return 0;
-
-        DownloadManager.Query query = new DownloadManager.Query();
-        query.setFilterById(downloadManagerId);
-        Cursor c = dm.query(query);
+    public void setHashType(String hashType) {
+    }
 
-        try {
-            if (c.moveToFirst()) {
-                // we use the description column to store the unique id for this download
-                int columnIndex = c.getColumnIndex(DownloadManager.COLUMN_TOTAL_SIZE_BYTES);
-                return c.getInt(columnIndex);
-            }
-        } finally {
-            c.close();
-        }
+    @Override
+    public String getHash() {
+        return null;
+    }
 
-        return 0;
+    /**
+     * The {@link DownloadManager} has a queue of its own, which doesn't know about priorities.
+     */
+    @Override
+    public void setPriority(int priority) {
     }
 
     protected void sendProgress(int bytesRead, int totalBytes) {
@@ -202,6 +204,9 @@ public class AsyncDownloaderFromAndroid implements AsyncDownloader {
     @Override
     public void attemptCancel(boolean userRequested) {
         isCancelled = true;
+        if (downloadManagerId >= 0) {
+            DownloadManagerObserver.get(context).stopWatching(downloadManagerId);
+        }
         try {
             context.unregisterReceiver(receiver);
         } catch (Exception e) {
@@ -282,7 +287,8 @@ public class AsyncDownloaderFromAndroid implements AsyncDownloader {
     }
 
     /**
-     * Check if a download is running for the specified id
+     * Check if a download is running for the specified id, see
+     * {@link DownloadManagerObserver#findDownloading(String)}.
      * @return -1 if not downloading, else the id from the Android download manager
      */
     public static long isDownloading(Context context, String uniqueDownloadId) {
@@ -294,27 +300,7 @@ public class AsyncDownloaderFromAndroid implements AsyncDownloader {
             // not this one.
             return -1;
         }
-        DownloadManager dm = (DownloadManager) context.getSystemService(Context.DOWNLOAD_SERVICE);
-        DownloadManager.Query query = new DownloadManager.Query();
-        Cursor c = dm.query(query);
-        if (c == null) {
-            // TODO: same as above.
-            return -1;
-        }
-        int columnUniqueDownloadId = c.getColumnIndex(DownloadManager.COLUMN_DESCRIPTION);
-        int columnId = c.getColumnIndex(DownloadManager.COLUMN_ID);
-
-        try {
-            while (c.moveToNext()) {
-                if (uniqueDownloadId.equals(c.getString(columnUniqueDownloadId))) {
-                    return c.getLong(columnId);
-                }
-            }
-        } finally {
-            c.close();
-        }
-
-        return -1;
+        return DownloadManagerObserver.get(context).findDownloading(uniqueDownloadId);
     }
 
     /**
@@ -67,6 +67,14 @@ public class BluetoothDownloader extends Downloader {
         return fileDetails;
     }
 
+    /**
+     * The connection is opened once, when this is created, and closed once it is done.
+     */
+    @Override
+    boolean canDownloadAgain() {
+        return false;
+    }
+
     @Override
     public boolean hasChanged() {
         FileDetails details = getFileDetails();
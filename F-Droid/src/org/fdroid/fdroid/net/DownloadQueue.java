@@ -0,0 +1,296 @@
+package org.fdroid.fdroid.net;
+
+import android.util.Log;
+
+import org.fdroid.fdroid.Utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides when each {@link AsyncDownloadWrapper} gets to run, rather than each of them
+ * starting a thread of its own straight away. When lots of apks are downloaded at once, only
+ * {@link #MAX_RUNNING} of them are downloaded at a time, and no more than
+ * {@link #MAX_RUNNING_PER_HOST} from the same host, so that they each finish (and can be
+ * installed) one after the other, rather than all of them finishing at the very end.
+ *
+ * The rest wait their turn, in the order they were asked for, except that those with a higher
+ * priority (e.g. the app the user is looking at) go first. Asking for the same url to be
+ * downloaded to the same file again while it is still waiting or downloading doesn't download
+ * it twice, both listeners are told when the one download finishes.
+ */
+public final class DownloadQueue {
+
+    private static final String TAG = "DownloadQueue";
+
+    public static final int PRIORITY_NORMAL = 0;
+
+    /**
+     * For the app which the user is looking at, which goes ahead of everything else.
+     */
+    public static final int PRIORITY_HIGH = 1;
+
+    private static final int MAX_RUNNING = 3;
+    static final int MAX_RUNNING_PER_HOST = 2;
+
+    private static final DownloadQueue INSTANCE = new DownloadQueue();
+
+    public static DownloadQueue get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Highest priority first, then in the order they were asked for.
+     */
+    private static final Comparator<Job> ORDER = new Comparator<Job>() {
+        @Override
+        public int compare(Job lhs, Job rhs) {
+            if (lhs.priority != rhs.priority) {
+                return lhs.priority > rhs.priority ? -1 : 1;
+            }
+            return lhs.sequence < rhs.sequence ? -1 : (lhs.sequence == rhs.sequence ? 0 : 1);
+        }
+    };
+
+    /**
+     * Every download which is either waiting or running, keyed by {@link #keyFor(Downloader)}.
+     */
+    private final Map<String, Job> jobs = new HashMap<>();
+    private final List<Job> waiting = new ArrayList<>();
+    private final Map<String, Integer> runningPerHost = new HashMap<>();
+    private int running;
+    private boolean paused;
+    private long nextSequence;
+
+    /**
+     * Only to be used by tests, everything else shares the one from {@link #get()}.
+     */
+    DownloadQueue() { }
+
+    private static String keyFor(Downloader downloader) {
+        return downloader.sourceUrl + " " + downloader.getFile().getAbsolutePath();
+    }
+
+    synchronized void add(AsyncDownloadWrapper wrapper, Downloader downloader, int priority) {
+        final String key = keyFor(downloader);
+        Job job = jobs.get(key);
+        if (job != null) {
+            Utils.debugLog(TAG, "Already downloading " + downloader.sourceUrl + ", sharing that download");
+            job.wrappers.add(wrapper);
+            wrapper.setDownloader(job.downloader);
+            if (priority > job.priority) {
+                setPriority(job, priority);
+            }
+            return;
+        }
+
+        job = new Job(key, downloader, priority, nextSequence++);
+        job.wrappers.add(wrapper);
+        jobs.put(key, job);
+        waiting.add(job);
+        Collections.sort(waiting, ORDER);
+        startWaiting();
+    }
+
+    synchronized void setPriority(AsyncDownloadWrapper wrapper, int priority) {
+        final Job job = jobFor(wrapper);
+        if (job != null && job.priority != priority) {
+            setPriority(job, priority);
+        }
+    }
+
+    private void setPriority(Job job, int priority) {
+        job.priority = priority;
+        if (job.thread == null) {
+            Collections.sort(waiting, ORDER);
+            startWaiting();
+        }
+    }
+
+    /**
+     * Tells {@code wrapper} that it has been cancelled. The download itself is only stopped
+     * (or taken out of the queue) if nobody else is waiting for it. If it has to be stopped,
+     * {@code wrapper} isn't told until it has, so that nothing is still writing to the file by
+     * the time it hears about it.
+     */
+    synchronized void cancel(AsyncDownloadWrapper wrapper) {
+        final Job job = jobFor(wrapper);
+        if (job == null) {
+            return;
+        }
+
+        job.wrappers.remove(wrapper);
+        if (!job.wrappers.isEmpty()) {
+            wrapper.sendResult(AsyncDownloadWrapper.MSG_DOWNLOAD_CANCELLED, null);
+            return;
+        }
+
+        if (job.thread == null) {
+            waiting.remove(job);
+            jobs.remove(job.key);
+            wrapper.sendResult(AsyncDownloadWrapper.MSG_DOWNLOAD_CANCELLED, null);
+        } else {
+            // Stays in jobs until the thread has finished, so that nothing else starts writing
+            // to the same file in the meantime. If it is asked for again before then, it gets
+            // put back in the queue instead, see finished().
+            job.cancelled.add(wrapper);
+            job.interrupted = true;
+            job.thread.interrupt();
+        }
+    }
+
+    /**
+     * Stops every download and doesn't start any more until {@link #resume()}. What has
+     * been downloaded so far is kept, so each one carries on from where it got to. Downloads
+     * which can't be started again (i.e. over bluetooth) are left to finish.
+     */
+    public synchronized void pause() {
+        if (paused) {
+            return;
+        }
+        Utils.debugLog(TAG, "Pausing " + running + " downloads, with " + waiting.size() + " waiting");
+        paused = true;
+        for (final Job job : jobs.values()) {
+            if (job.thread != null && job.downloader.canDownloadAgain()) {
+                job.interrupted = true;
+                job.thread.interrupt();
+            }
+        }
+    }
+
+    public synchronized void resume() {
+        if (!paused) {
+            return;
+        }
+        Utils.debugLog(TAG, "Resuming downloads, " + waiting.size() + " waiting");
+        paused = false;
+        startWaiting();
+    }
+
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+
+    private Job jobFor(AsyncDownloadWrapper wrapper) {
+        for (final Job job : jobs.values()) {
+            if (job.wrappers.contains(wrapper)) {
+                return job;
+            }
+        }
+        return null;
+    }
+
+    private void startWaiting() {
+        if (paused) {
+            return;
+        }
+
+        final Iterator<Job> iterator = waiting.iterator();
+        while (running < MAX_RUNNING && iterator.hasNext()) {
+            final Job job = iterator.next();
+            if (countRunning(job.host) >= MAX_RUNNING_PER_HOST) {
+                continue;
+            }
+            iterator.remove();
+            running++;
+            runningPerHost.put(job.host, countRunning(job.host) + 1);
+            job.interrupted = false;
+            job.thread = new Thread(job, "Download " + job.downloader.sourceUrl);
+            job.thread.start();
+        }
+    }
+
+    private int countRunning(String host) {
+        final Integer count = runningPerHost.get(host);
+        return count == null ? 0 : count;
+    }
+
+    private synchronized void finished(Job job, int result, String error) {
+        running--;
+        final int count = countRunning(job.host) - 1;
+        if (count > 0) {
+            runningPerHost.put(job.host, count);
+        } else {
+            runningPerHost.remove(job.host);
+        }
+        job.thread = null;
+
+        for (final AsyncDownloadWrapper wrapper : job.cancelled) {
+            wrapper.sendResult(AsyncDownloadWrapper.MSG_DOWNLOAD_CANCELLED, null);
+        }
+        job.cancelled.clear();
+
+        if (result != AsyncDownloadWrapper.MSG_DOWNLOAD_COMPLETE && job.interrupted && !job.wrappers.isEmpty()) {
+            // Stopped by pause(), or by cancel() just before someone else asked for it again.
+            Utils.debugLog(TAG, "Putting " + job.downloader.sourceUrl + " back in the queue");
+            waiting.add(job);
+            Collections.sort(waiting, ORDER);
+        } else {
+            jobs.remove(job.key);
+            for (final AsyncDownloadWrapper wrapper : job.wrappers) {
+                wrapper.sendResult(result, error);
+            }
+        }
+
+        startWaiting();
+    }
+
+    private final class Job implements Runnable {
+
+        final String key;
+        final String host;
+        final Downloader downloader;
+        final long sequence;
+        final List<AsyncDownloadWrapper> wrappers = new ArrayList<>(1);
+
+        /**
+         * Those who cancelled the download while it was running, who are told once it stops.
+         */
+        final List<AsyncDownloadWrapper> cancelled = new ArrayList<>(1);
+
+        int priority;
+
+        /**
+         * Only set while the download is running.
+         */
+        Thread thread;
+
+        /**
+         * Whether {@link #thread} was interrupted by the queue, either by {@link #pause()} or
+         * because everyone who wanted the download cancelled it. Someone may still ask for a
+         * cancelled one again before the thread stops.
+         */
+        boolean interrupted;
+
+        Job(String key, Downloader downloader, int priority, long sequence) {
+            this.key = key;
+            this.downloader = downloader;
+            this.priority = priority;
+            this.sequence = sequence;
+            host = downloader.sourceUrl.getHost();
+        }
+
+        @Override
+        public void run() {
+            int result;
+            String error = null;
+            try {
+                downloader.download();
+                result = AsyncDownloadWrapper.MSG_DOWNLOAD_COMPLETE;
+            } catch (InterruptedException e) {
+                result = AsyncDownloadWrapper.MSG_DOWNLOAD_CANCELLED;
+            } catch (IOException e) {
+                Log.e(TAG, "I/O exception in download thread", e);
+                result = AsyncDownloadWrapper.MSG_ERROR;
+                error = e.getLocalizedMessage();
+            }
+            finished(this, result, error);
+        }
+    }
+}
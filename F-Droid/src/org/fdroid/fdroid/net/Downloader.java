@@ -2,19 +2,29 @@ package org.fdroid.fdroid.net;
 
 import android.content.Context;
 import android.content.Intent;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.v4.content.LocalBroadcastManager;
+import android.util.Log;
 
+import org.fdroid.fdroid.Hasher;
+import org.fdroid.fdroid.ProgressThrottle;
 import org.fdroid.fdroid.Utils;
+import org.fdroid.fdroid.compat.FileCompat;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 public abstract class Downloader {
 
@@ -26,7 +36,20 @@ public abstract class Downloader {
     public static final String EXTRA_BYTES_READ = "extraBytesRead";
     public static final String EXTRA_TOTAL_BYTES = "extraTotalBytes";
 
-    private final OutputStream outputStream;
+    /**
+     * The buffer grows from the size each downloader asks for up to this, for as long as it
+     * keeps being filled quicker than {@link #TARGET_READ_MS}. Fast connections then aren't
+     * held back by lots of tiny reads and writes, while slow ones don't hold on to a large
+     * buffer which only ever has a few bytes in it.
+     */
+    private static final int MAX_BUFFER_SIZE = 256 * 1024;
+
+    private static final long TARGET_READ_MS = 20;
+
+    /**
+     * How long to measure the throughput for before deciding whether to grow the buffer.
+     */
+    private static final long THROUGHPUT_SAMPLE_MS = 250;
 
     private final LocalBroadcastManager localBroadcastManager;
     private final File outputFile;
@@ -36,6 +59,32 @@ public abstract class Downloader {
     protected int bytesRead;
     protected int totalBytes;
 
+    /**
+     * Whether a download which doesn't finish should be carried on with next time, see
+     * {@link #setResumable(boolean)}.
+     */
+    protected boolean resumable;
+
+    /**
+     * The number of bytes already in the file from an earlier attempt, which this download is
+     * carrying on from. Zero unless the {@link Downloader} supports resuming.
+     */
+    protected long resumeFrom;
+
+    private MessageDigest digest;
+    private String hash;
+
+    private ProgressThrottle progressThrottle = new ProgressThrottle();
+    private OnProgressListener onProgressListener;
+
+    /**
+     * Receives progress straight from the thread doing the download, see
+     * {@link #setOnProgressListener(OnProgressListener)}.
+     */
+    public interface OnProgressListener {
+        void onProgress(URL sourceUrl, int bytesRead, int totalBytes);
+    }
+
     protected abstract InputStream getDownloadersInputStream() throws IOException;
 
     protected abstract void close() throws IOException;
@@ -44,7 +93,6 @@ public abstract class Downloader {
             throws FileNotFoundException, MalformedURLException {
         this.sourceUrl = url;
         outputFile = destFile;
-        outputStream = new FileOutputStream(outputFile);
         localBroadcastManager = LocalBroadcastManager.getInstance(context);
     }
 
@@ -82,6 +130,68 @@ public abstract class Downloader {
         return outputFile;
     }
 
+    /**
+     * Keep what was downloaded if the download fails or is cancelled, and carry on from there
+     * the next time the same url is downloaded to the same file. Only makes a difference to
+     * downloaders which know how to ask for part of a file (i.e. {@link HttpDownloader}).
+     */
+    public void setResumable(boolean resumable) {
+        this.resumable = resumable;
+    }
+
+    /**
+     * Decides how often progress is reported, the default being a {@link ProgressThrottle}
+     * with its default settings.
+     */
+    public void setProgressThrottle(@NonNull ProgressThrottle progressThrottle) {
+        this.progressThrottle = progressThrottle;
+    }
+
+    /**
+     * Progress is normally broadcast as {@link #LOCAL_ACTION_PROGRESS}, which means building
+     * an {@link Intent} for each update and handing it over to the main thread. If the
+     * progress only matters to one thing, it can be given to that directly instead, on the
+     * thread doing the download, and nothing is broadcast.
+     */
+    public void setOnProgressListener(OnProgressListener onProgressListener) {
+        this.onProgressListener = onProgressListener;
+    }
+
+    /**
+     * Work out the hash of the file while it is being downloaded, so that it doesn't need to
+     * be read back again afterwards to check it. See {@link #getHash()}.
+     * @param hashType The algorithm, as used by {@link Hasher}, e.g. "sha256".
+     */
+    public void setHashType(String hashType) throws NoSuchAlgorithmException {
+        digest = MessageDigest.getInstance(hashType);
+    }
+
+    /**
+     * @return The hash of the whole file as lowercase hexadecimal, or null if there was no
+     * {@link #setHashType(String)}, the download didn't finish, or it was downloaded in a way
+     * which didn't allow for the hash to be worked out as it went.
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * @return Whether {@link #setHashType(String)} was called, which means that every byte
+     * has to pass through {@link #downloadFromStream(int)} to work out the hash.
+     */
+    protected boolean isHashing() {
+        return digest != null;
+    }
+
+    /**
+     * Whether {@link #download()} can be called again after it has been interrupted, which is
+     * what {@link DownloadQueue#pause()} relies on. If {@link #setResumable(boolean) resumable},
+     * it carries on from where it got to.
+     */
+    boolean canDownloadAgain() {
+        return true;
+    }
+
     public abstract boolean hasChanged();
 
     public abstract int totalDownloadSize();
@@ -104,9 +214,13 @@ public abstract class Downloader {
 
     public abstract boolean isCached();
 
+    /**
+     * @param bufferSize How big a buffer to start with, which then grows with the throughput.
+     */
     protected void downloadFromStream(int bufferSize) throws IOException, InterruptedException {
         Utils.debugLog(TAG, "Downloading from stream");
         InputStream input = null;
+        RandomAccessFile output = null;
         try {
             input = getInputStream();
 
@@ -114,9 +228,21 @@ public abstract class Downloader {
             // we were interrupted before proceeding to the download.
             throwExceptionIfInterrupted();
 
-            copyInputToOutputStream(input, bufferSize);
+            hash = null;
+            if (digest != null) {
+                digest.reset();
+                if (resumeFrom > 0) {
+                    digestExistingPart();
+                }
+            }
+
+            // Not opened any earlier, so that the part of the file downloaded last time is
+            // still there if it turns out it can be resumed. Anything after that part goes.
+            output = new RandomAccessFile(outputFile, "rw");
+            output.setLength(resumeFrom);
+            copyInputToFile(input, output, bufferSize);
         } finally {
-            Utils.closeQuietly(outputStream);
+            Utils.closeQuietly(output);
             Utils.closeQuietly(input);
         }
 
@@ -137,7 +263,7 @@ public abstract class Downloader {
      * download.
      * @throws InterruptedException
      */
-    private void throwExceptionIfInterrupted() throws InterruptedException {
+    protected void throwExceptionIfInterrupted() throws InterruptedException {
         if (Thread.interrupted()) {
             Utils.debugLog(TAG, "Received interrupt, cancelling download");
             throw new InterruptedException();
@@ -145,49 +271,175 @@ public abstract class Downloader {
     }
 
     /**
-     * This copies the downloaded data from the InputStream to the OutputStream,
-     * keeping track of the number of bytes that have flowed through for the
-     * progress counter.
+     * This copies the downloaded data from the InputStream to the file, keeping track of the
+     * number of bytes that have flowed through for the progress counter. The data is read
+     * straight into the array behind the buffer which is then written to the file's channel,
+     * so it isn't copied again on the way through, and there is no need for the input stream
+     * to be buffered as well.
      */
-    protected void copyInputToOutputStream(InputStream input, int bufferSize) throws IOException, InterruptedException {
+    private void copyInputToFile(InputStream input, RandomAccessFile file, int bufferSize) throws IOException, InterruptedException {
 
-        int bytesRead = 0;
+        int bytesRead = (int) resumeFrom;
         this.totalBytes = totalDownloadSize();
-        byte[] buffer = new byte[bufferSize];
+        ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
 
         // Getting the total download size could potentially take time, depending on how
         // it is implemented, so we may as well check this before we proceed.
         throwExceptionIfInterrupted();
 
+        final FileChannel output = file.getChannel();
+        final boolean preallocated = preallocate(file, resumeFrom, totalBytes);
+        output.position(resumeFrom);
+        long recordedLength = resumeFrom;
+
+        long sampleStartedAt = SystemClock.elapsedRealtime();
+        int sampleBytes = 0;
+
         sendProgress(bytesRead, totalBytes);
-        while (true) {
+        try {
+            while (true) {
+
+                int count = input.read(buffer.array(), 0, buffer.capacity());
+
+                throwExceptionIfInterrupted();
+
+                if (count == -1) {
+                    Utils.debugLog(TAG, "Finished downloading from stream");
+                    break;
+                }
+
+                buffer.limit(count);
+                while (buffer.hasRemaining()) {
+                    output.write(buffer);
+                }
+                buffer.clear();
+                if (digest != null) {
+                    digest.update(buffer.array(), 0, count);
+                }
+
+                bytesRead += count;
+                sendProgress(bytesRead, totalBytes);
+
+                if (resumable && bytesRead - recordedLength >= PartialDownload.LENGTH_STEP) {
+                    PartialDownload.setLength(outputFile, bytesRead);
+                    recordedLength = bytesRead;
+                }
+
+                sampleBytes += count;
+                final long elapsed = SystemClock.elapsedRealtime() - sampleStartedAt;
+                if (elapsed >= THROUGHPUT_SAMPLE_MS) {
+                    buffer = resize(buffer, sampleBytes * TARGET_READ_MS / elapsed);
+                    sampleStartedAt += elapsed;
+                    sampleBytes = 0;
+                }
 
-            int count;
-            if (input.available() > 0) {
-                int readLength = Math.min(input.available(), buffer.length);
-                count = input.read(buffer, 0, readLength);
-            } else {
-                count = input.read(buffer);
             }
+        } catch (ClosedByInterruptException e) {
+            // Cancelled in the middle of a write, which closes the channel.
+            throw new InterruptedException();
+        } finally {
+            if (preallocated) {
+                trim(file, bytesRead);
+            }
+            if (resumable) {
+                PartialDownload.setLength(outputFile, bytesRead);
+            }
+        }
 
-            throwExceptionIfInterrupted();
+        if (digest != null) {
+            hash = Hasher.hex(digest.digest());
+        }
+    }
 
-            if (count == -1) {
-                Utils.debugLog(TAG, "Finished downloading from stream");
-                break;
-            }
+    /**
+     * @return A buffer big enough for {@code wanted} bytes (rounded up to a power of two),
+     * or the same one if it already is, or it is as big as it is allowed to get.
+     */
+    private static ByteBuffer resize(ByteBuffer buffer, long wanted) {
+        int size = buffer.capacity();
+        while (size < wanted && size < MAX_BUFFER_SIZE) {
+            size = Math.min(size * 2, MAX_BUFFER_SIZE);
+        }
+        return size == buffer.capacity() ? buffer : ByteBuffer.allocate(size);
+    }
+
+    /**
+     * Reserves the space for the whole download up front, so that running out of it fails
+     * straight away instead of part way through, and the file isn't left in fragments.
+     * Only possible from Lollipop, older devices just grow the file as it is written to.
+     * Should F-Droid get killed part way through, the file is left at its full length, which
+     * is why a resumable download records how much of it was actually downloaded as it goes,
+     * see {@link PartialDownload#setLength(File, long)}.
+     * @return Whether the file is now {@code length} bytes long, and needs to be {@link #trim}med
+     * afterwards if less than that gets downloaded.
+     */
+    private boolean preallocate(RandomAccessFile file, long from, long length) throws IOException {
+        if (length <= from) {
+            return false;
+        }
+        return FileCompat.fallocate(file.getFD(), from, length - from);
+    }
 
-            bytesRead += count;
-            sendProgress(bytesRead, totalBytes);
-            outputStream.write(buffer, 0, count);
+    /**
+     * Cuts the file back to what was actually downloaded, after it was {@link #preallocate}d.
+     * The file is opened again if need be, because cancelling a download part way through a
+     * write closes the file's channel.
+     */
+    private void trim(RandomAccessFile file, long length) {
+        RandomAccessFile reopened = null;
+        try {
+            if (file.getChannel().isOpen()) {
+                file.setLength(length);
+            } else {
+                reopened = new RandomAccessFile(outputFile, "rw");
+                reopened.setLength(length);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't trim " + outputFile + " to the " + length + " bytes downloaded");
+        } finally {
+            Utils.closeQuietly(reopened);
+        }
+    }
 
+    /**
+     * When resuming, the part downloaded last time is the one bit of the file which has to
+     * be read back to work out the hash.
+     */
+    private void digestExistingPart() throws IOException {
+        final byte[] buffer = new byte[8192];
+        long remaining = resumeFrom;
+        InputStream input = null;
+        try {
+            input = new FileInputStream(outputFile);
+            while (remaining > 0) {
+                final int count = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (count == -1) {
+                    throw new IOException(outputFile + " is shorter than the " + resumeFrom + " bytes being resumed from");
+                }
+                digest.update(buffer, 0, count);
+                remaining -= count;
+            }
+        } finally {
+            Utils.closeQuietly(input);
         }
-        outputStream.flush();
-        outputStream.close();
     }
 
+    /**
+     * Called as often as there is progress, it is up to the {@link ProgressThrottle} how much
+     * of it gets reported.
+     */
     protected void sendProgress(int bytesRead, int totalBytes) {
         this.bytesRead = bytesRead;
+        if (!progressThrottle.shouldReport(bytesRead, totalBytes)) {
+            return;
+        }
+
+        final OnProgressListener listener = onProgressListener;
+        if (listener != null) {
+            listener.onProgress(sourceUrl, bytesRead, totalBytes);
+            return;
+        }
+
         Intent intent = new Intent(LOCAL_ACTION_PROGRESS);
         intent.putExtra(EXTRA_ADDRESS, sourceUrl.toString());
         intent.putExtra(EXTRA_BYTES_READ, bytesRead);
@@ -76,6 +76,10 @@ public class DownloaderFactory {
         return createAsync(context, new URL(urlString), destFile, title, id, credentials, listener);
     }
 
+    /**
+     * The download doesn't start until {@link AsyncDownloader#download()}, and even then it
+     * may have to wait for its turn in the {@link DownloadQueue}.
+     */
     public static AsyncDownloader createAsync(Context context, URL url, File destFile, String title, String id, Credentials credentials, AsyncDownloader.Listener listener)
             throws IOException {
         // To re-enable, fix the following:
@@ -86,7 +90,12 @@ public class DownloaderFactory {
             return new AsyncDownloaderFromAndroid(context, listener, title, id, url.toString(), destFile);
         }
         Utils.debugLog(TAG, "Using AsyncDownloadWrapper");
-        return new AsyncDownloadWrapper(create(context, url, destFile, credentials), listener);
+        Downloader downloader = create(context, url, destFile, credentials);
+
+        // Only apks are downloaded asynchronously, and they are big enough that having to
+        // start again after a failed or cancelled download is a real waste.
+        downloader.setResumable(true);
+        return new AsyncDownloadWrapper(downloader, listener);
     }
 
     static boolean isOnionAddress(URL url) {
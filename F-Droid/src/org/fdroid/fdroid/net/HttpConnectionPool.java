@@ -0,0 +1,202 @@
+package org.fdroid.fdroid.net;
+
+import org.fdroid.fdroid.Utils;
+
+import java.io.InterruptedIOException;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Repo indexes, icons and apks nearly always come from the same few hosts, so rather than
+ * paying for a new TCP (and usually TLS) handshake for each file, connections are kept alive
+ * and reused by the pool inside {@link java.net.HttpURLConnection}. That only works if the
+ * connection is never {@link java.net.HttpURLConnection#disconnect()}ed, and the response is
+ * read to the end before the stream is closed, which {@link HttpDownloader} takes care of.
+ *
+ * This class sizes the underlying pool, limits the number of connections open to each host
+ * at once (so that a screen full of icons doesn't open dozens of sockets to the same
+ * server), and keeps track of how often a request could have been sent over an idle
+ * connection. {@link java.net.HttpURLConnection} doesn't say whether it actually reused one,
+ * so this is worked out the same way the pool itself does it: a connection released cleanly
+ * less than {@link #KEEP_ALIVE_MS} ago to the same host, through the same proxy.
+ */
+public final class HttpConnectionPool {
+
+    private static final String TAG = "HttpConnectionPool";
+
+    /**
+     * Also used as the number of idle connections the underlying pool keeps, which isn't per
+     * host, but there are rarely more than one or two hosts in use at once.
+     */
+    static final int MAX_CONNECTIONS_PER_HOST = 6;
+
+    static final long KEEP_ALIVE_MS = 5 * 60 * 1000;
+
+    /**
+     * A request which had to wait this long for another to finish gets sent anyway, in case
+     * whoever is holding on to the connection forgot to close it.
+     */
+    private static final long MAX_WAIT_MS = 30 * 1000;
+
+    private static final Map<String, Host> HOSTS = new HashMap<>();
+
+    private static long requests;
+    private static long reused;
+    private static long waited;
+
+    private HttpConnectionPool() { }
+
+    /**
+     * Sizes the pool inside {@link java.net.HttpURLConnection}, which reads these properties
+     * when it is first used, so this has to be called before any connection is opened.
+     */
+    public static void setup() {
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", Integer.toString(MAX_CONNECTIONS_PER_HOST));
+        System.setProperty("http.keepAliveDuration", Long.toString(KEEP_ALIVE_MS));
+    }
+
+    /**
+     * Connections can only be reused for requests to the same scheme, host and port, through
+     * the same proxy, see {@link #key(URL, Proxy)}.
+     */
+    private static final class Host {
+        final Semaphore permits = new Semaphore(MAX_CONNECTIONS_PER_HOST, true);
+        /**
+         * Oldest first. Not a {@link java.util.Deque}, which needs API 9.
+         */
+        final LinkedList<Long> idleSince = new LinkedList<>();
+    }
+
+    /**
+     * A request's place in the pool, from {@link #acquire(URL, Proxy)} until it is given back
+     * with {@link #release(Route, boolean)}.
+     */
+    static final class Route {
+        private final String key;
+        private final boolean hasPermit;
+        private boolean released;
+
+        private Route(String key, boolean hasPermit) {
+            this.key = key;
+            this.hasPermit = hasPermit;
+        }
+    }
+
+    private static String key(URL url, Proxy proxy) {
+        final int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        return url.getProtocol() + "://" + url.getHost() + ":" + port + " via " + (proxy == null ? "default" : proxy.toString());
+    }
+
+    private static synchronized Host host(String key) {
+        Host host = HOSTS.get(key);
+        if (host == null) {
+            host = new Host();
+            HOSTS.put(key, host);
+        }
+        return host;
+    }
+
+    /**
+     * Waits until fewer than {@link #MAX_CONNECTIONS_PER_HOST} connections are open to the
+     * host of {@code url}. Must be followed by {@link #release(Route, boolean)}, no matter
+     * what happens to the request.
+     * @param proxy The proxy the connection will be opened through, or null for the default.
+     */
+    static Route acquire(URL url, Proxy proxy) throws InterruptedIOException {
+        final String key = key(url, proxy);
+        final Host host = host(key);
+
+        boolean hasPermit = host.permits.tryAcquire();
+        if (!hasPermit) {
+            synchronized (HttpConnectionPool.class) {
+                waited++;
+            }
+            try {
+                hasPermit = host.permits.tryAcquire(MAX_WAIT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a connection to " + url.getHost());
+            }
+            if (!hasPermit) {
+                Utils.debugLog(TAG, "Gave up waiting for a connection to " + key + ", opening another one");
+            }
+        }
+
+        synchronized (HttpConnectionPool.class) {
+            requests++;
+            final long now = System.currentTimeMillis();
+            while (!host.idleSince.isEmpty() && now - host.idleSince.getFirst() > KEEP_ALIVE_MS) {
+                host.idleSince.removeFirst();
+            }
+            if (!host.idleSince.isEmpty()) {
+                host.idleSince.removeLast();
+                reused++;
+            }
+        }
+
+        return new Route(key, hasPermit);
+    }
+
+    /**
+     * @param reusable Whether the response was read to the end without the connection being
+     * disconnected, and hence whether the connection went back into the pool.
+     */
+    static void release(Route route, boolean reusable) {
+        synchronized (HttpConnectionPool.class) {
+            if (route.released) {
+                return;
+            }
+            route.released = true;
+
+            if (reusable) {
+                final LinkedList<Long> idleSince = host(route.key).idleSince;
+                idleSince.addLast(System.currentTimeMillis());
+                while (idleSince.size() > MAX_CONNECTIONS_PER_HOST) {
+                    idleSince.removeFirst();
+                }
+            }
+        }
+
+        if (route.hasPermit) {
+            host(route.key).permits.release();
+        }
+    }
+
+    /**
+     * @return How many more connections can be opened to the host of {@code url} without
+     * having to wait for one of the others to be released.
+     */
+    static int getAvailableConnections(URL url, Proxy proxy) {
+        return host(key(url, proxy)).permits.availablePermits();
+    }
+
+    public static synchronized long getRequestCount() {
+        return requests;
+    }
+
+    public static synchronized long getReusedCount() {
+        return reused;
+    }
+
+    /**
+     * @return The number of requests which had to wait for another request to the same host
+     * to finish first.
+     */
+    public static synchronized long getWaitedCount() {
+        return waited;
+    }
+
+    /**
+     * @return The proportion of requests which had an idle connection available to them, from
+     * 0 to 1.
+     */
+    public static synchronized float getHitRate() {
+        return requests == 0 ? 0 : (float) reused / requests;
+    }
+}
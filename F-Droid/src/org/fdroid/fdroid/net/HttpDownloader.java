@@ -1,6 +1,7 @@
 package org.fdroid.fdroid.net;
 
 import android.content.Context;
+import android.support.annotation.NonNull;
 import android.util.Log;
 import com.nostra13.universalimageloader.core.download.BaseImageDownloader;
 
@@ -8,9 +9,9 @@ import org.fdroid.fdroid.FDroidApp;
 import org.fdroid.fdroid.Preferences;
 import org.fdroid.fdroid.Utils;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
@@ -20,6 +21,7 @@ import java.net.Proxy;
 import java.net.SocketAddress;
 import java.net.URL;
 
+import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLHandshakeException;
 import org.fdroid.fdroid.data.Credentials;
 
@@ -28,11 +30,29 @@ public class HttpDownloader extends Downloader {
 
     protected static final String HEADER_IF_NONE_MATCH = "If-None-Match";
     protected static final String HEADER_FIELD_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    static final String HEADER_RANGE = "Range";
+    static final String HEADER_IF_RANGE = "If-Range";
+    static final String HEADER_CONTENT_RANGE = "Content-Range";
+    private static final String HEADER_ACCEPT_RANGES = "Accept-Ranges";
+
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    /**
+     * Anything left of a response which somebody stopped reading early (e.g. because it was an
+     * icon, and the image decoder had all it needed) will be read and thrown away if there is
+     * no more than this, so that the connection can still be reused.
+     */
+    private static final int MAX_BYTES_TO_DISCARD = 64 * 1024;
 
     protected HttpURLConnection connection;
     private Credentials credentials;
     private int statusCode  = -1;
 
+    private Proxy proxy;
+    private HttpConnectionPool.Route route;
+    private ResponseStream response;
+
     HttpDownloader(Context context, URL url, File destFile)
             throws FileNotFoundException, MalformedURLException {
         this(context, url, destFile, null);
@@ -56,7 +76,18 @@ public class HttpDownloader extends Downloader {
     @Override
     protected InputStream getDownloadersInputStream() throws IOException {
         setupConnection();
-        return new BufferedInputStream(connection.getInputStream());
+        try {
+            response = new ResponseStream(connection.getInputStream());
+        } catch (IOException e) {
+            // Nobody will be given a stream to close, so this has to give up the connection
+            // (and its place in the pool) itself.
+            connection.disconnect();
+            HttpConnectionPool.release(route, false);
+            route = null;
+            connection = null;
+            throw e;
+        }
+        return response;
     }
 
     // Get a remote file. Returns the HTTP response code.
@@ -77,6 +108,9 @@ public class HttpDownloader extends Downloader {
                             "connection. If this problem persists, AND you have a " +
                             "very old device, you could try using http instead of " +
                             "https for the repo URL." + Log.getStackTraceString(e));
+        } finally {
+            // Already done if the response was read, but not for a 304 or a failed request.
+            close();
         }
     }
 
@@ -94,16 +128,62 @@ public class HttpDownloader extends Downloader {
         if (prefs.isProxyEnabled() && !isSwapUrl()) {
             SocketAddress sa = new InetSocketAddress(prefs.getProxyHost(), prefs.getProxyPort());
             Proxy proxy = new Proxy(Proxy.Type.HTTP, sa);
-            connection = (HttpURLConnection) sourceUrl.openConnection(proxy);
+            openConnection(proxy);
         } else {
 
-            connection = (HttpURLConnection) sourceUrl.openConnection();
+            openConnection(null);
             if (credentials != null) {
                 credentials.authenticate((HttpURLConnection) connection);
             }
         }
     }
 
+    /**
+     * Waits for a turn to connect to the host (see {@link HttpConnectionPool}), then opens
+     * the connection, which may well reuse one left over from an earlier download. If not,
+     * it will at least try to resume the TLS session of an earlier one (see {@link TlsSessions}).
+     * @param proxy The proxy to connect through, or null for the system default.
+     */
+    protected final void openConnection(Proxy proxy) throws IOException {
+        this.proxy = proxy;
+        route = acquireRoute();
+        try {
+            connection = open(sourceUrl, proxy);
+        } catch (IOException e) {
+            HttpConnectionPool.release(route, false);
+            route = null;
+            throw e;
+        }
+    }
+
+    private static HttpURLConnection open(URL url, Proxy proxy) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) (proxy == null ? url.openConnection() : url.openConnection(proxy));
+        if (connection instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) connection).setSSLSocketFactory(TlsSessions.getSocketFactory());
+        }
+        return connection;
+    }
+
+    /**
+     * For a connection to the same host as {@link #connection}, through the same proxy.
+     */
+    HttpConnectionPool.Route acquireRoute() throws IOException {
+        return HttpConnectionPool.acquire(sourceUrl, proxy);
+    }
+
+    /**
+     * Opens another connection to {@link #sourceUrl}, set up the same way as {@link #connection}
+     * was by {@link #setupConnection()}. Used by {@link SegmentedDownload} to download more than
+     * one part of the file at once.
+     */
+    HttpURLConnection openAnotherConnection() throws IOException {
+        final HttpURLConnection another = open(sourceUrl, proxy);
+        if (proxy == null && credentials != null) {
+            credentials.authenticate(another);
+        }
+        return another;
+    }
+
     protected void doDownload() throws IOException, InterruptedException {
         if (wantToCheckCache()) {
             setupCacheCheck();
@@ -114,12 +194,95 @@ public class HttpDownloader extends Downloader {
         if (isCached()) {
             Utils.debugLog(TAG, sourceUrl + " is cached, so not downloading (HTTP " + statusCode + ")");
         } else {
+            if (resumable) {
+                prepareToResume();
+            }
             Utils.debugLog(TAG, "Downloading from " + sourceUrl);
-            downloadFromStream(4096);
-            updateCacheCheck();
+            if (canDownloadInSegments()) {
+                updateCacheCheck();
+                downloadInSegments();
+            } else {
+                downloadFromStream(4096);
+                updateCacheCheck();
+            }
+            if (resumable) {
+                PartialDownload.forget(getFile());
+            }
         }
     }
 
+    /**
+     * If an earlier attempt left part of the file behind, only asks for the rest of it. The
+     * If-Range header means that if the file on the server has changed since, the whole of
+     * the new one is sent instead. Either way, what is needed to resume this download is
+     * recorded before any of it is written, in case this attempt doesn't finish either.
+     */
+    private void prepareToResume() throws IOException {
+        final PartialDownload partial = PartialDownload.find(getFile(), sourceUrl);
+        if (partial != null) {
+            connection.setRequestProperty(HEADER_RANGE, "bytes=" + partial.getLength() + "-");
+            connection.setRequestProperty(HEADER_IF_RANGE, partial.getValidator());
+        }
+
+        statusCode = connection.getResponseCode();
+        if (partial != null && statusCode == HttpURLConnection.HTTP_PARTIAL
+                && partial.isContinuedBy(connection.getHeaderField(HEADER_CONTENT_RANGE))) {
+            resumeFrom = partial.getLength();
+            Utils.debugLog(TAG, "Resuming " + sourceUrl + " from byte " + resumeFrom);
+        } else if (partial != null && statusCode == HTTP_RANGE_NOT_SATISFIABLE) {
+            // Whatever is in the file can't be part of what is on the server now.
+            Utils.debugLog(TAG, "Can't resume " + sourceUrl + ", downloading it again");
+            PartialDownload.forget(getFile());
+            close();
+            statusCode = -1;
+            setupConnection();
+            prepareToResume();
+            return;
+        } else {
+            resumeFrom = 0;
+        }
+
+        PartialDownload.remember(getFile(), sourceUrl,
+                connection.getHeaderField(HEADER_FIELD_ETAG),
+                connection.getHeaderField(HEADER_LAST_MODIFIED),
+                resumeFrom);
+    }
+
+    /**
+     * Only worth it for big files, which are only ever apks, and they are also the only
+     * downloads which are {@link #resumable}. Every part is requested with the same If-Range
+     * validator used for resuming, so that they all come from the same version of the file.
+     * Swap repos are on the local network, where a single connection is already quick.
+     */
+    private boolean canDownloadInSegments() {
+        return resumable
+                && statusCode == HttpURLConnection.HTTP_OK
+                && "bytes".equalsIgnoreCase(connection.getHeaderField(HEADER_ACCEPT_RANGES))
+                && SegmentedDownload.isWorthwhile(connection.getContentLength())
+                && PartialDownload.validatorFor(connection.getHeaderField(HEADER_FIELD_ETAG),
+                        connection.getHeaderField(HEADER_LAST_MODIFIED)) != null
+                && !isSwapUrl();
+    }
+
+    /**
+     * Nothing is read from the response to the original request, it only needed its headers.
+     * Its connection is given up rather than reused, because what is left of the response
+     * is the entire file.
+     */
+    private void downloadInSegments() throws IOException, InterruptedException {
+        final long length = connection.getContentLength();
+        final String validator = PartialDownload.validatorFor(connection.getHeaderField(HEADER_FIELD_ETAG),
+                connection.getHeaderField(HEADER_LAST_MODIFIED));
+        totalBytes = (int) length;
+        close();
+
+        // Some may be in use by another download from the same host, or by icons.
+        final int available = HttpConnectionPool.getAvailableConnections(sourceUrl, proxy);
+        final SegmentedDownload download = new SegmentedDownload(this, length, validator, available);
+        Utils.debugLog(TAG, "Downloading " + sourceUrl + " in " + download.getSegmentCount() + " segments");
+        download.download();
+    }
+
     @Override
     public boolean isCached() {
         return wantToCheckCache() && statusCode == 304;
@@ -145,7 +308,8 @@ public class HttpDownloader extends Downloader {
     // become more worth it.
     @Override
     public int totalDownloadSize() {
-        return connection.getContentLength();
+        final int length = connection.getContentLength();
+        return length < 0 ? length : (int) (resumeFrom + length);
     }
 
     @Override
@@ -153,8 +317,73 @@ public class HttpDownloader extends Downloader {
         return this.statusCode != 304;
     }
 
+    /**
+     * Gives the connection back to the pool if the response was read to the end (or never had
+     * a body), otherwise disconnects it. Safe to call more than once, and {@link #download()}
+     * can be called again afterwards, e.g. when the {@link DownloadQueue} is resumed.
+     */
     @Override
     public void close() {
-        connection.disconnect();
+        if (route == null) {
+            return;
+        }
+
+        final boolean reusable = response == null ? statusCode == 304 : response.reachedEnd;
+        if (!reusable) {
+            connection.disconnect();
+        }
+        HttpConnectionPool.release(route, reusable);
+        route = null;
+        connection = null;
+    }
+
+    /**
+     * Keeps track of whether the response was read to the end, which is what decides whether
+     * its connection can be reused.
+     */
+    private static final class ResponseStream extends FilterInputStream {
+
+        private boolean reachedEnd;
+
+        ResponseStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int value = super.read();
+            reachedEnd |= value == -1;
+            return value;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int count) throws IOException {
+            final int read = super.read(buffer, offset, count);
+            reachedEnd |= read == -1;
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!reachedEnd && !Thread.currentThread().isInterrupted()) {
+                discardRemaining();
+            }
+            super.close();
+        }
+
+        private void discardRemaining() {
+            final byte[] buffer = new byte[4096];
+            int discarded = 0;
+            try {
+                while (!reachedEnd && discarded < MAX_BYTES_TO_DISCARD) {
+                    final int read = read(buffer, 0, buffer.length);
+                    if (read > 0) {
+                        discarded += read;
+                    }
+                }
+            } catch (IOException e) {
+                // The connection will be disconnected instead of reused, nothing else to do.
+            }
+        }
     }
 }
\ No newline at end of file
@@ -4,6 +4,7 @@ import android.content.Context;
 
 import com.nostra13.universalimageloader.core.download.ImageDownloader;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -17,7 +18,8 @@ public class IconDownloader implements ImageDownloader {
 
     @Override
     public InputStream getStream(String imageUri, Object extra) throws IOException {
-        return DownloaderFactory.create(context, imageUri).getInputStream();
+        // The image decoder needs to be able to go back to the start after reading the header.
+        return new BufferedInputStream(DownloaderFactory.create(context, imageUri).getInputStream());
     }
 
 }
@@ -2,16 +2,27 @@ package org.fdroid.fdroid.net;
 
 import android.content.Context;
 
+import org.fdroid.fdroid.Utils;
+
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
 
 public class LocalFileDownloader extends Downloader {
 
+    /**
+     * Copied this much at a time, so that there is some progress to show, and a chance to
+     * notice that the download was cancelled.
+     */
+    private static final long TRANSFER_SIZE = 1024 * 1024;
+
     LocalFileDownloader(Context context, URL url, File destFile) throws FileNotFoundException, MalformedURLException {
         super(context, url, destFile);
     }
@@ -37,12 +48,51 @@ public class LocalFileDownloader extends Downloader {
 
     @Override
     public int totalDownloadSize() {
-        return 0;
+        return (int) getFileToDownload().length();
     }
 
+    /**
+     * Unless the hash is needed, in which case every byte has to be read anyway, the file
+     * is copied from one channel to the other without passing through F-Droid at all.
+     */
     @Override
     public void download() throws IOException, InterruptedException {
-        downloadFromStream(1024 * 50);
+        if (isHashing()) {
+            downloadFromStream(1024 * 50);
+        } else {
+            transferFile();
+        }
+    }
+
+    private void transferFile() throws IOException, InterruptedException {
+        FileInputStream input = null;
+        FileOutputStream output = null;
+        try {
+            input = new FileInputStream(getFileToDownload());
+            output = new FileOutputStream(getFile());
+            final FileChannel source = input.getChannel();
+            final FileChannel destination = output.getChannel();
+
+            final long size = source.size();
+            totalBytes = (int) size;
+            sendProgress(0, totalBytes);
+
+            long position = 0;
+            while (position < size) {
+                final long transferred = source.transferTo(position, Math.min(TRANSFER_SIZE, size - position), destination);
+                if (transferred <= 0) {
+                    throw new IOException("Couldn't copy " + getFileToDownload() + " past byte " + position);
+                }
+                position += transferred;
+                sendProgress((int) position, totalBytes);
+                throwExceptionIfInterrupted();
+            }
+        } catch (ClosedByInterruptException e) {
+            throw new InterruptedException();
+        } finally {
+            Utils.closeQuietly(output);
+            Utils.closeQuietly(input);
+        }
     }
 
     @Override
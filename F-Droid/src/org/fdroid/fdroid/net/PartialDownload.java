@@ -0,0 +1,251 @@
+package org.fdroid.fdroid.net;
+
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.fdroid.fdroid.Utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Properties;
+
+/**
+ * What is needed to carry on with a download which didn't finish, rather than starting it
+ * again from scratch: where it came from, a validator (the ETag, or failing that the
+ * Last-Modified date) to make sure the file on the server is still the same one, and how
+ * many bytes from the start have been downloaded. That can't be taken from the length of the
+ * file, which is allocated at its full size before any of it is downloaded where possible,
+ * so it is recorded every {@link #LENGTH_STEP} bytes or so while downloading.
+ *
+ * These are stored in a file next to the one being downloaded (with {@link #SUFFIX} on the
+ * end), so that they survive F-Droid being restarted. The file is removed again once the
+ * download has completed, so a download only gets resumed if this exists.
+ */
+public final class PartialDownload {
+
+    private static final String TAG = "PartialDownload";
+
+    static final String SUFFIX = ".resume";
+
+    /**
+     * Anything which hasn't been resumed in this long probably never will be.
+     */
+    private static final long MAX_AGE_MS = 7 * 24 * 60 * 60 * 1000L;
+
+    /**
+     * How far a download gets before it records how far it has got again, see
+     * {@link #setLength(File, long)}. Any more than that has to be downloaded again if
+     * F-Droid is killed.
+     */
+    static final long LENGTH_STEP = 1024 * 1024;
+
+    private static final String KEY_URL = "url";
+    private static final String KEY_VALIDATOR = "validator";
+    private static final String KEY_LENGTH = "length";
+
+    private final long length;
+    private final String validator;
+
+    private PartialDownload(long length, String validator) {
+        this.length = length;
+        this.validator = validator;
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    /**
+     * Suitable for an If-Range header, so that the server sends the whole file again if it
+     * has changed in the mean time.
+     */
+    String getValidator() {
+        return validator;
+    }
+
+    /**
+     * @param contentRange The Content-Range header of a 206 response, e.g. "bytes 1000-1999/2000".
+     * @return Whether the response carries on exactly where the file stops.
+     */
+    boolean isContinuedBy(@Nullable String contentRange) {
+        return contentRange != null && contentRange.trim().startsWith("bytes " + length + "-");
+    }
+
+    private static File infoFile(File file) {
+        return new File(file.getPath() + SUFFIX);
+    }
+
+    /**
+     * @return The part of {@code file} already downloaded from {@code url}, or null if there
+     * isn't any, or it was downloaded from somewhere else.
+     */
+    @Nullable
+    static PartialDownload find(File file, URL url) {
+        final File info = infoFile(file);
+        if (!info.exists() || !file.exists() || file.length() == 0) {
+            return null;
+        }
+
+        final Properties properties = load(info);
+        if (properties == null) {
+            Log.w(TAG, "Couldn't read " + info + ", will download " + file + " again from the start");
+            return null;
+        }
+
+        final String validator = properties.getProperty(KEY_VALIDATOR);
+        if (!url.toString().equals(properties.getProperty(KEY_URL)) || TextUtils.isEmpty(validator)) {
+            return null;
+        }
+
+        // The file is only ever shorter if something else has truncated it since.
+        final long length = Math.min(parseLength(properties.getProperty(KEY_LENGTH)), file.length());
+        if (length <= 0) {
+            return null;
+        }
+        return new PartialDownload(length, validator);
+    }
+
+    private static long parseLength(@Nullable String length) {
+        try {
+            return length == null ? 0 : Long.parseLong(length);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Records where {@code file} is being downloaded from, just before the download starts,
+     * so that it can be resumed if it doesn't finish. Without a strong ETag or a Last-Modified
+     * date there is no way to tell whether the file changed in between, so such downloads
+     * always start from scratch.
+     * @param length How much of the file is already there, i.e. what the download resumes from.
+     */
+    static void remember(File file, URL url, @Nullable String etag, @Nullable String lastModified, long length) {
+        final String validator = validatorFor(etag, lastModified);
+        if (validator == null) {
+            forget(file);
+            return;
+        }
+
+        final Properties properties = new Properties();
+        properties.setProperty(KEY_URL, url.toString());
+        properties.setProperty(KEY_VALIDATOR, validator);
+        properties.setProperty(KEY_LENGTH, Long.toString(length));
+        if (!store(infoFile(file), properties)) {
+            Log.w(TAG, "Couldn't save " + infoFile(file) + ", " + file + " won't be resumable");
+        }
+    }
+
+    /**
+     * Records that the first {@code length} bytes of {@code file} have been written, if it
+     * is being downloaded by something which {@link #remember}ed it.
+     */
+    static void setLength(File file, long length) {
+        final File info = infoFile(file);
+        if (!info.exists()) {
+            return;
+        }
+
+        final Properties properties = load(info);
+        if (properties == null) {
+            return;
+        }
+        properties.setProperty(KEY_LENGTH, Long.toString(length));
+        if (!store(info, properties)) {
+            Log.w(TAG, "Couldn't save " + info + ", " + file + " will be resumed from further back");
+        }
+    }
+
+    @Nullable
+    private static Properties load(File info) {
+        final Properties properties = new Properties();
+        InputStream input = null;
+        try {
+            input = new FileInputStream(info);
+            properties.load(input);
+            return properties;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            Utils.closeQuietly(input);
+        }
+    }
+
+    private static boolean store(File info, Properties properties) {
+        OutputStream output = null;
+        try {
+            output = new FileOutputStream(info);
+            properties.store(output, null);
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            Utils.closeQuietly(output);
+        }
+    }
+
+    /**
+     * @return Something to put in an If-Range header, to make sure that part of a file comes
+     * from the same version of it as the response these headers were in, or null if there isn't
+     * anything suitable. Weak ETags aren't allowed in an If-Range header.
+     */
+    @Nullable
+    static String validatorFor(@Nullable String etag, @Nullable String lastModified) {
+        if (!TextUtils.isEmpty(etag) && !etag.startsWith("W/")) {
+            return etag;
+        } else if (!TextUtils.isEmpty(lastModified)) {
+            return lastModified;
+        }
+        return null;
+    }
+
+    static boolean exists(File file) {
+        return infoFile(file).exists();
+    }
+
+    /**
+     * Call once {@code file} is complete, or has been deleted.
+     */
+    static void forget(File file) {
+        final File info = infoFile(file);
+        if (info.exists() && !info.delete()) {
+            Log.w(TAG, "Couldn't delete " + info);
+        }
+    }
+
+    /**
+     * Deletes every file in {@code directory} ending with {@code extension}, apart from
+     * those which were partially downloaded recently enough to be worth resuming.
+     */
+    public static void deleteAllExceptResumable(@Nullable File directory, String extension) {
+        final File[] files = directory == null ? null : directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        for (final File file : files) {
+            final String name = file.getName();
+            final boolean isInfo = name.endsWith(extension + SUFFIX);
+            if (!isInfo && !name.endsWith(extension)) {
+                continue;
+            }
+
+            final File info = isInfo ? file : infoFile(file);
+            final File download = isInfo ? new File(directory, name.substring(0, name.length() - SUFFIX.length())) : file;
+            final boolean keep = info.exists() && download.exists() && now - info.lastModified() < MAX_AGE_MS;
+            if (!keep) {
+                Utils.debugLog(TAG, "Deleting " + file);
+                if (!file.delete()) {
+                    Log.w(TAG, "Couldn't delete " + file);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package org.fdroid.fdroid.net;
+
+import org.fdroid.fdroid.Utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads a file over several connections at once, each asking for a different range of
+ * bytes. On a link with a lot of latency, a single connection often spends much of its time
+ * waiting for acknowledgements instead of receiving data, so a few of them side by side can
+ * be a lot quicker.
+ *
+ * The file is allocated at its full size up front, and each segment writes to its own part of
+ * it. A segment whose connection fails is requested again from where it stopped, a few times
+ * before giving up on the whole download. The progress of all segments is reported together,
+ * as if it was a single download. Nothing here checks that the file is the right one at the
+ * end, that is still done against {@link org.fdroid.fdroid.data.Apk#hash} by
+ * {@link ApkDownloader} as for any other download.
+ *
+ * If the download doesn't finish, the file is cut back to the part from the start which was
+ * downloaded without any gaps, so that {@link PartialDownload} can carry on from there. That
+ * part is also recorded as it grows, in case F-Droid is killed before the file can be cut back.
+ */
+final class SegmentedDownload {
+
+    private static final String TAG = "SegmentedDownload";
+
+    /**
+     * Anything smaller is downloaded over a single connection, because the extra requests
+     * would cost more time than they save.
+     */
+    private static final long MIN_LENGTH = 4 * 1024 * 1024;
+
+    static final long MIN_SEGMENT_LENGTH = 2 * 1024 * 1024;
+
+    /**
+     * As many as each of the downloads which the {@link DownloadQueue} runs from the same
+     * host at once can have, without any of their segments having to wait for a connection.
+     */
+    static final int MAX_SEGMENTS = HttpConnectionPool.MAX_CONNECTIONS_PER_HOST / DownloadQueue.MAX_RUNNING_PER_HOST;
+
+    private static final int MAX_ATTEMPTS_PER_SEGMENT = 3;
+
+    private static final long PROGRESS_INTERVAL_MS = 250;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final HttpDownloader downloader;
+    private final long length;
+    private final String validator;
+    private final Segment[] segments;
+
+    /**
+     * Shared by all of the segments. Only used while synchronized on this object, so that
+     * a seek and the write which follows it can't be separated.
+     */
+    private RandomAccessFile file;
+    private boolean stopped;
+
+    /**
+     * @param validator What to put in the If-Range header of each request, see
+     * {@link PartialDownload#validatorFor(String, String)}.
+     * @param availableConnections How many connections to the host are free, see
+     * {@link HttpConnectionPool#getAvailableConnections(java.net.URL, java.net.Proxy)}.
+     */
+    SegmentedDownload(HttpDownloader downloader, long length, String validator, int availableConnections) {
+        this.downloader = downloader;
+        this.length = length;
+        this.validator = validator;
+
+        final int count = getSegmentCount(length, availableConnections);
+        final long segmentLength = length / count;
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            final long first = i * segmentLength;
+            final long last = i == count - 1 ? length - 1 : first + segmentLength - 1;
+            segments[i] = new Segment(first, last);
+        }
+    }
+
+    static boolean isWorthwhile(long length) {
+        return length >= MIN_LENGTH;
+    }
+
+    int getSegmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * Always at least one, even if no connections are free, in which case it waits its turn.
+     */
+    static int getSegmentCount(long length, int availableConnections) {
+        final long count = Math.min(Math.min(MAX_SEGMENTS, availableConnections), length / MIN_SEGMENT_LENGTH);
+        return (int) Math.max(1, count);
+    }
+
+    void download() throws IOException, InterruptedException {
+        file = new RandomAccessFile(downloader.getFile(), "rw");
+        final ExecutorService executor = Executors.newFixedThreadPool(segments.length);
+        boolean complete = false;
+        long recordedLength = 0;
+        try {
+            file.setLength(length);
+
+            final CompletionService<Void> completion = new ExecutorCompletionService<>(executor);
+            for (final Segment segment : segments) {
+                completion.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException, InterruptedException {
+                        download(segment);
+                        return null;
+                    }
+                });
+            }
+
+            int finished = 0;
+            while (finished < segments.length) {
+                final Future<Void> done = completion.poll(PROGRESS_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (done != null) {
+                    finished++;
+                    try {
+                        done.get();
+                    } catch (ExecutionException e) {
+                        throw asIOException(e.getCause());
+                    }
+                }
+                downloader.sendProgress((int) getDownloaded(), (int) length);
+
+                final long downloadedFromStart = getDownloadedFromStart();
+                if (downloadedFromStart - recordedLength >= PartialDownload.LENGTH_STEP) {
+                    PartialDownload.setLength(downloader.getFile(), downloadedFromStart);
+                    recordedLength = downloadedFromStart;
+                }
+            }
+            complete = true;
+        } finally {
+            executor.shutdownNow();
+            stop(complete);
+        }
+
+        Utils.debugLog(TAG, "Finished downloading " + downloader.sourceUrl + " in " + segments.length + " segments");
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    private IOException asIOException(Throwable cause) {
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        // Only happens if it was stopped, which means something else already went wrong.
+        final IOException e = new IOException("Error downloading " + downloader.sourceUrl);
+        e.initCause(cause);
+        return e;
+    }
+
+    /**
+     * Tries again from where it stopped if the connection fails, unless the server sends
+     * something other than the part of the file that was asked for. That probably means
+     * the file has changed, so every other segment would be wrong too.
+     */
+    private void download(Segment segment) throws IOException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                downloadRestOf(segment);
+                return;
+            } catch (UnexpectedResponseException e) {
+                throw e;
+            } catch (IOException e) {
+                if (attempt == MAX_ATTEMPTS_PER_SEGMENT || isStopped()) {
+                    throw e;
+                }
+                Utils.debugLog(TAG, "Retrying " + segment + " of " + downloader.sourceUrl + " after: " + e.getMessage());
+            }
+        }
+    }
+
+    private void downloadRestOf(Segment segment) throws IOException, InterruptedException {
+        final long first = segment.first + getDownloaded(segment);
+        final HttpConnectionPool.Route route = downloader.acquireRoute();
+        HttpURLConnection connection = null;
+        InputStream input = null;
+        boolean reusable = false;
+        try {
+            connection = downloader.openAnotherConnection();
+            connection.setRequestProperty(HttpDownloader.HEADER_RANGE, "bytes=" + first + "-" + segment.last);
+            connection.setRequestProperty(HttpDownloader.HEADER_IF_RANGE, validator);
+
+            final String expectedRange = "bytes " + first + "-" + segment.last + "/";
+            final String contentRange = connection.getHeaderField(HttpDownloader.HEADER_CONTENT_RANGE);
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL
+                    || contentRange == null || !contentRange.trim().startsWith(expectedRange)) {
+                throw new UnexpectedResponseException("Asked for " + expectedRange + " of " + downloader.sourceUrl
+                        + ", got HTTP " + connection.getResponseCode() + " with " + contentRange);
+            }
+
+            input = connection.getInputStream();
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                write(segment, buffer, count);
+            }
+
+            if (getDownloaded(segment) < segment.getLength()) {
+                throw new IOException("Connection closed before the end of " + segment);
+            }
+            reusable = true;
+        } finally {
+            Utils.closeQuietly(input);
+            if (!reusable && connection != null) {
+                connection.disconnect();
+            }
+            HttpConnectionPool.release(route, reusable);
+        }
+    }
+
+    private synchronized void write(Segment segment, byte[] buffer, int count) throws IOException, InterruptedException {
+        if (stopped) {
+            throw new InterruptedException();
+        }
+        if (segment.downloaded + count > segment.getLength()) {
+            throw new UnexpectedResponseException("Received more than " + segment + " of " + downloader.sourceUrl);
+        }
+        file.seek(segment.first + segment.downloaded);
+        file.write(buffer, 0, count);
+        segment.downloaded += count;
+    }
+
+    private synchronized long getDownloaded(Segment segment) {
+        return segment.downloaded;
+    }
+
+    private synchronized long getDownloaded() {
+        long downloaded = 0;
+        for (final Segment segment : segments) {
+            downloaded += segment.downloaded;
+        }
+        return downloaded;
+    }
+
+    /**
+     * @return How much of the file from the start has been downloaded without any gaps.
+     */
+    private synchronized long getDownloadedFromStart() {
+        long downloadedFromStart = 0;
+        for (final Segment segment : segments) {
+            downloadedFromStart = segment.first + segment.downloaded;
+            if (segment.downloaded < segment.getLength()) {
+                break;
+            }
+        }
+        return downloadedFromStart;
+    }
+
+    private synchronized boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Any segment still running when this is called will stop at its next write, without
+     * writing anything.
+     */
+    private synchronized void stop(boolean complete) {
+        stopped = true;
+        try {
+            if (!complete) {
+                final long downloadedFromStart = getDownloadedFromStart();
+                PartialDownload.setLength(downloader.getFile(), downloadedFromStart);
+                file.setLength(downloadedFromStart);
+            }
+        } catch (IOException e) {
+            // Resuming will fail to match up and download the whole file again.
+            Utils.debugLog(TAG, "Couldn't truncate " + downloader.getFile() + ": " + e.getMessage());
+        } finally {
+            Utils.closeQuietly(file);
+        }
+    }
+
+    private static final class Segment {
+
+        final long first;
+        final long last;
+
+        /**
+         * Only used while synchronized on the {@link SegmentedDownload}.
+         */
+        long downloaded;
+
+        Segment(long first, long last) {
+            this.first = first;
+            this.last = last;
+        }
+
+        long getLength() {
+            return last - first + 1;
+        }
+
+        @Override
+        public String toString() {
+            return "bytes " + first + "-" + last;
+        }
+    }
+
+    private static final class UnexpectedResponseException extends IOException {
+        UnexpectedResponseException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package org.fdroid.fdroid.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * A full TLS handshake takes two round trips, which on a mobile network is often longer than
+ * it takes to download an icon, or to be told that an index hasn't changed. Resuming a session
+ * from an earlier connection to the same host saves one of them, as well as the expensive
+ * key exchange.
+ *
+ * Every {@link HttpDownloader} (including {@link TorHttpDownloader}) uses the one socket factory
+ * returned by {@link #getSocketFactory()}, so that they all share a single session cache.
+ * It wraps whatever {@link HttpsURLConnection#getDefaultSSLSocketFactory()} was, so any trust
+ * manager installed there (e.g. to pin the certificates in
+ * {@link org.fdroid.fdroid.FDroidCertPins}) keeps doing its job. Sharing the same instance also
+ * matters to {@link HttpConnectionPool}, because connections created by different socket
+ * factories are never reused for each other.
+ *
+ * The number of handshakes, how many of them resumed a session, and how long they took are
+ * recorded for each host, see {@link #getStats()}.
+ */
+public final class TlsSessions {
+
+    /**
+     * There are rarely more than a handful of repo hosts, but swap repos come and go.
+     */
+    private static final int SESSION_CACHE_SIZE = 32;
+
+    /**
+     * Servers decide for themselves how long they will honour a session for, this only stops
+     * the client giving up on them early.
+     */
+    private static final int SESSION_TIMEOUT_SECONDS = 24 * 60 * 60;
+
+    private static final Map<String, HostStats> STATS = new HashMap<>();
+
+    private static SSLSocketFactory socketFactory;
+
+    private static boolean sessionCacheConfigured;
+
+    private TlsSessions() { }
+
+    public static synchronized SSLSocketFactory getSocketFactory() {
+        if (socketFactory == null) {
+            socketFactory = new InstrumentedSocketFactory(HttpsURLConnection.getDefaultSSLSocketFactory());
+        }
+        return socketFactory;
+    }
+
+    /**
+     * @return A copy of the stats for each host there has been a handshake with.
+     */
+    public static synchronized List<HostStats> getStats() {
+        List<HostStats> stats = new ArrayList<>(STATS.size());
+        for (final HostStats host : STATS.values()) {
+            stats.add(new HostStats(host));
+        }
+        return stats;
+    }
+
+    private static synchronized void recordHandshake(String host, boolean resumed, long durationMs) {
+        HostStats stats = STATS.get(host);
+        if (stats == null) {
+            stats = new HostStats(host);
+            STATS.put(host, stats);
+        }
+        stats.handshakes++;
+        if (resumed) {
+            stats.resumed++;
+        }
+        stats.totalHandshakeMs += durationMs;
+    }
+
+    private static synchronized void configureSessionCache(SSLSession session) {
+        if (sessionCacheConfigured) {
+            return;
+        }
+        sessionCacheConfigured = true;
+
+        final SSLSessionContext context = session.getSessionContext();
+        if (context != null) {
+            context.setSessionCacheSize(SESSION_CACHE_SIZE);
+            context.setSessionTimeout(SESSION_TIMEOUT_SECONDS);
+        }
+    }
+
+    public static final class HostStats {
+
+        public final String host;
+        public int handshakes;
+        public int resumed;
+        public long totalHandshakeMs;
+
+        HostStats(String host) {
+            this.host = host;
+        }
+
+        HostStats(HostStats stats) {
+            host = stats.host;
+            handshakes = stats.handshakes;
+            resumed = stats.resumed;
+            totalHandshakeMs = stats.totalHandshakeMs;
+        }
+
+        /**
+         * @return The proportion of handshakes which resumed a session, from 0 to 1.
+         */
+        public float getResumptionRate() {
+            return handshakes == 0 ? 0 : (float) resumed / handshakes;
+        }
+
+        public long getAverageHandshakeMs() {
+            return handshakes == 0 ? 0 : totalHandshakeMs / handshakes;
+        }
+
+        @Override
+        public String toString() {
+            return host + ": " + handshakes + " handshakes, " + resumed + " resumed, "
+                    + getAverageHandshakeMs() + "ms average";
+        }
+    }
+
+    /**
+     * Times each handshake from when the socket is created. {@link HttpsURLConnection} starts
+     * the handshake straight after that, having already connected the underlying socket (or
+     * the tunnel through a proxy). A session which was created before the socket was must have
+     * been resumed from the cache.
+     */
+    private static final class InstrumentedSocketFactory extends SSLSocketFactory {
+
+        private final SSLSocketFactory wrapped;
+
+        InstrumentedSocketFactory(SSLSocketFactory wrapped) {
+            this.wrapped = wrapped;
+        }
+
+        private Socket instrument(Socket socket, final String host) {
+            if (socket instanceof SSLSocket) {
+                final long createdAt = System.currentTimeMillis();
+                ((SSLSocket) socket).addHandshakeCompletedListener(new HandshakeCompletedListener() {
+                    @Override
+                    public void handshakeCompleted(HandshakeCompletedEvent event) {
+                        final SSLSession session = event.getSession();
+                        configureSessionCache(session);
+                        final boolean resumed = session.getCreationTime() < createdAt;
+                        final String name = host != null ? host : event.getSocket().getInetAddress().getHostAddress();
+                        recordHandshake(name, resumed, System.currentTimeMillis() - createdAt);
+                    }
+                });
+            }
+            return socket;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return wrapped.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return wrapped.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            return instrument(wrapped.createSocket(socket, host, port, autoClose), host);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return instrument(wrapped.createSocket(host, port), host);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return instrument(wrapped.createSocket(host, port, localHost, localPort), host);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return instrument(wrapped.createSocket(host, port), host.getHostAddress());
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            return instrument(wrapped.createSocket(address, port, localAddress, localPort), address.getHostAddress());
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return instrument(wrapped.createSocket(), null);
+        }
+    }
+}
@@ -5,7 +5,6 @@ import android.content.Context;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.net.HttpURLConnection;
 import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.Proxy;
@@ -23,6 +22,6 @@ public class TorHttpDownloader extends HttpDownloader {
     protected void setupConnection() throws IOException {
         SocketAddress sa = new InetSocketAddress("127.0.0.1", 8118);
         Proxy tor = new Proxy(Proxy.Type.HTTP, sa);
-        connection = (HttpURLConnection) sourceUrl.openConnection(tor);
+        openConnection(tor);
     }
 }
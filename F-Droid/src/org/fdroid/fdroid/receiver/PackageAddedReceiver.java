@@ -18,7 +18,6 @@
 
 package org.fdroid.fdroid.receiver;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageInfo;
@@ -48,18 +47,15 @@ public class PackageAddedReceiver extends PackageReceiver {
             return;
         }
 
+        if (InstalledAppProvider.Helper.isCached(context, info)) {
+            Utils.debugLog(TAG, "Installed app info for '" + packageName + "' is already up to date - skipping.");
+            return;
+        }
+
         Utils.debugLog(TAG, "Inserting installed app info for '" + packageName + "' (v" + info.versionCode + ")");
 
         Uri uri = InstalledAppProvider.getContentUri();
-        ContentValues values = new ContentValues(4);
-        values.put(InstalledAppProvider.DataColumns.PACKAGE_NAME, packageName);
-        values.put(InstalledAppProvider.DataColumns.VERSION_CODE, info.versionCode);
-        values.put(InstalledAppProvider.DataColumns.VERSION_NAME, info.versionName);
-        values.put(InstalledAppProvider.DataColumns.APPLICATION_LABEL,
-                InstalledAppProvider.getApplicationLabel(context, packageName));
-        values.put(InstalledAppProvider.DataColumns.SIGNATURE,
-                InstalledAppProvider.getPackageSig(info));
-        context.getContentResolver().insert(uri, values);
+        context.getContentResolver().insert(uri, InstalledAppProvider.getContentValues(context, info));
     }
 
 }
@@ -26,8 +26,6 @@ import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 
 import org.fdroid.fdroid.Utils;
-import org.fdroid.fdroid.data.ApkProvider;
-import org.fdroid.fdroid.data.AppProvider;
 
 abstract class PackageReceiver extends BroadcastReceiver {
 
@@ -54,9 +52,8 @@ abstract class PackageReceiver extends BroadcastReceiver {
             return;
         }
         String packageName = intent.getData().getSchemeSpecificPart();
+        // InstalledAppProvider notifies the observers of this app once the change is saved.
         handle(context, packageName);
-        context.getContentResolver().notifyChange(AppProvider.getContentUri(packageName), null);
-        context.getContentResolver().notifyChange(ApkProvider.getAppUri(packageName), null);
     }
 
 }
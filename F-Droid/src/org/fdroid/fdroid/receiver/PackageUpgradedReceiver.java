@@ -18,7 +18,6 @@
 
 package org.fdroid.fdroid.receiver;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageInfo;
@@ -50,18 +49,15 @@ public class PackageUpgradedReceiver extends PackageReceiver {
             return;
         }
 
+        if (InstalledAppProvider.Helper.isCached(context, info)) {
+            Utils.debugLog(TAG, "Installed app info for '" + packageName + "' is already up to date - skipping.");
+            return;
+        }
+
         Utils.debugLog(TAG, "Updating installed app info for '" + packageName + "' to v" + info.versionCode + " (" + info.versionName + ")");
 
         Uri uri = InstalledAppProvider.getContentUri();
-        ContentValues values = new ContentValues(4);
-        values.put(InstalledAppProvider.DataColumns.PACKAGE_NAME, packageName);
-        values.put(InstalledAppProvider.DataColumns.VERSION_CODE, info.versionCode);
-        values.put(InstalledAppProvider.DataColumns.VERSION_NAME, info.versionName);
-        values.put(InstalledAppProvider.DataColumns.APPLICATION_LABEL,
-                InstalledAppProvider.getApplicationLabel(context, packageName));
-        values.put(InstalledAppProvider.DataColumns.SIGNATURE,
-                InstalledAppProvider.getPackageSig(info));
-        context.getContentResolver().insert(uri, values);
+        context.getContentResolver().insert(uri, InstalledAppProvider.getContentValues(context, info));
     }
 
 }
@@ -14,13 +14,17 @@ import com.nostra13.universalimageloader.core.ImageLoader;
 
 import org.fdroid.fdroid.R;
 import org.fdroid.fdroid.Utils;
-import org.fdroid.fdroid.data.App;
 
 public abstract class AppListAdapter extends CursorAdapter {
 
     private LayoutInflater mInflater;
     private DisplayImageOptions displayImageOptions;
 
+    /**
+     * Reused for every row that gets bound, and only recreated when the cursor is swapped.
+     */
+    private AppListRow row;
+
     public AppListAdapter(Context context, Cursor c) {
         super(context, c);
         init(context);
@@ -84,16 +88,18 @@ public abstract class AppListAdapter extends CursorAdapter {
     }
 
     private void setupView(View view, Cursor cursor, ViewHolder holder) {
-        final App app = new App(cursor);
+        if (row == null || !row.isFor(cursor)) {
+            row = new AppListRow(cursor);
+        }
 
-        holder.name.setText(app.name);
-        holder.summary.setText(app.summary);
+        holder.name.setText(row.getName());
+        holder.summary.setText(row.getSummary());
 
-        ImageLoader.getInstance().displayImage(app.iconUrl, holder.icon,
+        ImageLoader.getInstance().displayImage(row.getIconUrl(), holder.icon,
                 displayImageOptions);
 
-        holder.status.setText(getVersionInfo(app));
-        holder.license.setText(app.license);
+        holder.status.setText(getVersionInfo(row));
+        holder.license.setText(row.getLicense());
 
         // Disable it all if it isn't compatible...
         final View[] views = {
@@ -104,14 +110,15 @@ public abstract class AppListAdapter extends CursorAdapter {
             holder.name,
         };
 
+        final boolean enabled = row.isCompatible() && !row.isFiltered();
         for (View v : views) {
-            v.setEnabled(app.compatible && !app.isFiltered());
+            v.setEnabled(enabled);
         }
     }
 
-    private String getVersionInfo(App app) {
+    private String getVersionInfo(AppListRow app) {
 
-        if (app.suggestedVercode <= 0) {
+        if (app.getSuggestedVercode() <= 0) {
             return null;
         }
 
@@ -119,13 +126,13 @@ public abstract class AppListAdapter extends CursorAdapter {
             return app.getSuggestedVersion();
         }
 
-        final String installedVersionString = app.installedVersionName;
+        final String installedVersionString = app.getInstalledVersionName();
 
         if (app.canAndWantToUpdate() && showStatusUpdate()) {
             return installedVersionString + " → " + app.getSuggestedVersion();
         }
 
-        if (app.installedVersionCode > 0 && showStatusInstalled()) {
+        if (app.getInstalledVersionCode() > 0 && showStatusInstalled()) {
             return installedVersionString + " ✔";
         }
 
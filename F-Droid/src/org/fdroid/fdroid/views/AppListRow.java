@@ -0,0 +1,132 @@
+package org.fdroid.fdroid.views;
+
+import android.database.Cursor;
+
+import org.fdroid.fdroid.AppFilter;
+import org.fdroid.fdroid.Utils;
+import org.fdroid.fdroid.data.App;
+import org.fdroid.fdroid.data.AppProvider;
+
+/**
+ * Reads the columns needed to show an app in an {@link AppListAdapter} straight out of the
+ * current row of a cursor. Building a full {@link App} for each row that gets bound means
+ * looking up every column by name and allocating a bunch of strings and lists which the list
+ * never looks at, and happens every time a row scrolls onto the screen. Instead, the column
+ * indexes are looked up once per cursor, and this same object is reused for every row.
+ *
+ * Any column which is not in the projection will return its default value, the same as the
+ * corresponding field of an {@link App} would.
+ */
+class AppListRow {
+
+    private final AppFilter appFilter = new AppFilter();
+
+    private final Cursor cursor;
+
+    private final int nameIndex;
+    private final int summaryIndex;
+    private final int iconUrlIndex;
+    private final int licenseIndex;
+    private final int compatibleIndex;
+    private final int suggestedVersionIndex;
+    private final int suggestedVercodeIndex;
+    private final int installedVersionNameIndex;
+    private final int installedVersionCodeIndex;
+    private final int ignoreAllUpdatesIndex;
+    private final int ignoreThisUpdateIndex;
+    private final int requirementsIndex;
+
+    AppListRow(Cursor cursor) {
+        this.cursor = cursor;
+        nameIndex = cursor.getColumnIndex(AppProvider.DataColumns.NAME);
+        summaryIndex = cursor.getColumnIndex(AppProvider.DataColumns.SUMMARY);
+        iconUrlIndex = cursor.getColumnIndex(AppProvider.DataColumns.ICON_URL);
+        licenseIndex = cursor.getColumnIndex(AppProvider.DataColumns.LICENSE);
+        compatibleIndex = cursor.getColumnIndex(AppProvider.DataColumns.IS_COMPATIBLE);
+        suggestedVersionIndex = cursor.getColumnIndex(AppProvider.DataColumns.SuggestedApk.VERSION);
+        suggestedVercodeIndex = cursor.getColumnIndex(AppProvider.DataColumns.SUGGESTED_VERSION_CODE);
+        installedVersionNameIndex = cursor.getColumnIndex(AppProvider.DataColumns.InstalledApp.VERSION_NAME);
+        installedVersionCodeIndex = cursor.getColumnIndex(AppProvider.DataColumns.InstalledApp.VERSION_CODE);
+        ignoreAllUpdatesIndex = cursor.getColumnIndex(AppProvider.DataColumns.IGNORE_ALLUPDATES);
+        ignoreThisUpdateIndex = cursor.getColumnIndex(AppProvider.DataColumns.IGNORE_THISUPDATE);
+        requirementsIndex = cursor.getColumnIndex(AppProvider.DataColumns.REQUIREMENTS);
+    }
+
+    /**
+     * The cursor of a {@link android.support.v4.widget.CursorAdapter} gets swapped out each
+     * time the data changes, at which point the column indexes need to be looked up again.
+     */
+    boolean isFor(Cursor other) {
+        return cursor == other;
+    }
+
+    String getName() {
+        return getString(nameIndex, "Unknown");
+    }
+
+    String getSummary() {
+        return getString(summaryIndex, "Unknown application");
+    }
+
+    String getIconUrl() {
+        return getString(iconUrlIndex, null);
+    }
+
+    String getLicense() {
+        return getString(licenseIndex, "Unknown");
+    }
+
+    boolean isCompatible() {
+        return getInt(compatibleIndex) == 1;
+    }
+
+    String getSuggestedVersion() {
+        return getString(suggestedVersionIndex, null);
+    }
+
+    int getSuggestedVercode() {
+        return getInt(suggestedVercodeIndex);
+    }
+
+    String getInstalledVersionName() {
+        return getString(installedVersionNameIndex, null);
+    }
+
+    int getInstalledVersionCode() {
+        return getInt(installedVersionCodeIndex);
+    }
+
+    /**
+     * @see App#isInstalled()
+     */
+    boolean isInstalled() {
+        return getInstalledVersionCode() > 0;
+    }
+
+    /**
+     * @see App#canAndWantToUpdate()
+     */
+    boolean canAndWantToUpdate() {
+        final int suggestedVercode = getSuggestedVercode();
+        return App.hasUpdates(suggestedVercode, getInstalledVersionCode())
+                && App.wantsUpdate(getInt(ignoreAllUpdatesIndex) == 1, getInt(ignoreThisUpdateIndex), suggestedVercode)
+                && !isFiltered();
+    }
+
+    /**
+     * @see App#isFiltered()
+     */
+    boolean isFiltered() {
+        // Almost no apps have any requirements, so don't bother parsing the list unless there is one.
+        final String requirements = getString(requirementsIndex, null);
+        return requirements != null && appFilter.filter(Utils.CommaSeparatedList.make(requirements));
+    }
+
+    private String getString(int index, String defaultValue) {
+        return index == -1 ? defaultValue : cursor.getString(index);
+    }
+
+    private int getInt(int index) {
+        return index == -1 ? 0 : cursor.getInt(index);
+    }
+}
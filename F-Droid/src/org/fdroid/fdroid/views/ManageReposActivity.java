@@ -19,10 +19,12 @@
 
 package org.fdroid.fdroid.views;
 
+import android.content.BroadcastReceiver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.res.ColorStateList;
 import android.database.Cursor;
 import android.net.Uri;
@@ -38,6 +40,7 @@ import android.support.v4.app.LoaderManager;
 import android.support.v4.app.NavUtils;
 import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
+import android.support.v4.content.LocalBroadcastManager;
 import android.support.v7.app.ActionBarActivity;
 import android.support.v7.app.AlertDialog;
 import android.text.Editable;
@@ -57,6 +60,7 @@ import android.widget.Toast;
 import org.fdroid.fdroid.FDroid;
 import org.fdroid.fdroid.FDroidApp;
 import org.fdroid.fdroid.R;
+import org.fdroid.fdroid.RepoPurgeService;
 import org.fdroid.fdroid.UpdateService;
 import org.fdroid.fdroid.Utils;
 import org.fdroid.fdroid.compat.ClipboardCompat;
@@ -747,7 +751,7 @@ public class ManageReposActivity extends ActionBarActivity {
                 if (isEnabled) {
                     UpdateService.updateNow(getActivity());
                 } else {
-                    RepoProvider.Helper.purgeApps(getActivity(), repo);
+                    RepoPurgeService.purge(getActivity(), repo);
                     String notification = getString(R.string.repo_disabled_notification, repo.name);
                     Toast.makeText(getActivity(), notification, Toast.LENGTH_LONG).show();
                 }
@@ -772,8 +776,36 @@ public class ManageReposActivity extends ActionBarActivity {
 
             // Starts a new or restarts an existing Loader in this manager
             getLoaderManager().restartLoader(0, null, this);
+
+            LocalBroadcastManager.getInstance(getActivity()).registerReceiver(purgeStatusReceiver,
+                    new IntentFilter(RepoPurgeService.LOCAL_ACTION_STATUS));
         }
 
+        @Override
+        public void onPause() {
+            super.onPause();
+            LocalBroadcastManager.getInstance(getActivity()).unregisterReceiver(purgeStatusReceiver);
+        }
+
+        /**
+         * Disabling a repo takes effect straight away, but its apps are removed in the
+         * background by the {@link RepoPurgeService}. Its row says so until they are gone, and
+         * then the user is told how many were removed.
+         */
+        private final BroadcastReceiver purgeStatusReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                repoAdapter.notifyDataSetChanged();
+                int status = intent.getIntExtra(RepoPurgeService.EXTRA_STATUS_CODE, -1);
+                int appCount = intent.getIntExtra(RepoPurgeService.EXTRA_APP_COUNT, 0);
+                if (status == RepoPurgeService.STATUS_COMPLETE && appCount > 0) {
+                    String name = intent.getStringExtra(RepoPurgeService.EXTRA_REPO_NAME);
+                    String message = getString(R.string.repo_purged, appCount, name);
+                    Toast.makeText(context, message, Toast.LENGTH_SHORT).show();
+                }
+            }
+        };
+
         @Override
         public void onListItemClick(ListView l, View v, int position, long id) {
 
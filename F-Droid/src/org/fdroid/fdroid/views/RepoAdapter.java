@@ -10,6 +10,7 @@ import android.widget.CompoundButton;
 import android.widget.TextView;
 
 import org.fdroid.fdroid.R;
+import org.fdroid.fdroid.RepoPurgeService;
 import org.fdroid.fdroid.data.Repo;
 
 public class RepoAdapter extends CursorAdapter {
@@ -68,6 +69,10 @@ public class RepoAdapter extends CursorAdapter {
     private void setupView(Cursor cursor, View view, CompoundButton switchView) {
         final Repo repo = new Repo(cursor);
 
+        // While its apps are being removed, it can't be turned back on until they are gone.
+        final boolean purging = RepoPurgeService.isPurging(repo.getId());
+        view.findViewById(R.id.repo_purging).setVisibility(purging ? View.VISIBLE : View.GONE);
+        switchView.setEnabled(!purging);
         switchView.setChecked(repo.inuse);
 
         // Add this listener *after* setting the checked status, so we don't
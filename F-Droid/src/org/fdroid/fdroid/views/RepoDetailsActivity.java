@@ -32,10 +32,12 @@ import org.fdroid.fdroid.NfcHelper;
 import org.fdroid.fdroid.NfcNotEnabledActivity;
 import org.fdroid.fdroid.QrGenAsyncTask;
 import org.fdroid.fdroid.R;
+import org.fdroid.fdroid.RepoPurgeService;
 import org.fdroid.fdroid.UpdateService;
 import org.fdroid.fdroid.Utils;
 import org.fdroid.fdroid.data.Repo;
 import org.fdroid.fdroid.data.RepoProvider;
+import org.fdroid.fdroid.data.RepoStats;
 
 import java.util.Locale;
 
@@ -321,8 +323,8 @@ public class RepoDetailsActivity extends ActionBarActivity {
 
         name.setText(repo.name);
 
-        int appCount = RepoProvider.Helper.countAppsForRepo(this, repoId);
-        numApps.setText(Integer.toString(appCount));
+        RepoStats stats = RepoProvider.Helper.getStats(this, repoId);
+        numApps.setText(Integer.toString(stats.appCount));
 
         setupDescription(repoView, repo);
         setupRepoFingerprint(repoView, repo);
@@ -348,7 +350,7 @@ public class RepoDetailsActivity extends ActionBarActivity {
             .setPositiveButton(R.string.delete, new DialogInterface.OnClickListener() {
                 @Override
                 public void onClick(DialogInterface dialog, int which) {
-                    RepoProvider.Helper.remove(getApplicationContext(), repoId);
+                    RepoPurgeService.remove(getApplicationContext(), repo);
                     finish();
                 }
             }).setNegativeButton(android.R.string.cancel,
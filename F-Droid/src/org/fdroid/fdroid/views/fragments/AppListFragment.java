@@ -6,10 +6,10 @@ import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.annotation.Nullable;
 import android.support.v4.app.ListFragment;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.text.TextUtils;
 import android.view.View;
@@ -22,6 +22,7 @@ import org.fdroid.fdroid.UpdateService;
 import org.fdroid.fdroid.Utils;
 import org.fdroid.fdroid.data.App;
 import org.fdroid.fdroid.data.AppProvider;
+import org.fdroid.fdroid.data.RepoProvider;
 import org.fdroid.fdroid.views.AppListAdapter;
 
 public abstract class AppListFragment extends ListFragment implements
@@ -53,10 +54,29 @@ public abstract class AppListFragment extends ListFragment implements
 
     public static final String APP_SORT = AppProvider.DataColumns.NAME;
 
+    /**
+     * How long to wait after the user stops typing before actually running a search. Each
+     * keystroke within this period pushes the search back, so that we only hit the database
+     * for the query the user ends up with, rather than every intermediate prefix of it.
+     */
+    private static final int SEARCH_DEBOUNCE_MS = 300;
+
     protected AppListAdapter appAdapter;
 
     @Nullable private String searchQuery;
 
+    private final Handler searchHandler = new Handler();
+
+    private final Runnable restartSearch = new Runnable() {
+        @Override
+        public void run() {
+            if (isAdded()) {
+                CancellableCursorLoader.supersede(getLoaderManager(), 0);
+                getLoaderManager().restartLoader(0, null, AppListFragment.this);
+            }
+        }
+    };
+
     protected abstract AppListAdapter getAppListAdapter();
 
     protected abstract String getFromTitle();
@@ -128,6 +148,12 @@ public abstract class AppListFragment extends ListFragment implements
         setListAdapter(appAdapter);
     }
 
+    @Override
+    public void onDestroy() {
+        searchHandler.removeCallbacks(restartSearch);
+        super.onDestroy();
+    }
+
     /**
      * The first time the app is run, we will have an empty app list.
      * If this is the case, we will attempt to update with the default repo.
@@ -139,6 +165,11 @@ public abstract class AppListFragment extends ListFragment implements
         final String triedEmptyUpdate = "triedEmptyUpdate";
         SharedPreferences prefs = getActivity().getPreferences(Context.MODE_PRIVATE);
         boolean hasTriedEmptyUpdate = prefs.getBoolean(triedEmptyUpdate, false);
+        if (!hasTriedEmptyUpdate && RepoProvider.Helper.hasApps(getActivity())) {
+            // The list is only empty because it hasn't loaded yet, there has been an update before.
+            prefs.edit().putBoolean(triedEmptyUpdate, true).commit();
+            return false;
+        }
         if (!hasTriedEmptyUpdate) {
             Utils.debugLog(TAG, "Empty app list, and we haven't done an update yet. Forcing repo update.");
             prefs.edit().putBoolean(triedEmptyUpdate, true).commit();
@@ -184,7 +215,7 @@ public abstract class AppListFragment extends ListFragment implements
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
         Uri uri = updateSearchStatus() ? getDataUri(searchQuery) : getDataUri();
-        return new CursorLoader(
+        return new CancellableCursorLoader(
                 getActivity(), uri, APP_PROJECTION, null, null, APP_SORT);
     }
 
@@ -206,10 +237,19 @@ public abstract class AppListFragment extends ListFragment implements
         }
     }
 
+    /**
+     * Searches are debounced by {@link AppListFragment#SEARCH_DEBOUNCE_MS}, except for when the
+     * query is cleared, which is applied straight away. Restarting the loader cancels any query
+     * which is still running for a previous search term (see {@link CancellableCursorLoader}),
+     * and the {@link LoaderManager} will only deliver results from the most recent loader.
+     */
     public void updateSearchQuery(@Nullable String query) {
         searchQuery = query;
-        if (isAdded()) {
-            getLoaderManager().restartLoader(0, null, this);
+        searchHandler.removeCallbacks(restartSearch);
+        if (TextUtils.isEmpty(query)) {
+            restartSearch.run();
+        } else {
+            searchHandler.postDelayed(restartSearch, SEARCH_DEBOUNCE_MS);
         }
     }
 }
@@ -0,0 +1,175 @@
+package org.fdroid.fdroid.views.fragments;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.CursorLoader;
+import android.support.v4.content.Loader;
+
+import org.fdroid.fdroid.Utils;
+
+/**
+ * A {@link CursorLoader} which passes a {@link CancellationSignal} through to the content
+ * provider, so that when the loader is superseded (e.g. because the search query changed),
+ * its query stops running against SQLite instead of finishing in the background.
+ *
+ * The version of the support library we use never cancels a running load itself: restarting
+ * a loader either abandons the old one or leaves it to finish before switching to the new one.
+ * So the query is cancelled when the loader is abandoned or reset, and also by
+ * {@link #supersede(LoaderManager, int)}, which should be called just before restarting it.
+ *
+ * Cancellation is only available from API 16 onwards. On older devices, this behaves exactly
+ * like a regular {@link CursorLoader}.
+ */
+public class CancellableCursorLoader extends CursorLoader {
+
+    private static final String TAG = "CancellableCursorLoader";
+
+    private final ForceLoadContentObserver observer = new ForceLoadContentObserver();
+
+    /**
+     * Only ever accessed while holding the lock on this loader, because the query runs on a
+     * background thread, while cancellation is requested from the UI thread.
+     */
+    private CancellableQuery runningQuery;
+
+    /**
+     * Once set, this loader's results are never going to be used, so it doesn't query again.
+     */
+    private boolean superseded;
+
+    public CancellableCursorLoader(Context context, Uri uri, String[] projection,
+                                   String selection, String[] selectionArgs, String sortOrder) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        if (Build.VERSION.SDK_INT < 16) {
+            synchronized (this) {
+                if (superseded) {
+                    return null;
+                }
+            }
+            return super.loadInBackground();
+        }
+
+        final CancellableQuery query;
+        synchronized (this) {
+            if (superseded) {
+                return null;
+            }
+            query = new CancellableQuery();
+            runningQuery = query;
+        }
+
+        try {
+            Cursor cursor = query.run(this);
+            if (cursor != null) {
+                cursor.registerContentObserver(observer);
+            }
+            return cursor;
+        } catch (RuntimeException e) {
+            // The support library doesn't know about OperationCanceledException (it only exists
+            // from API 16), and would crash if we let it propagate. The null result is thrown
+            // away, because the loader is only cancelled once it has been superseded or reset.
+            if (CancellableQuery.isCancellation(e)) {
+                Utils.debugLog(TAG, "Cancelled query for " + getUri());
+                return null;
+            }
+            throw e;
+        } finally {
+            synchronized (this) {
+                runningQuery = null;
+            }
+        }
+    }
+
+    /**
+     * Cancels the query of the loader with this {@code id}, if it is one of these, because it
+     * is about to be replaced by {@link LoaderManager#restartLoader}. Whatever it returns is
+     * thrown away by the {@link LoaderManager} once the new loader takes over.
+     */
+    public static void supersede(LoaderManager manager, int id) {
+        Loader<?> loader = manager.getLoader(id);
+        if (loader instanceof CancellableCursorLoader) {
+            ((CancellableCursorLoader) loader).cancelQuery();
+        }
+    }
+
+    /**
+     * Stops the query if it is running, and stops this loader from starting any more. A
+     * cancelled query returns null, which is only safe to deliver if this loader is being
+     * replaced, see {@link #supersede(LoaderManager, int)}.
+     */
+    public synchronized void cancelQuery() {
+        superseded = true;
+        cancelRunningQuery();
+    }
+
+    private synchronized void cancelRunningQuery() {
+        if (runningQuery != null) {
+            runningQuery.cancel();
+        }
+    }
+
+    /**
+     * An abandoned loader's results are thrown away, and it is never started again.
+     */
+    @Override
+    protected void onAbandon() {
+        super.onAbandon();
+        cancelQuery();
+    }
+
+    /**
+     * A reset loader may be started again later, so only the query which is running now
+     * gets cancelled.
+     */
+    @Override
+    protected void onReset() {
+        cancelRunningQuery();
+        super.onReset();
+    }
+
+    /**
+     * Moved into a separate class so that devices without API 16 will not attempt to
+     * load {@link CancellationSignal} at runtime.
+     */
+    @TargetApi(16)
+    private static class CancellableQuery {
+
+        private final CancellationSignal signal = new CancellationSignal();
+
+        public Cursor run(CursorLoader loader) {
+            Cursor cursor = loader.getContext().getContentResolver().query(
+                    loader.getUri(), loader.getProjection(), loader.getSelection(),
+                    loader.getSelectionArgs(), loader.getSortOrder(), signal);
+
+            if (cursor != null) {
+                try {
+                    // Ensure the cursor window is filled, i.e. the query is actually executed
+                    // while the cancellation signal is still attached to it.
+                    cursor.getCount();
+                } catch (RuntimeException e) {
+                    cursor.close();
+                    throw e;
+                }
+            }
+            return cursor;
+        }
+
+        public void cancel() {
+            signal.cancel();
+        }
+
+        public static boolean isCancellation(RuntimeException e) {
+            return e instanceof OperationCanceledException;
+        }
+    }
+}
@@ -36,6 +36,7 @@ public class PreferencesFragment extends PreferenceFragment
         Preferences.PREF_LOCAL_REPO_NAME,
         Preferences.PREF_LANGUAGE,
         Preferences.PREF_CACHE_APK,
+        Preferences.PREF_CACHE_APK_SIZE,
         Preferences.PREF_EXPERT,
         Preferences.PREF_PRIVILEGED_INSTALLER,
         Preferences.PREF_ENABLE_PROXY,
@@ -137,6 +138,10 @@ public class PreferencesFragment extends PreferenceFragment
                 checkSummary(key, R.string.cache_downloaded_on);
                 break;
 
+            case Preferences.PREF_CACHE_APK_SIZE:
+                textSummary(key, R.string.cache_downloaded_size_summary);
+                break;
+
             case Preferences.PREF_EXPERT:
                 checkSummary(key, R.string.expert_on);
                 break;
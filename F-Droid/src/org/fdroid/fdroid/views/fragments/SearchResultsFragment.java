@@ -7,7 +7,6 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.ListFragment;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.text.TextUtils;
 import android.view.LayoutInflater;
@@ -67,7 +66,7 @@ public class SearchResultsFragment extends ListFragment implements LoaderManager
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
         Uri uri = AppProvider.getSearchUri(getQuery());
-        return new CursorLoader(
+        return new CancellableCursorLoader(
             getActivity(),
             uri,
             AppListFragment.APP_PROJECTION,
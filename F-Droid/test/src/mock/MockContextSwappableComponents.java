@@ -1,5 +1,7 @@
 package mock;
 
+import android.content.Context;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.test.mock.MockContentResolver;
@@ -11,6 +13,7 @@ public class MockContextSwappableComponents extends MockContext {
 
     private Resources resources;
     private MockContentResolver contentResolver;
+    private Context sharedPreferencesContext;
 
     public MockContextSwappableComponents setPackageManager(PackageManager pm) {
         packageManager = pm;
@@ -27,6 +30,15 @@ public class MockContextSwappableComponents extends MockContext {
         return this;
     }
 
+    /**
+     * Preferences are kept by {@code context}, with "test." in front of their names so that
+     * they don't mix with those of the app itself.
+     */
+    public MockContextSwappableComponents setSharedPreferencesContext(Context context) {
+        sharedPreferencesContext = context;
+        return this;
+    }
+
     @Override
     public PackageManager getPackageManager() {
         return packageManager;
@@ -41,4 +53,9 @@ public class MockContextSwappableComponents extends MockContext {
     public MockContentResolver getContentResolver() {
         return contentResolver;
     }
+
+    @Override
+    public SharedPreferences getSharedPreferences(String name, int mode) {
+        return sharedPreferencesContext.getSharedPreferences("test." + name, mode);
+    }
 }
@@ -0,0 +1,82 @@
+package org.fdroid.fdroid;
+
+import android.content.ContentValues;
+
+import org.fdroid.fdroid.data.ApkCacheProvider;
+import org.fdroid.fdroid.data.ApkProvider;
+import org.fdroid.fdroid.data.InstalledAppProvider;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+public class ApkCacheProviderTest extends FDroidProviderTest<ApkCacheProvider> {
+
+    public ApkCacheProviderTest() {
+        super(ApkCacheProvider.class, ApkCacheProvider.getAuthority());
+    }
+
+    public void testUris() {
+        assertInvalidUri(ApkCacheProvider.getAuthority());
+        assertInvalidUri(ApkProvider.getContentUri());
+        assertInvalidUri(InstalledAppProvider.getContentUri());
+
+        assertValidUri(ApkCacheProvider.getContentUri());
+        assertValidUri(ApkCacheProvider.getHashUri("0123456789abcdef"));
+    }
+
+    public void testAddAndFind() {
+        assertEquals(-1, ApkCacheProvider.Helper.findSize(getMockContext(), "aaaa"));
+
+        ApkCacheProvider.Helper.add(getMockContext(), "aaaa", 1000);
+        ApkCacheProvider.Helper.add(getMockContext(), "bbbb", 2000);
+        assertEquals(1000, ApkCacheProvider.Helper.findSize(getMockContext(), "aaaa"));
+        assertEquals(2000, ApkCacheProvider.Helper.findSize(getMockContext(), "bbbb"));
+        assertResultCount(2, ApkCacheProvider.getContentUri());
+
+        // Adding the same hash again replaces it, rather than adding another row.
+        ApkCacheProvider.Helper.add(getMockContext(), "aaaa", 1500);
+        assertEquals(1500, ApkCacheProvider.Helper.findSize(getMockContext(), "aaaa"));
+        assertResultCount(2, ApkCacheProvider.getContentUri());
+    }
+
+    public void testLeastRecentlyUsedFirst() {
+        insert("aaaa", 100, 3000);
+        insert("bbbb", 200, 1000);
+        insert("cccc", 300, 2000);
+        assertOrder("bbbb", "cccc", "aaaa");
+
+        ApkCacheProvider.Helper.markUsed(getMockContext(), "bbbb");
+        assertOrder("cccc", "aaaa", "bbbb");
+
+        Map<String, Long> sizes = ApkCacheProvider.Helper.all(getMockContext());
+        assertEquals(Long.valueOf(100), sizes.get("aaaa"));
+        assertEquals(Long.valueOf(200), sizes.get("bbbb"));
+        assertEquals(Long.valueOf(300), sizes.get("cccc"));
+    }
+
+    public void testRemove() {
+        insert("aaaa", 100, 1000);
+        insert("bbbb", 200, 2000);
+
+        ApkCacheProvider.Helper.remove(getMockContext(), "aaaa");
+        assertEquals(-1, ApkCacheProvider.Helper.findSize(getMockContext(), "aaaa"));
+        assertEquals(200, ApkCacheProvider.Helper.findSize(getMockContext(), "bbbb"));
+
+        ApkCacheProvider.Helper.removeAll(getMockContext());
+        assertResultCount(0, ApkCacheProvider.getContentUri());
+    }
+
+    private void insert(String hash, long size, long lastUsed) {
+        ContentValues values = new ContentValues(3);
+        values.put(ApkCacheProvider.DataColumns.HASH, hash);
+        values.put(ApkCacheProvider.DataColumns.SIZE, size);
+        values.put(ApkCacheProvider.DataColumns.LAST_USED, lastUsed);
+        getMockContentResolver().insert(ApkCacheProvider.getContentUri(), values);
+    }
+
+    private void assertOrder(String... expected) {
+        Map<String, Long> sizes = ApkCacheProvider.Helper.all(getMockContext());
+        assertEquals(Arrays.asList(expected), new ArrayList<>(sizes.keySet()));
+    }
+}
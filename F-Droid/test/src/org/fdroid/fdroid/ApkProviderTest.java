@@ -6,26 +6,27 @@ import android.net.Uri;
 
 import org.fdroid.fdroid.data.Apk;
 import org.fdroid.fdroid.data.ApkProvider;
+import org.fdroid.fdroid.data.App;
+import org.fdroid.fdroid.data.AppProvider;
 import org.fdroid.fdroid.data.RepoProvider;
 import org.fdroid.fdroid.mock.MockApk;
 import org.fdroid.fdroid.mock.MockApp;
 import org.fdroid.fdroid.mock.MockRepo;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class ApkProviderTest extends BaseApkProviderTest {
 
     /**
-     * I want to test the protected {@link org.fdroid.fdroid.data.ApkProvider#getContentUri(java.util.List)}
+     * I want to test the protected {@link org.fdroid.fdroid.data.ApkProvider#getApksUri()}
      * method, but don't want to make it public. This exposes it.
      */
     private static class PublicApkProvider extends ApkProvider {
 
-        public static final int MAX_APKS_TO_QUERY = ApkProvider.MAX_APKS_TO_QUERY;
-
-        public static Uri getContentUri(List<Apk> apks) {
-            return ApkProvider.getContentUri(apks);
+        public static Uri getApksUri() {
+            return ApkProvider.getApksUri();
         }
     }
 
@@ -33,39 +34,63 @@ public class ApkProviderTest extends BaseApkProviderTest {
         assertInvalidUri(ApkProvider.getAuthority());
         assertInvalidUri(RepoProvider.getContentUri());
 
-        List<Apk> apks = new ArrayList<>(3);
-        for (int i = 0; i < 10; i++) {
-            apks.add(new MockApk("com.example." + i, i));
-        }
-
         assertValidUri(ApkProvider.getContentUri());
         assertValidUri(ApkProvider.getAppUri("org.fdroid.fdroid"));
         assertValidUri(ApkProvider.getContentUri(new MockApk("org.fdroid.fdroid", 100)));
         assertValidUri(ApkProvider.getContentUri());
-        assertValidUri(PublicApkProvider.getContentUri(apks));
+        assertValidUri(PublicApkProvider.getApksUri());
         assertValidUri(ApkProvider.getContentUri("org.fdroid.fdroid", 100));
         assertValidUri(ApkProvider.getRepoUri(1000));
+    }
+
+    /**
+     * There used to be a limit on how many apks could be asked for at once, because each
+     * one was bound to two parameters in the query, of which SQLite only allows 999.
+     */
+    public void testQueryManyApks() {
+        for (int i = 1; i <= 10; i++) {
+            TestUtils.insertApk(this, "com.example." + i, i);
+        }
 
-        List<Apk> manyApks = new ArrayList<>(PublicApkProvider.MAX_APKS_TO_QUERY - 5);
-        for (int i = 0; i < PublicApkProvider.MAX_APKS_TO_QUERY - 1; i++) {
+        List<Apk> manyApks = new ArrayList<>(5000);
+        for (int i = 0; i < 5000; i++) {
             manyApks.add(new MockApk("com.example." + i, i));
         }
-        assertValidUri(PublicApkProvider.getContentUri(manyApks));
 
-        manyApks.add(new MockApk("org.fdroid.fdroid.1", 1));
-        manyApks.add(new MockApk("org.fdroid.fdroid.2", 2));
-        try {
-            // Technically, it is a valid URI, because it doesn't
-            // throw an UnsupportedOperationException. However it
-            // is still not okay (we run out of bindable parameters
-            // in the sqlite query.
-            assertValidUri(PublicApkProvider.getContentUri(manyApks));
-            fail();
-        } catch (IllegalArgumentException e) {
-            // This is the expected error behaviour.
-        } catch (Exception e) {
-            fail();
+        List<Apk> known = ApkProvider.Helper.knownApks(getMockContext(), manyApks, getMinimalProjection());
+        assertResultCount(10, known);
+    }
+
+    public void testQueryKeysSorted() {
+        for (int i = 1; i <= 5; i++) {
+            TestUtils.insertApk(this, "org.fdroid.fdroid", i);
         }
+
+        String[] keys = {"org.fdroid.fdroid", "2", "org.fdroid.fdroid", "4", "org.fdroid.fdroid", "3"};
+        String sort = ApkProvider.DataColumns.VERSION_CODE + " DESC";
+        Cursor cursor = getMockContentResolver().query(PublicApkProvider.getApksUri(), getMinimalProjection(), null, keys, sort);
+        List<Apk> apks = ApkProvider.Helper.cursorToList(cursor);
+
+        assertResultCount(3, apks);
+        assertEquals(4, apks.get(0).vercode);
+        assertEquals(3, apks.get(1).vercode);
+        assertEquals(2, apks.get(2).vercode);
+    }
+
+    public void testDeleteManyApks() {
+        final int count = 1000;
+        List<Apk> toDelete = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            TestUtils.insertApk(this, "com.example." + i, i);
+            toDelete.add(new MockApk("com.example." + i, i));
+        }
+        TestUtils.insertApk(this, "com.example.keep", 1);
+        assertTotalApkCount(count + 1);
+
+        ApkProvider.Helper.deleteApks(getMockContext(), toDelete);
+
+        assertTotalApkCount(1);
+        assertNotNull(ApkProvider.Helper.find(getMockContext(), "com.example.keep", 1));
     }
 
     public void testAppApks() {
@@ -101,15 +126,10 @@ public class ApkProviderTest extends BaseApkProviderTest {
     }
 
     public void testInvalidUpdateUris() {
-        Apk apk = new MockApk("org.fdroid.fdroid", 10);
-
-        List<Apk> apks = new ArrayList<>();
-        apks.add(apk);
-
         assertCantUpdate(ApkProvider.getContentUri());
         assertCantUpdate(ApkProvider.getAppUri("org.fdroid.fdroid"));
         assertCantUpdate(ApkProvider.getRepoUri(1));
-        assertCantUpdate(PublicApkProvider.getContentUri(apks));
+        assertCantUpdate(PublicApkProvider.getApksUri());
         assertCantUpdate(Uri.withAppendedPath(ApkProvider.getContentUri(), "some-random-path"));
 
         // The only valid ones are:
@@ -215,6 +235,48 @@ public class ApkProviderTest extends BaseApkProviderTest {
         assertBelongsToRepo(queryAllApks(), REPO_KEEP);
     }
 
+    public void testPurgeRepo() {
+        TestUtils.insertApp(getMockContentResolver(), "org.fdroid.fdroid", "F-Droid");
+        insertApkForRepo("org.fdroid.fdroid", 1, REPO_KEEP);
+        insertApkForRepo("org.fdroid.fdroid", 2, REPO_DELETE);
+
+        for (int i = 1; i <= 5; i++) {
+            TestUtils.insertApp(getMockContentResolver(), "com.example." + i, "Example " + i);
+            insertApkForRepo("com.example." + i, 1, REPO_DELETE);
+        }
+
+        int appCount = RepoProvider.Helper.purgeApps(getMockContext(), new MockRepo(REPO_DELETE));
+        assertEquals(5, appCount);
+
+        assertTotalApkCount(1);
+        assertBelongsToRepo(queryAllApks(), REPO_KEEP);
+
+        for (int i = 1; i <= 5; i++) {
+            assertNull(AppProvider.Helper.findByPackageName(getMockContentResolver(), "com.example." + i));
+        }
+
+        // Still provided by the other repo, but its suggested version should now be from that repo.
+        App fdroid = AppProvider.Helper.findByPackageName(getMockContentResolver(), "org.fdroid.fdroid");
+        assertNotNull(fdroid);
+        assertEquals(1, fdroid.suggestedVercode);
+    }
+
+    public void testRemoveRepo() {
+        TestUtils.insertApp(getMockContentResolver(), "org.fdroid.fdroid", "F-Droid");
+        insertApkForRepo("org.fdroid.fdroid", 1, REPO_KEEP);
+        TestUtils.insertApp(getMockContentResolver(), "com.example", "Example");
+        insertApkForRepo("com.example", 1, REPO_DELETE);
+        assertNotNull(RepoProvider.Helper.findById(getMockContext(), REPO_DELETE));
+
+        int appCount = RepoProvider.Helper.remove(getMockContext(), REPO_DELETE);
+        assertEquals(1, appCount);
+
+        assertNull(RepoProvider.Helper.findById(getMockContext(), REPO_DELETE));
+        assertNotNull(RepoProvider.Helper.findById(getMockContext(), REPO_KEEP));
+        assertTotalApkCount(1);
+        assertNull(AppProvider.Helper.findByPackageName(getMockContentResolver(), "com.example"));
+    }
+
     public void testQuery() {
         Cursor cursor = queryAllApks();
         assertNotNull(cursor);
@@ -333,4 +395,33 @@ public class ApkProviderTest extends BaseApkProviderTest {
         assertEquals(10, apk.repo);
     }
 
+    public void testPermissionsFeaturesAndNativeCode() {
+        ContentValues first = new ContentValues();
+        first.put(ApkProvider.DataColumns.PERMISSIONS, "android.permission.INTERNET,android.permission.CAMERA");
+        first.put(ApkProvider.DataColumns.NATIVE_CODE, "armeabi,x86");
+        TestUtils.insertApk(this, "com.example", 1, first);
+
+        ContentValues second = new ContentValues();
+        second.put(ApkProvider.DataColumns.PERMISSIONS, "android.permission.CAMERA,android.permission.NFC");
+        second.put(ApkProvider.DataColumns.FEATURES, "android.hardware.nfc");
+        TestUtils.insertApk(this, "com.example", 2, second);
+
+        Apk one = ApkProvider.Helper.find(getMockContext(), "com.example", 1);
+        assertEquals("android.permission.INTERNET,android.permission.CAMERA", one.permissions.toString());
+        assertEquals("armeabi,x86", one.nativecode.toString());
+        assertNull(one.features);
+
+        Apk two = ApkProvider.Helper.find(getMockContext(), "com.example", 2);
+        assertEquals("android.permission.CAMERA,android.permission.NFC", two.permissions.toString());
+        assertEquals("android.hardware.nfc", two.features.toString());
+        assertNull(two.nativecode);
+
+        // Also decoded when the apks are looked up by key, which is done differently.
+        List<Apk> apks = ApkProvider.Helper.knownApks(getMockContext(), Arrays.asList(one, two), ApkProvider.DataColumns.ALL);
+        assertEquals(2, apks.size());
+        for (final Apk apk : apks) {
+            assertTrue(apk.permissions.contains("android.permission.CAMERA"));
+        }
+    }
+
 }
@@ -4,14 +4,20 @@ import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
 
 import org.fdroid.fdroid.data.ApkProvider;
 import org.fdroid.fdroid.data.App;
 import org.fdroid.fdroid.data.AppProvider;
+import org.fdroid.fdroid.data.DBHelper;
 import org.fdroid.fdroid.data.InstalledAppCacheUpdater;
+import org.fdroid.fdroid.data.LookupCache;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 import mock.MockCategoryResources;
 import mock.MockContextSwappableComponents;
@@ -103,6 +109,72 @@ public class AppProviderTest extends FDroidProviderTest<AppProvider> {
         assertValidUri(AppProvider.getContentUri("org.fdroid.fdroid"));
     }
 
+    public void testFindByPackageNameIsCachedUntilWrite() {
+        insertApp("org.fdroid.fdroid", "F-Droid");
+        ContentResolver r = getMockContentResolver();
+
+        int hits = LookupCache.hitCount();
+        App first = AppProvider.Helper.findByPackageName(r, "org.fdroid.fdroid");
+        App second = AppProvider.Helper.findByPackageName(r, "org.fdroid.fdroid");
+        assertEquals(hits + 1, LookupCache.hitCount());
+
+        // Each lookup should result in its own value object, even when served from the cache.
+        assertNotSame(first, second);
+        assertEquals("F-Droid", second.name);
+
+        ContentValues values = new ContentValues(1);
+        values.put(AppProvider.DataColumns.NAME, "F-Droid (renamed)");
+        r.update(AppProvider.getContentUri("org.fdroid.fdroid"), values, null, null);
+
+        assertEquals("F-Droid (renamed)", AppProvider.Helper.findByPackageName(r, "org.fdroid.fdroid").name);
+    }
+
+    /**
+     * Holds a write transaction open on a separate connection (as a repo update does while it
+     * commits), and makes sure that reading from the provider neither waits for it to finish,
+     * nor sees any of its uncommitted changes.
+     */
+    public void testReadsAreNotBlockedByCommit() {
+        if (Build.VERSION.SDK_INT < 11) {
+            // Write-ahead logging is not available, so reads will block.
+            return;
+        }
+
+        insertApp("org.fdroid.fdroid", "F-Droid");
+        String path = getMockContext().getDatabasePath(DBHelper.DATABASE_NAME).getPath();
+        SQLiteDatabase writer = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READWRITE);
+
+        // An uncommitted write on its own doesn't prove anything, readers can get past that
+        // without write-ahead logging too. The journal mode is stored in the database file,
+        // so this is what the provider's own connection is using as well.
+        assertEquals("wal", DatabaseUtils.stringForQuery(writer, "PRAGMA journal_mode", null).toLowerCase(Locale.ENGLISH));
+
+        // beginTransaction() is a BEGIN EXCLUSIVE, which (unlike just an uncommitted write)
+        // does keep out readers of a rollback journal, but not readers of a write-ahead log.
+        writer.beginTransaction();
+        try {
+            writer.execSQL("UPDATE " + DBHelper.TABLE_APP + " SET name = 'F-Droid (uncommitted)'");
+
+            long start = System.nanoTime();
+            String[] projection = {AppProvider.DataColumns.NAME};
+            Cursor cursor = getMockContentResolver().query(
+                    AppProvider.getContentUri("org.fdroid.fdroid"), projection, null, null, null);
+            long latencyMs = (System.nanoTime() - start) / 1000000;
+
+            assertNotNull(cursor);
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("F-Droid", cursor.getString(0));
+            cursor.close();
+
+            // SQLite would otherwise wait for its busy timeout before giving up on the lock.
+            assertTrue("Read took " + latencyMs + "ms while a write was in progress", latencyMs < 1000);
+        } finally {
+            writer.endTransaction();
+            writer.close();
+        }
+    }
+
     public void testQuery() {
         Cursor cursor = queryAllApps();
         assertNotNull(cursor);
@@ -286,6 +358,63 @@ public class AppProviderTest extends FDroidProviderTest<AppProvider> {
         assertEquals("F-Droid", app.name);
     }
 
+    public void testDescription() {
+        ContentResolver r = getMockContentResolver();
+        assertEquals("", AppProvider.Helper.findDescription(r, "org.fdroid.fdroid"));
+
+        insertApp("org.fdroid.fdroid", "F-Droid");
+        assertEquals("test description", AppProvider.Helper.findDescription(r, "org.fdroid.fdroid"));
+
+        ContentValues values = new ContentValues();
+        values.put(AppProvider.DataColumns.DESCRIPTION, "<p>Updated</p>");
+        r.update(AppProvider.getContentUri("org.fdroid.fdroid"), values, null, null);
+        assertEquals("<p>Updated</p>", AppProvider.Helper.findDescription(r, "org.fdroid.fdroid"));
+
+        // Only changing the description must not touch the rest of the app.
+        assertEquals("F-Droid", AppProvider.Helper.findByPackageName(r, "org.fdroid.fdroid").name);
+    }
+
+    public void testInsertDoesNotChangeValues() {
+        ContentValues values = new ContentValues();
+        values.put(AppProvider.DataColumns.DESCRIPTION, "<p>Kept</p>");
+        insertApp("org.fdroid.fdroid", "F-Droid", values);
+        assertEquals("<p>Kept</p>", values.getAsString(AppProvider.DataColumns.DESCRIPTION));
+    }
+
+    public void testSearchDescription() {
+        ContentValues values = new ContentValues();
+        values.put(AppProvider.DataColumns.DESCRIPTION, "<p>Plays <strong>Tetris</strong> blocks</p>");
+        insertApp("com.example.blocks", "Blocks", values);
+        insertApp("com.example.other", "Other");
+
+        assertSearchResults("tetris", "com.example.blocks");
+        assertSearchResults("TETRIS blocks", "com.example.blocks");
+        assertSearchResults("etri", "com.example.blocks");
+
+        // Only the text is searched, not the markup around it.
+        assertSearchResults("<strong>");
+        assertSearchResults("strong");
+
+        // Changing the description changes what it is found by.
+        values.put(AppProvider.DataColumns.DESCRIPTION, "<p>Plays chess</p>");
+        getMockContentResolver().update(AppProvider.getContentUri("com.example.blocks"), values, null, null);
+        assertSearchResults("tetris");
+        assertSearchResults("chess", "com.example.blocks");
+    }
+
+    private void assertSearchResults(String query, String... expectedPackageNames) {
+        Cursor cursor = getMockContentResolver().query(AppProvider.getSearchUri(query), getMinimalProjection(), null, null, null);
+        assertNotNull(cursor);
+        List<String> packageNames = new ArrayList<>();
+        cursor.moveToFirst();
+        while (!cursor.isAfterLast()) {
+            packageNames.add(new App(cursor).packageName);
+            cursor.moveToNext();
+        }
+        cursor.close();
+        TestUtils.assertContainsOnly(packageNames, expectedPackageNames);
+    }
+
     private Cursor queryAllApps() {
         return getMockContentResolver().query(AppProvider.getContentUri(), getMinimalProjection(), null, null, null);
     }
@@ -0,0 +1,140 @@
+package org.fdroid.fdroid;
+
+import android.annotation.TargetApi;
+import android.content.ContentProvider;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.test.AndroidTestCase;
+import android.test.mock.MockContentResolver;
+
+import org.fdroid.fdroid.views.fragments.CancellableCursorLoader;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@TargetApi(16)
+public class CancellableCursorLoaderTest extends AndroidTestCase {
+
+    private static final String AUTHORITY = "org.fdroid.fdroid.tests.blocking";
+
+    private BlockingProvider provider;
+    private CancellableCursorLoader loader;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        provider = new BlockingProvider();
+        provider.attachInfo(getContext(), null);
+
+        final MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider(AUTHORITY, provider);
+        Context context = new ContextWrapper(getContext()) {
+            @Override
+            public ContentResolver getContentResolver() {
+                return resolver;
+            }
+        };
+        loader = new CancellableCursorLoader(context, Uri.parse("content://" + AUTHORITY), null, null, null, null);
+    }
+
+    public void testSupersededQueryIsCancelled() throws InterruptedException {
+        if (Build.VERSION.SDK_INT < 16) {
+            return;
+        }
+
+        final Cursor[] result = new Cursor[1];
+        final CountDownLatch finished = new CountDownLatch(1);
+        new Thread() {
+            @Override
+            public void run() {
+                result[0] = loader.loadInBackground();
+                finished.countDown();
+            }
+        }.start();
+
+        // The query only finishes once it has been cancelled, see BlockingProvider.
+        assertTrue(provider.started.await(5, TimeUnit.SECONDS));
+        loader.cancelQuery();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+
+        assertNull(result[0]);
+        assertTrue(provider.cancelled);
+    }
+
+    public void testSupersededLoaderDoesNotQueryAgain() {
+        loader.cancelQuery();
+        assertNull(loader.loadInBackground());
+        assertEquals(0, provider.queries.get());
+    }
+
+    /**
+     * Each query blocks until its {@link CancellationSignal} is cancelled, like a search of
+     * a large catalogue would on a slow device.
+     */
+    private static class BlockingProvider extends ContentProvider {
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicInteger queries = new AtomicInteger();
+        volatile boolean cancelled;
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                            String sortOrder, CancellationSignal signal) {
+            queries.incrementAndGet();
+            started.countDown();
+            final CountDownLatch cancel = new CountDownLatch(1);
+            signal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    cancel.countDown();
+                }
+            });
+            try {
+                if (cancel.await(5, TimeUnit.SECONDS)) {
+                    cancelled = true;
+                }
+            } catch (InterruptedException e) {
+                // Fall through, and fail the test by not being cancelled.
+            }
+            signal.throwIfCanceled();
+            return null;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+            throw new UnsupportedOperationException("Queries must be given a CancellationSignal");
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return null;
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
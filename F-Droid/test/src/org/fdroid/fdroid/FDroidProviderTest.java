@@ -65,6 +65,10 @@ public abstract class FDroidProviderTest<T extends FDroidProvider> extends Provi
         // under test.
         getSwappableContext().setContentResolver(getMockContentResolver());
 
+        // Providers keep track of how much they have changed (see DatabaseMaintenance) in
+        // the shared preferences, which the mock context doesn't otherwise have.
+        getSwappableContext().setSharedPreferencesContext(getContext());
+
     }
 
     @TargetApi(Build.VERSION_CODES.ECLAIR)
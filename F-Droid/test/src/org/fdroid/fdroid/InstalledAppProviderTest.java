@@ -1,6 +1,7 @@
 package org.fdroid.fdroid;
 
 import android.content.ContentValues;
+import android.database.Cursor;
 
 import org.fdroid.fdroid.data.ApkProvider;
 import org.fdroid.fdroid.data.AppProvider;
@@ -121,6 +122,24 @@ public class InstalledAppProviderTest extends FDroidProviderTest<InstalledAppPro
 
     }
 
+    public void testBroadcastForCachedVersionIsSkipped() {
+
+        installAndBroadcast("com.example.cached", 1, "v1");
+        assertEquals("Mock app: com.example.cached", getCachedLabel("com.example.cached"));
+
+        ContentValues values = createContentValues("com.example.cached", 1, "v1");
+        values.put(InstalledAppProvider.DataColumns.APPLICATION_LABEL, "Previously cached label");
+        getMockContentResolver().insert(InstalledAppProvider.getContentUri(), values);
+
+        // Same version as is cached, so the label should not have been looked up again.
+        upgradeAndBroadcast("com.example.cached", 1, "v1");
+        assertEquals("Previously cached label", getCachedLabel("com.example.cached"));
+
+        upgradeAndBroadcast("com.example.cached", 2, "v2");
+        assertIsInstalledVersionInDb("com.example.cached", 2, "v2");
+        assertEquals("Mock app: com.example.cached", getCachedLabel("com.example.cached"));
+    }
+
     public void testDeleteWithBroadcast() {
 
         installAndBroadcast("com.example.toKeep", 1, "v0.1");
@@ -162,6 +181,18 @@ public class InstalledAppProviderTest extends FDroidProviderTest<InstalledAppPro
         return values;
     }
 
+    private String getCachedLabel(String appId) {
+        String[] projection = {InstalledAppProvider.DataColumns.APPLICATION_LABEL};
+        Cursor cursor = getMockContentResolver().query(
+                InstalledAppProvider.getAppUri(appId), projection, null, null, null);
+        assertNotNull(cursor);
+        assertEquals(1, cursor.getCount());
+        cursor.moveToFirst();
+        String label = cursor.getString(0);
+        cursor.close();
+        return label;
+    }
+
     private void insertInstalledApp(String appId, int versionCode, String versionNumber) {
         ContentValues values = createContentValues(appId, versionCode, versionNumber);
         getMockContentResolver().insert(InstalledAppProvider.getContentUri(), values);
@@ -20,11 +20,14 @@ import org.fdroid.fdroid.data.ApkProvider;
 import org.fdroid.fdroid.data.AppProvider;
 import org.fdroid.fdroid.data.Repo;
 import org.fdroid.fdroid.data.RepoProvider;
+import org.fdroid.fdroid.data.RepoStats;
 import org.fdroid.fdroid.data.TempApkProvider;
 import org.fdroid.fdroid.data.TempAppProvider;
 
 import java.io.File;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 public class MultiRepoUpdaterTest extends InstrumentationTestCase {
@@ -393,6 +396,34 @@ public class MultiRepoUpdaterTest extends InstrumentationTestCase {
         }
     }
 
+    public void testStatsUpdatedOnCommit() throws UpdateException {
+        assertEmpty();
+        if (updateMain() && updateArchive()) {
+            assertStats(mainRepoUpdater.repo);
+            assertStats(archiveRepoUpdater.repo);
+
+            RepoProvider.Helper.purgeApps(context, mainRepoUpdater.repo);
+            RepoStats purged = RepoProvider.Helper.getStats(context, mainRepoUpdater.repo.getId());
+            assertEquals(0, purged.appCount);
+            assertEquals(0, purged.apkCount);
+            assertTrue(purged.indexSize > 0);
+        }
+    }
+
+    private void assertStats(Repo repo) {
+        List<Apk> apks = ApkProvider.Helper.findByRepo(context, repo, ApkProvider.DataColumns.ALL);
+        Set<String> packageNames = new HashSet<>();
+        for (Apk apk : apks) {
+            packageNames.add(apk.packageName);
+        }
+
+        RepoStats stats = RepoProvider.Helper.getStats(context, repo.getId());
+        assertEquals(repo.getId(), stats.repoId);
+        assertEquals(packageNames.size(), stats.appCount);
+        assertEquals(apks.size(), stats.apkCount);
+        assertTrue(stats.indexSize > 0);
+    }
+
     private RepoUpdater createUpdater(String name, Context context) {
         Repo repo = new Repo();
         repo.pubkey = PUB_KEY;
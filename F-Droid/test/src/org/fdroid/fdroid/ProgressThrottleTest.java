@@ -0,0 +1,38 @@
+package org.fdroid.fdroid;
+
+import android.test.AndroidTestCase;
+
+public class ProgressThrottleTest extends AndroidTestCase {
+
+    public void testPercentStep() {
+        // No time limit, so only the percentage matters.
+        ProgressThrottle throttle = new ProgressThrottle(0, 10);
+
+        assertTrue(throttle.shouldReport(0, 1000));
+        assertFalse(throttle.shouldReport(50, 1000));
+        assertFalse(throttle.shouldReport(99, 1000));
+        assertTrue(throttle.shouldReport(100, 1000));
+        assertFalse(throttle.shouldReport(150, 1000));
+        assertTrue(throttle.shouldReport(250, 1000));
+
+        // Reaching the total is always reported.
+        assertTrue(throttle.shouldReport(1000, 1000));
+    }
+
+    public void testUnknownTotal() {
+        ProgressThrottle throttle = new ProgressThrottle(0, 10);
+        assertTrue(throttle.shouldReport(0, -1));
+        assertTrue(throttle.shouldReport(1, -1));
+        assertTrue(throttle.shouldReport(2, -1));
+    }
+
+    public void testInterval() {
+        ProgressThrottle throttle = new ProgressThrottle(60 * 1000, 0);
+        assertTrue(throttle.shouldReport(0, 1000));
+
+        // Nowhere near a minute has gone by.
+        assertFalse(throttle.shouldReport(500, 1000));
+        assertFalse(throttle.shouldReport(999, 1000));
+        assertTrue(throttle.shouldReport(1000, 1000));
+    }
+}
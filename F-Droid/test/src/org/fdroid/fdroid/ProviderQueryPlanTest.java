@@ -0,0 +1,313 @@
+package org.fdroid.fdroid;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.fdroid.fdroid.data.ApkProvider;
+import org.fdroid.fdroid.data.App;
+import org.fdroid.fdroid.data.AppProvider;
+import org.fdroid.fdroid.data.FDroidProvider;
+import org.fdroid.fdroid.data.InstalledAppProvider;
+import org.fdroid.fdroid.data.QueryPlan;
+import org.fdroid.fdroid.data.TempApkProvider;
+import org.fdroid.fdroid.data.TempAppProvider;
+import org.fdroid.fdroid.mock.MockApp;
+import org.fdroid.fdroid.mock.MockRepo;
+import org.fdroid.fdroid.views.fragments.AppListFragment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs "EXPLAIN QUERY PLAN" for the query behind each type of uri served by the
+ * {@link AppProvider} and {@link ApkProvider}, and fails if any of them scan a table which
+ * they are supposed to be looking up via an index. Nothing else notices when a change to a
+ * query (or to the tables) means it stops using an index, it just gets slower, and only
+ * noticeably so once there are as many apps as there are in the main repo.
+ */
+public class ProviderQueryPlanTest extends FDroidProviderTest<AppProvider> {
+
+    private static final String TAG = "ProviderQueryPlanTest";
+
+    private static final long REPO_ID = 1;
+
+    /**
+     * Matches both "SCAN TABLE fdroid_apk AS apk ..." from older versions of SQLite,
+     * and "SCAN apk ..." from newer ones. The alias is what gets reported where there is one.
+     */
+    private static final Pattern SCAN = Pattern.compile("^SCAN (?:TABLE )?(\\S+)(?: AS (\\S+))?");
+
+    private static final String[] APP_PROJECTION = AppListFragment.APP_PROJECTION;
+    private static final String APP_SORT = AppListFragment.APP_SORT;
+
+    private static final String[] APK_PROJECTION = ApkProvider.DataColumns.ALL;
+
+    private QueryPlanApkProvider apkProvider;
+
+    /**
+     * Exposes the uris which are otherwise only used by {@link ApkProvider.Helper}.
+     */
+    private static class QueryPlanApkProvider extends ApkProvider {
+
+        public static Uri getApksUri() {
+            return ApkProvider.getApksUri();
+        }
+
+        public static Uri getRepoAppsUri(long repoId) {
+            return ApkProvider.getRepoAppsUri(repoId);
+        }
+    }
+
+    public ProviderQueryPlanTest() {
+        super(AppProvider.class, AppProvider.getAuthority());
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        apkProvider = new QueryPlanApkProvider();
+        apkProvider.attachInfo(getMockContext(), null);
+
+        TempAppProvider tempAppProvider = new TempAppProvider();
+        tempAppProvider.attachInfo(getMockContext(), null);
+        getMockContentResolver().addProvider(TempAppProvider.getAuthority(), tempAppProvider);
+
+        TempApkProvider tempApkProvider = new TempApkProvider();
+        tempApkProvider.attachInfo(getMockContext(), null);
+        getMockContentResolver().addProvider(TempApkProvider.getAuthority(), tempApkProvider);
+    }
+
+    @Override
+    protected String[] getMinimalProjection() {
+        return new String[] {
+            AppProvider.DataColumns.PACKAGE_NAME,
+            AppProvider.DataColumns.NAME,
+        };
+    }
+
+    public void testQueryPlans() throws Exception {
+        insertApps(200, 3, 20);
+        assertQueryPlans();
+    }
+
+    /**
+     * Each repo update replaces the app and apk tables with copies, which used to be made
+     * without any of the indexes. The copies keep the names their indexes were created with,
+     * so the second update is the one which would clash with the names from the first.
+     */
+    public void testQueryPlansAfterRepoUpdate() throws Exception {
+        insertApps(200, 3, 20);
+
+        for (int i = 0; i < 2; i++) {
+            TempAppProvider.Helper.init(getMockContext());
+            TempApkProvider.Helper.init(getMockContext());
+            TempAppProvider.Helper.commitAppsAndApks(getMockContext(), new MockRepo(REPO_ID), 0, 0);
+            assertQueryPlans();
+        }
+    }
+
+    /**
+     * Doesn't assert anything about how long each query takes, because that depends entirely
+     * on the device. The timings are logged so that they can be compared between changes.
+     * Inserting the apps takes a long time, so this only runs when large tests are asked for
+     * (e.g. "-e size large").
+     */
+    @LargeTest
+    public void testBenchmark() throws Exception {
+        final long insertStart = System.currentTimeMillis();
+        insertApps(10000, 3, 300);
+        Log.i(TAG, "Inserted 10000 apps in " + (System.currentTimeMillis() - insertStart) + "ms");
+
+        benchmark(getProvider(), AppProvider.getContentUri(), APP_PROJECTION, null, APP_SORT);
+        benchmark(getProvider(), AppProvider.getContentUri("com.example.5000"), AppProvider.DataColumns.ALL, null, null);
+        benchmark(getProvider(), AppProvider.getSearchUri("5000"), APP_PROJECTION, null, APP_SORT);
+        benchmark(getProvider(), AppProvider.getSearchUri("example test"), APP_PROJECTION, null, APP_SORT);
+        benchmark(getProvider(), AppProvider.getCanUpdateUri(), APP_PROJECTION, null, APP_SORT);
+        benchmark(getProvider(), AppProvider.getInstalledUri(), APP_PROJECTION, null, APP_SORT);
+        benchmark(getProvider(), AppProvider.getRepoUri(new MockRepo(REPO_ID)), APP_PROJECTION, null, APP_SORT);
+        benchmark(getProvider(), AppProvider.getCategoryUri("Development"), APP_PROJECTION, null, APP_SORT);
+        benchmark(getProvider(), AppProvider.getIgnoredUri(), APP_PROJECTION, null, APP_SORT);
+        benchmark(getProvider(), AppProvider.getNoApksUri(), APP_PROJECTION, null, null);
+
+        benchmark(apkProvider, ApkProvider.getAppUri("com.example.5000"), APK_PROJECTION, null, null);
+        benchmark(apkProvider, ApkProvider.getContentUri("com.example.5000", 2), APK_PROJECTION, null, null);
+        benchmark(apkProvider, ApkProvider.getRepoUri(REPO_ID), APK_PROJECTION, null, null);
+        benchmark(apkProvider, QueryPlanApkProvider.getApksUri(), APK_PROJECTION, apkKeys(0, 2000), null);
+        benchmark(apkProvider, QueryPlanApkProvider.getRepoAppsUri(REPO_ID), APK_PROJECTION, appKeys(0, 2000), null);
+    }
+
+    private void assertQueryPlans() {
+        final Uri single = AppProvider.getContentUri("com.example.10");
+        final List<App> apps = Arrays.<App>asList(new MockApp("com.example.10"), new MockApp("com.example.20"), new MockApp("com.example.30"));
+
+        // Looking up particular apps should never scan anything.
+        assertScans(getProvider(), single, AppProvider.DataColumns.ALL, null, null);
+        assertScans(getProvider(), AppProvider.getContentUri(apps), APP_PROJECTION, null, APP_SORT);
+
+        // Everything else has to look at every app, but only once, and should find everything
+        // to do with each app (apks, repos, installed version) via an index.
+        assertScans(getProvider(), AppProvider.getContentUri(), APP_PROJECTION, null, APP_SORT, "fdroid_app");
+        assertScans(getProvider(), AppProvider.getRepoUri(new MockRepo(REPO_ID)), APP_PROJECTION, null, APP_SORT, "fdroid_app");
+        assertScans(getProvider(), AppProvider.getSearchUri("example"), APP_PROJECTION, null, APP_SORT, "fdroid_app");
+        assertScans(getProvider(), AppProvider.getSearchUri(new MockRepo(REPO_ID), "example"), APP_PROJECTION, null, APP_SORT, "fdroid_app");
+        assertScans(getProvider(), AppProvider.getCategoryUri("Development"), APP_PROJECTION, null, APP_SORT, "fdroid_app");
+        assertScans(getProvider(), AppProvider.getIgnoredUri(), APP_PROJECTION, null, APP_SORT, "fdroid_app");
+        assertScans(getProvider(), AppProvider.getNoApksUri(), APP_PROJECTION, null, null, "fdroid_app");
+        assertScans(getProvider(), AppProvider.getRecentlyUpdatedUri(), APP_PROJECTION, null, null, "fdroid_app");
+        assertScans(getProvider(), AppProvider.getNewlyAddedUri(), APP_PROJECTION, null, null, "fdroid_app");
+
+        // It is up to SQLite whether to go through the apps or the installed apps first.
+        assertScans(getProvider(), AppProvider.getCanUpdateUri(), APP_PROJECTION, null, APP_SORT, "fdroid_app", "installed");
+        assertScans(getProvider(), AppProvider.getInstalledUri(), APP_PROJECTION, null, APP_SORT, "fdroid_app", "installed");
+        assertScans(getProvider(), AppProvider.getSearchCanUpdateUri("example"), APP_PROJECTION, null, APP_SORT, "fdroid_app", "installed");
+        assertScans(getProvider(), AppProvider.getSearchInstalledUri("example"), APP_PROJECTION, null, APP_SORT, "fdroid_app", "installed");
+
+        assertScans(apkProvider, ApkProvider.getAppUri("com.example.10"), APK_PROJECTION, null, null);
+        assertScans(apkProvider, ApkProvider.getContentUri("com.example.10", 2), APK_PROJECTION, null, null);
+        assertScans(apkProvider, ApkProvider.getRepoUri(REPO_ID), APK_PROJECTION, null, null);
+        assertScans(apkProvider, ApkProvider.getContentUri(), APK_PROJECTION, null, null, "apk");
+
+        // The keys are what is being looked for, so going through them is expected.
+        assertScans(apkProvider, QueryPlanApkProvider.getApksUri(), APK_PROJECTION, apkKeys(0, 50), null, "apkKeys");
+        assertScans(apkProvider, QueryPlanApkProvider.getRepoAppsUri(REPO_ID), APK_PROJECTION, appKeys(0, 50), null, "appKeys");
+    }
+
+    /**
+     * Fails if the query for {@code uri} scans any table other than one of {@code scannable},
+     * or scans more than one table, or needs SQLite to build a temporary index because there
+     * isn't a suitable one.
+     */
+    private void assertScans(FDroidProvider provider, Uri uri, String[] projection, String[] selectionArgs, String sortOrder, String... scannable) {
+        final List<String> plan = QueryPlan.explain(provider, uri, projection, selectionArgs, sortOrder);
+        final String message = "Query plan for " + uri + ":\n" + TextUtils.join("\n", plan);
+
+        final List<String> scanned = new ArrayList<>();
+        for (final String step : plan) {
+            assertFalse(message, step.contains("AUTOMATIC"));
+
+            final Matcher matcher = SCAN.matcher(step);
+            if (matcher.find()) {
+                final String table = matcher.group(2) != null ? matcher.group(2) : matcher.group(1);
+                if (!table.equals("SUBQUERY") && !table.equals("CONSTANT")) {
+                    scanned.add(table);
+                }
+            }
+        }
+
+        assertTrue(message, scanned.size() <= 1);
+        for (final String table : scanned) {
+            assertTrue(message, Arrays.asList(scannable).contains(table));
+        }
+    }
+
+    private void benchmark(FDroidProvider provider, Uri uri, String[] projection, String[] selectionArgs, String sortOrder) {
+        final long start = System.currentTimeMillis();
+        final Cursor cursor = provider.query(uri, projection, null, selectionArgs, sortOrder);
+        assertNotNull(cursor);
+        final int count = cursor.getCount();
+        cursor.close();
+        Log.i(TAG, uri + " returned " + count + " rows in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Every app gets {@code apksPerApp} apks, all in the same repo, and every
+     * {@code installedEvery}th app is installed at an older version than the latest apk.
+     */
+    private void insertApps(int appCount, int apksPerApp, int installedEvery) throws Exception {
+        final ArrayList<ContentProviderOperation> apps = new ArrayList<>();
+        final ArrayList<ContentProviderOperation> apks = new ArrayList<>();
+        final ArrayList<ContentProviderOperation> installed = new ArrayList<>();
+
+        for (int i = 0; i < appCount; i++) {
+            final String packageName = "com.example." + i;
+            apps.add(ContentProviderOperation.newInsert(AppProvider.getContentUri())
+                    .withValues(appValues(packageName, "Example " + i, apksPerApp))
+                    .build());
+
+            for (int versionCode = 1; versionCode <= apksPerApp; versionCode++) {
+                apks.add(ContentProviderOperation.newInsert(ApkProvider.getContentUri())
+                        .withValues(apkValues(packageName, versionCode))
+                        .build());
+            }
+
+            if (i % installedEvery == 0) {
+                installed.add(ContentProviderOperation.newInsert(InstalledAppProvider.getContentUri())
+                        .withValues(installedValues(packageName))
+                        .build());
+            }
+        }
+
+        getMockContentResolver().applyBatch(AppProvider.getAuthority(), apps);
+        getMockContentResolver().applyBatch(ApkProvider.getAuthority(), apks);
+        getMockContentResolver().applyBatch(InstalledAppProvider.getAuthority(), installed);
+    }
+
+    private static ContentValues appValues(String packageName, String name, int suggestedVercode) {
+        ContentValues values = new ContentValues();
+        values.put(AppProvider.DataColumns.PACKAGE_NAME, packageName);
+        values.put(AppProvider.DataColumns.NAME, name);
+        values.put(AppProvider.DataColumns.SUMMARY, "test summary");
+        values.put(AppProvider.DataColumns.DESCRIPTION, "test description");
+        values.put(AppProvider.DataColumns.LICENSE, "GPL?");
+        values.put(AppProvider.DataColumns.CATEGORIES, "Development,Internet");
+        values.put(AppProvider.DataColumns.SUGGESTED_VERSION_CODE, suggestedVercode);
+        values.put(AppProvider.DataColumns.UPSTREAM_VERSION_CODE, suggestedVercode);
+        values.put(AppProvider.DataColumns.IS_COMPATIBLE, 1);
+        values.put(AppProvider.DataColumns.IGNORE_ALLUPDATES, 0);
+        values.put(AppProvider.DataColumns.IGNORE_THISUPDATE, 0);
+        return values;
+    }
+
+    private static ContentValues apkValues(String packageName, int versionCode) {
+        ContentValues values = new ContentValues();
+        values.put(ApkProvider.DataColumns.PACKAGE_NAME, packageName);
+        values.put(ApkProvider.DataColumns.VERSION_CODE, versionCode);
+        values.put(ApkProvider.DataColumns.REPO_ID, REPO_ID);
+        values.put(ApkProvider.DataColumns.VERSION, "v" + versionCode);
+        values.put(ApkProvider.DataColumns.HASH, "11111111aaaaaaaa");
+        values.put(ApkProvider.DataColumns.NAME, packageName + "_" + versionCode + ".apk");
+        values.put(ApkProvider.DataColumns.SIZE, 10000);
+        values.put(ApkProvider.DataColumns.IS_COMPATIBLE, 1);
+        return values;
+    }
+
+    private static ContentValues installedValues(String packageName) {
+        ContentValues values = new ContentValues();
+        values.put(InstalledAppProvider.DataColumns.PACKAGE_NAME, packageName);
+        values.put(InstalledAppProvider.DataColumns.VERSION_CODE, 1);
+        values.put(InstalledAppProvider.DataColumns.VERSION_NAME, "v1");
+        values.put(InstalledAppProvider.DataColumns.APPLICATION_LABEL, packageName);
+        values.put(InstalledAppProvider.DataColumns.SIGNATURE, "0123456789abcdef");
+        return values;
+    }
+
+    /**
+     * The latest apk of each app from {@code first} to {@code last}, in the format expected by
+     * {@link QueryPlanApkProvider#getApksUri()}.
+     */
+    private static String[] apkKeys(int first, int last) {
+        final List<String> keys = new ArrayList<>();
+        for (int i = first; i < last; i++) {
+            keys.add("com.example." + i);
+            keys.add("3");
+        }
+        return keys.toArray(new String[keys.size()]);
+    }
+
+    private static String[] appKeys(int first, int last) {
+        final List<String> keys = new ArrayList<>();
+        for (int i = first; i < last; i++) {
+            keys.add("com.example." + i);
+        }
+        return keys.toArray(new String[keys.size()]);
+    }
+}
@@ -3,6 +3,10 @@ package org.fdroid.fdroid;
 
 import android.test.AndroidTestCase;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 public class UtilsTest extends AndroidTestCase {
 
     String fdroidFingerprint = "43238D512C1E5EB2D6569F4A3AFBF5523418B82E0A3ED1552770ABB9A9C9CCAB";
@@ -126,4 +130,45 @@ public class UtilsTest extends AndroidTestCase {
     public void testCalcFingerprintCertificate() {
         // TODO write tests that work with a Certificate
     }
+
+    public void testCommaSeparatedList() {
+        assertNull(Utils.CommaSeparatedList.make((String) null));
+        assertNull(Utils.CommaSeparatedList.make(""));
+        assertNull(Utils.CommaSeparatedList.make(new String[] {}));
+        assertNull(Utils.CommaSeparatedList.make(new ArrayList<String>()));
+
+        Utils.CommaSeparatedList list = Utils.CommaSeparatedList.make("one,two,three");
+        assertEquals("one,two,three", list.toString());
+        assertEquals("one, two, three", list.toPrettyString());
+        assertEquals("one,two,three", Utils.CommaSeparatedList.str(list));
+        assertNull(Utils.CommaSeparatedList.str(null));
+        assertTrue(list.contains("two"));
+        assertFalse(list.contains("tw"));
+        assertFalse(list.contains("one,two"));
+        assertEquals("one,two,three", Utils.CommaSeparatedList.make(new String[] {"one", "two", "three"}).toString());
+        assertEquals("one,two,three", Utils.CommaSeparatedList.make(Arrays.asList("one", "two", "three")).toString());
+
+        assertItems(Utils.CommaSeparatedList.make("single"), "single");
+        assertItems(Utils.CommaSeparatedList.make("a,,b"), "a", "", "b");
+        assertItems(Utils.CommaSeparatedList.make(",a"), "", "a");
+        assertItems(Utils.CommaSeparatedList.make("a,"), "a");
+        assertItems(Utils.CommaSeparatedList.make("a,,"), "a", "");
+
+        // Longer lists are looked up differently, but must give the same answers.
+        Utils.CommaSeparatedList permissions = Utils.CommaSeparatedList.make("p0,p1,p2,p3,p4,p5,p6,p7,p8,p9");
+        for (int i = 0; i < 10; i++) {
+            assertTrue(permissions.contains("p" + i));
+        }
+        assertFalse(permissions.contains("p10"));
+        assertFalse(permissions.contains(null));
+    }
+
+    private static void assertItems(Utils.CommaSeparatedList list, String... expected) {
+        List<String> actual = new ArrayList<>();
+        for (final String item : list) {
+            actual.add(item);
+        }
+        assertEquals(Arrays.asList(expected), actual);
+        assertEquals(expected.length, list.size());
+    }
 }
@@ -0,0 +1,158 @@
+package org.fdroid.fdroid.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.ContextWrapper;
+import android.database.ContentObserver;
+import android.database.sqlite.SQLiteException;
+import android.net.Uri;
+import android.test.mock.MockContentResolver;
+
+import org.fdroid.fdroid.FDroidProviderTest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Changes made as part of a batch are only published once it has been committed, and once
+ * there are more than {@link FDroidProvider#MAX_INDIVIDUAL_CHANGES} of them, only for the
+ * provider as a whole.
+ */
+public class BatchNotificationTest extends FDroidProviderTest<AppProvider> {
+
+    private final List<Uri> published = new ArrayList<>();
+
+    /**
+     * Whatever had been published by the time each app in the batch was inserted.
+     */
+    private final List<Uri> publishedDuringBatch = new ArrayList<>();
+
+    private RecordingAppProvider provider;
+
+    public BatchNotificationTest() {
+        super(AppProvider.class, AppProvider.getAuthority());
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        // The mock content resolver drops every notification, so this one writes them down.
+        final MockContentResolver resolver = new MockContentResolver() {
+            @Override
+            public void notifyChange(Uri uri, ContentObserver observer, boolean syncToNetwork) {
+                published.add(uri);
+            }
+        };
+
+        provider = new RecordingAppProvider();
+        provider.attachInfo(new ContextWrapper(getMockContext()) {
+            @Override
+            public ContentResolver getContentResolver() {
+                return resolver;
+            }
+        }, null);
+    }
+
+    @Override
+    protected String[] getMinimalProjection() {
+        return new String[] {
+            AppProvider.DataColumns.PACKAGE_NAME,
+            AppProvider.DataColumns.NAME,
+        };
+    }
+
+    public void testCoalesceUpToThreshold() {
+        final List<Uri> uris = appUris(FDroidProvider.MAX_INDIVIDUAL_CHANGES);
+        assertEquals(uris, FDroidProvider.coalesce(uris));
+    }
+
+    public void testCoalesceAboveThreshold() {
+        final List<Uri> uris = appUris(FDroidProvider.MAX_INDIVIDUAL_CHANGES + 1);
+        assertEquals(Collections.singletonList(AppProvider.getContentUri()), FDroidProvider.coalesce(uris));
+    }
+
+    /**
+     * Observers of a uri hear about changes to its descendants too, so only the ancestor is
+     * kept. Each provider is counted separately.
+     */
+    public void testCoalesceDescendants() {
+        final List<Uri> uris = Arrays.asList(
+                AppProvider.getContentUri("com.example.1"),
+                AppProvider.getContentUri(),
+                AppProvider.getContentUri("com.example.2"),
+                ApkProvider.getAppUri("com.example.1"));
+        final List<Uri> expected = Arrays.asList(AppProvider.getContentUri(), ApkProvider.getAppUri("com.example.1"));
+        assertEquals(new HashSet<>(expected), new HashSet<>(FDroidProvider.coalesce(uris)));
+    }
+
+    public void testSmallBatch() throws Exception {
+        provider.applyBatch(insertApps(2));
+
+        assertTrue(publishedDuringBatch.isEmpty());
+        assertEquals(appUris(2), published);
+    }
+
+    public void testLargeBatch() throws Exception {
+        provider.applyBatch(insertApps(FDroidProvider.MAX_INDIVIDUAL_CHANGES + 1));
+
+        assertTrue(publishedDuringBatch.isEmpty());
+        assertEquals(Collections.singletonList(AppProvider.getContentUri()), published);
+    }
+
+    /**
+     * Nothing is published for a batch which is rolled back, not even what had been applied
+     * before it failed.
+     */
+    public void testFailedBatch() throws Exception {
+        final ArrayList<ContentProviderOperation> operations = insertApps(2);
+        operations.add(operations.get(0));
+        try {
+            provider.applyBatch(operations);
+            fail("Inserting the same app twice should have failed");
+        } catch (SQLiteException e) {
+            // Expected.
+        }
+
+        assertTrue(published.isEmpty());
+    }
+
+    private static List<Uri> appUris(int count) {
+        final List<Uri> uris = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            uris.add(AppProvider.getContentUri("com.example." + i));
+        }
+        return uris;
+    }
+
+    private static ArrayList<ContentProviderOperation> insertApps(int count) {
+        final ArrayList<ContentProviderOperation> operations = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            final ContentValues values = new ContentValues();
+            values.put(AppProvider.DataColumns.PACKAGE_NAME, "com.example." + i);
+            values.put(AppProvider.DataColumns.NAME, "Example " + i);
+            values.put(AppProvider.DataColumns.SUMMARY, "test summary");
+            values.put(AppProvider.DataColumns.DESCRIPTION, "test description");
+            values.put(AppProvider.DataColumns.LICENSE, "GPL?");
+            values.put(AppProvider.DataColumns.IS_COMPATIBLE, 1);
+            values.put(AppProvider.DataColumns.IGNORE_ALLUPDATES, 0);
+            values.put(AppProvider.DataColumns.IGNORE_THISUPDATE, 0);
+            operations.add(ContentProviderOperation.newInsert(AppProvider.getContentUri()).withValues(values).build());
+        }
+        return operations;
+    }
+
+    private class RecordingAppProvider extends AppProvider {
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            final Uri result = super.insert(uri, values);
+            publishedDuringBatch.addAll(published);
+            return result;
+        }
+    }
+}
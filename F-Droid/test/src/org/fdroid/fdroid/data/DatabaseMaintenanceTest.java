@@ -0,0 +1,63 @@
+package org.fdroid.fdroid.data;
+
+import org.fdroid.fdroid.FDroidProviderTest;
+import org.fdroid.fdroid.TestUtils;
+import org.fdroid.fdroid.mock.MockRepo;
+
+public class DatabaseMaintenanceTest extends FDroidProviderTest<ApkProvider> {
+
+    private static final long REPO_ID = 1;
+
+    public DatabaseMaintenanceTest() {
+        super(ApkProvider.class, ApkProvider.getAuthority());
+    }
+
+    @Override
+    protected String[] getMinimalProjection() {
+        return new String[] {
+            ApkProvider.DataColumns.PACKAGE_NAME,
+            ApkProvider.DataColumns.VERSION_CODE,
+        };
+    }
+
+    public void testThreshold() {
+        assertFalse(DatabaseMaintenance.isDue(0, true));
+        assertFalse(DatabaseMaintenance.isDue(DatabaseMaintenance.CHURN_THRESHOLD - 1, true));
+        assertTrue(DatabaseMaintenance.isDue(DatabaseMaintenance.CHURN_THRESHOLD, true));
+    }
+
+    /**
+     * Nothing can write to the database while it is vacuumed, so it waits for the device
+     * to be idle however much has changed.
+     */
+    public void testOnlyWhenIdle() {
+        assertFalse(DatabaseMaintenance.isDue(DatabaseMaintenance.CHURN_THRESHOLD, false));
+        assertFalse(DatabaseMaintenance.isDue(DatabaseMaintenance.CHURN_THRESHOLD * 10, false));
+    }
+
+    public void testPurgeCountsAsChurn() {
+        for (int i = 1; i <= 3; i++) {
+            TestUtils.insertApp(getMockContentResolver(), "com.example." + i, "Example " + i);
+            TestUtils.insertApk(this, "com.example." + i, 1);
+            TestUtils.insertApk(this, "com.example." + i, 2);
+        }
+
+        final long before = DatabaseMaintenance.getChurn(getMockContext());
+        RepoProvider.Helper.purgeApps(getMockContext(), new MockRepo(REPO_ID));
+
+        // 6 apks, and then the 3 apps which were left without any.
+        assertEquals(before + 9, DatabaseMaintenance.getChurn(getMockContext()));
+    }
+
+    /**
+     * Only what has been counted up to when it starts is taken off again afterwards.
+     */
+    public void testPerformResetsChurn() {
+        DatabaseMaintenance.recordChurn(getMockContext(), DatabaseMaintenance.CHURN_THRESHOLD);
+        DatabaseMaintenance.perform(getMockContext());
+        assertEquals(0, DatabaseMaintenance.getChurn(getMockContext()));
+
+        DatabaseMaintenance.recordChurn(getMockContext(), 10);
+        assertEquals(10, DatabaseMaintenance.getChurn(getMockContext()));
+    }
+}
@@ -0,0 +1,60 @@
+package org.fdroid.fdroid.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lives in the same package as the providers, so that it can get at the query they build for
+ * a uri, and at the database to run it against. Nothing in the app needs this, it is so that
+ * tests can notice when a query which is run all the time stops using an index.
+ */
+public final class QueryPlan {
+
+    private QueryPlan() { }
+
+    /**
+     * Describes how SQLite would go about answering the query for this uri, one line per step
+     * (e.g. "SEARCH TABLE fdroid_app USING INDEX ..." or "SCAN TABLE fdroid_apk").
+     *
+     * Runs within a transaction which is rolled back again, so that any keys the query loads
+     * into a temporary table (see {@link FDroidProvider#loadKeys(String, String[], String[])})
+     * are there for it to be explained with, the same as when it is run.
+     */
+    public static List<String> explain(FDroidProvider provider, Uri uri, String[] projection, String[] selectionArgs, String sortOrder) {
+        final SQLiteDatabase db = provider.write();
+        db.beginTransaction();
+        try {
+            final QueryBuilder query = buildQuery(provider, uri, projection, selectionArgs, sortOrder);
+            final List<String> plan = new ArrayList<>();
+            Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + query.toString(), query.getSelectionArgs());
+            try {
+                final int detail = cursor.getColumnIndexOrThrow("detail");
+                while (cursor.moveToNext()) {
+                    plan.add(cursor.getString(detail));
+                }
+            } finally {
+                cursor.close();
+            }
+            return plan;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Only the {@link AppProvider} and {@link ApkProvider} build their queries with a
+     * {@link QueryBuilder}, the rest go straight to the database.
+     */
+    private static QueryBuilder buildQuery(FDroidProvider provider, Uri uri, String[] projection, String[] selectionArgs, String sortOrder) {
+        if (provider instanceof AppProvider) {
+            return ((AppProvider) provider).buildQuery(uri, projection, null, selectionArgs, sortOrder);
+        } else if (provider instanceof ApkProvider) {
+            return ((ApkProvider) provider).buildQuery(uri, projection, null, selectionArgs, sortOrder);
+        }
+        throw new IllegalArgumentException(provider.getClass().getSimpleName() + " doesn't build its queries with a QueryBuilder");
+    }
+}
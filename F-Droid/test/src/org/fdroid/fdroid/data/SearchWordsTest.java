@@ -0,0 +1,42 @@
+package org.fdroid.fdroid.data;
+
+import android.test.AndroidTestCase;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+public class SearchWordsTest extends AndroidTestCase {
+
+    public void testWords() {
+        assertWords("<p>Plays <strong>Tetris</strong>, with blocks.</p>", "plays", "tetris", "with", "blocks");
+        assertWords("<p>One</p><p>two<br/>three</p><ul><li>four</li></ul>", "one", "two", "three", "four");
+        assertWords("The same word, the same WORD", "the", "same", "word");
+    }
+
+    /**
+     * Tags which don't start a new line are part of the word they are in.
+     */
+    public void testInlineTags() {
+        assertWords("<b>F</b>-Droid <a href=\"https://f-droid.org\">website</a>", "f-droid", "website");
+    }
+
+    /**
+     * Anything which isn't a known entity is left as it is, and a lone "&" is part of "at&t".
+     */
+    public void testEntities() {
+        assertWords("AT&amp;T &lt;3&nbsp;caf&#233; &#x41;pps &bogus; 5 &", "at&t", "<3", "caf\u00e9", "apps", "&bogus", "5");
+    }
+
+    /**
+     * Searches look for keywords anywhere within the words, so "app" would be found within "apps".
+     */
+    public void testPartWordsLeftOut() {
+        assertWords("An app, and more apps", "and", "more", "apps");
+    }
+
+    private static void assertWords(String html, String... expected) {
+        final Set<String> actual = new HashSet<>(Arrays.asList(SearchWords.from(html).split(" ")));
+        assertEquals(new HashSet<>(Arrays.asList(expected)), actual);
+    }
+}
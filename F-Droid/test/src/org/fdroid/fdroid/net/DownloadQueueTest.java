@@ -0,0 +1,249 @@
+package org.fdroid.fdroid.net;
+
+import android.os.Looper;
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class DownloadQueueTest extends AndroidTestCase {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    private DownloadQueue queue;
+
+    /**
+     * The url of each {@link FakeDownloader}, in the order they were started.
+     */
+    private final BlockingQueue<String> started = new LinkedBlockingQueue<>();
+
+    private final List<FakeDownloader> downloaders = new ArrayList<>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // Each AsyncDownloadWrapper is a Handler, which needs a Looper to be created on.
+        if (Looper.myLooper() == null) {
+            Looper.prepare();
+        }
+        queue = new DownloadQueue();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (final FakeDownloader downloader : downloaders) {
+            downloader.finish();
+        }
+        super.tearDown();
+    }
+
+    public void testMaxRunningPerHost() throws Exception {
+        final FakeDownloader first = add("http://a.example.com/1.apk", DownloadQueue.PRIORITY_NORMAL);
+        add("http://a.example.com/2.apk", DownloadQueue.PRIORITY_NORMAL);
+        add("http://a.example.com/3.apk", DownloadQueue.PRIORITY_NORMAL);
+        add("http://b.example.com/1.apk", DownloadQueue.PRIORITY_NORMAL);
+
+        // The third from the same host waits, even though there is room for it overall.
+        assertStarted("http://a.example.com/1.apk", "http://a.example.com/2.apk", "http://b.example.com/1.apk");
+        assertNothingElseStarted();
+
+        first.finish();
+        assertStarted("http://a.example.com/3.apk");
+    }
+
+    public void testPriority() throws Exception {
+        final FakeDownloader first = add("http://a.example.com/1.apk", DownloadQueue.PRIORITY_NORMAL);
+        final FakeDownloader second = add("http://b.example.com/1.apk", DownloadQueue.PRIORITY_NORMAL);
+        final FakeDownloader third = add("http://c.example.com/1.apk", DownloadQueue.PRIORITY_NORMAL);
+        assertStarted("http://a.example.com/1.apk", "http://b.example.com/1.apk", "http://c.example.com/1.apk");
+
+        // Each of these has to wait for one of the others to finish.
+        add("http://d.example.com/normal1.apk", DownloadQueue.PRIORITY_NORMAL);
+        add("http://d.example.com/high.apk", DownloadQueue.PRIORITY_HIGH);
+        final FakeDownloader raised = add("http://d.example.com/normal2.apk", DownloadQueue.PRIORITY_NORMAL);
+        add("http://d.example.com/normal3.apk", DownloadQueue.PRIORITY_NORMAL);
+        assertNothingElseStarted();
+
+        first.finish();
+        assertStarted("http://d.example.com/high.apk");
+        queue.setPriority(raised.wrapper, DownloadQueue.PRIORITY_HIGH);
+
+        second.finish();
+        assertStarted("http://d.example.com/normal2.apk");
+        third.finish();
+        assertNothingElseStarted();
+    }
+
+    /**
+     * Whoever cancels a download must not hear that it has been cancelled until it has
+     * actually stopped.
+     */
+    public void testCancelledOnceStopped() throws Exception {
+        final FakeDownloader downloader = add("http://a.example.com/1.apk", DownloadQueue.PRIORITY_NORMAL);
+        assertStarted("http://a.example.com/1.apk");
+
+        queue.cancel(downloader.wrapper);
+        assertTrue(downloader.interrupted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertNull(downloader.wrapper.results.poll(100, TimeUnit.MILLISECONDS));
+
+        downloader.finish();
+        assertEquals(Integer.valueOf(AsyncDownloadWrapper.MSG_DOWNLOAD_CANCELLED),
+                downloader.wrapper.results.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Those which can be downloaded again are stopped, and carry on once resumed, along with
+     * anything that was added in the meantime. Those which can't are left to finish.
+     */
+    public void testPauseAndResume() throws Exception {
+        final FakeDownloader http = new FakeDownloader(new URL("http://a.example.com/1.apk"));
+        http.stopsWhenInterrupted = true;
+        add(http, DownloadQueue.PRIORITY_NORMAL);
+        final FakeDownloader bluetooth = new FakeDownloader(new URL("http://b.example.com/1.apk"));
+        bluetooth.canDownloadAgain = false;
+        add(bluetooth, DownloadQueue.PRIORITY_NORMAL);
+        assertStarted("http://a.example.com/1.apk", "http://b.example.com/1.apk");
+
+        queue.pause();
+        assertTrue(queue.isPaused());
+        assertTrue(http.interrupted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertFalse(bluetooth.interrupted.await(100, TimeUnit.MILLISECONDS));
+        add("http://c.example.com/1.apk", DownloadQueue.PRIORITY_NORMAL);
+        assertNothingElseStarted();
+        assertNull(http.wrapper.results.poll(100, TimeUnit.MILLISECONDS));
+
+        bluetooth.finish();
+        assertEquals(Integer.valueOf(AsyncDownloadWrapper.MSG_DOWNLOAD_COMPLETE),
+                bluetooth.wrapper.results.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertNothingElseStarted();
+
+        queue.resume();
+        assertFalse(queue.isPaused());
+        assertStarted("http://a.example.com/1.apk", "http://c.example.com/1.apk");
+        http.finish();
+        assertEquals(Integer.valueOf(AsyncDownloadWrapper.MSG_DOWNLOAD_COMPLETE),
+                http.wrapper.results.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    private FakeDownloader add(String url, int priority) throws IOException {
+        final FakeDownloader downloader = new FakeDownloader(new URL(url));
+        add(downloader, priority);
+        return downloader;
+    }
+
+    private void add(FakeDownloader downloader, int priority) {
+        downloaders.add(downloader);
+        queue.add(downloader.wrapper, downloader, priority);
+    }
+
+    private void assertStarted(String... urls) throws InterruptedException {
+        final Set<String> expected = new HashSet<>(Arrays.asList(urls));
+        final Set<String> actual = new HashSet<>();
+        for (int i = 0; i < urls.length; i++) {
+            final String url = started.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            assertNotNull("Only " + actual + " started, expected " + expected, url);
+            actual.add(url);
+        }
+        assertEquals(expected, actual);
+    }
+
+    private void assertNothingElseStarted() throws InterruptedException {
+        assertNull(started.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    private static class RecordingWrapper extends AsyncDownloadWrapper {
+
+        final BlockingQueue<Integer> results = new LinkedBlockingQueue<>();
+
+        RecordingWrapper(Downloader downloader) {
+            super(downloader, null);
+        }
+
+        @Override
+        void sendResult(int messageType, String error) {
+            results.add(messageType);
+        }
+    }
+
+    /**
+     * Downloads nothing, and only finishes once it is told to, whether it has been
+     * interrupted or not, unless it {@link #stopsWhenInterrupted}.
+     */
+    private class FakeDownloader extends Downloader {
+
+        final RecordingWrapper wrapper = new RecordingWrapper(this);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        private final CountDownLatch finish = new CountDownLatch(1);
+        boolean stopsWhenInterrupted;
+        boolean canDownloadAgain = true;
+
+        FakeDownloader(URL url) throws IOException {
+            super(getContext(), url, new File(getContext().getCacheDir(), "fake.apk"));
+        }
+
+        void finish() {
+            finish.countDown();
+        }
+
+        @Override
+        public void download() throws IOException, InterruptedException {
+            started.add(sourceUrl.toString());
+            boolean wasInterrupted = false;
+            while (true) {
+                try {
+                    if (finish.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                        break;
+                    }
+                } catch (InterruptedException e) {
+                    wasInterrupted = true;
+                    interrupted.countDown();
+                    if (stopsWhenInterrupted) {
+                        break;
+                    }
+                }
+            }
+            if (wasInterrupted) {
+                throw new InterruptedException();
+            }
+        }
+
+        @Override
+        boolean canDownloadAgain() {
+            return canDownloadAgain;
+        }
+
+        @Override
+        protected InputStream getDownloadersInputStream() throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void close() { }
+
+        @Override
+        public boolean hasChanged() {
+            return true;
+        }
+
+        @Override
+        public int totalDownloadSize() {
+            return 0;
+        }
+
+        @Override
+        public boolean isCached() {
+            return false;
+        }
+    }
+}
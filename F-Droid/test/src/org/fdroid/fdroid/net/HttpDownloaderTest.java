@@ -0,0 +1,52 @@
+package org.fdroid.fdroid.net;
+
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+
+public class HttpDownloaderTest extends AndroidTestCase {
+
+    /**
+     * Nothing listens on this port, so every connection to it is refused.
+     */
+    private static final String REFUSED_URL = "http://127.0.0.1:1/icon.png";
+
+    public void testFailedConnectionIsReleased() throws IOException {
+        final URL url = new URL(REFUSED_URL);
+        final File file = new File(getContext().getCacheDir(), "icon.png");
+        final int available = HttpConnectionPool.getAvailableConnections(url, null);
+
+        // More times than there are connections to go round, so that this would wait for
+        // one which was never released if they weren't.
+        for (int i = 0; i <= HttpConnectionPool.MAX_CONNECTIONS_PER_HOST; i++) {
+            final HttpDownloader downloader = new DirectHttpDownloader(url, file);
+            try {
+                downloader.getInputStream();
+                fail();
+            } catch (IOException e) {
+                // Expected, nothing is listening.
+            }
+            assertNull(downloader.connection);
+            assertEquals(available, HttpConnectionPool.getAvailableConnections(url, null));
+        }
+    }
+
+    /**
+     * Connects without a proxy, whatever the preferences say.
+     */
+    private class DirectHttpDownloader extends HttpDownloader {
+
+        DirectHttpDownloader(URL url, File file) throws IOException {
+            super(getContext(), url, file);
+        }
+
+        @Override
+        protected void setupConnection() throws IOException {
+            if (connection == null) {
+                openConnection(null);
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package org.fdroid.fdroid.net;
+
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+
+public class PartialDownloadTest extends AndroidTestCase {
+
+    private static final String ETAG = "\"5e6f-1234\"";
+    private static final String LAST_MODIFIED = "Wed, 21 Oct 2015 07:28:00 GMT";
+
+    private URL url;
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        url = new URL("https://f-droid.org/repo/org.fdroid.fdroid_100.apk");
+        file = new File(getContext().getCacheDir(), "org.fdroid.fdroid_100.apk");
+        PartialDownload.forget(file);
+        file.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        PartialDownload.forget(file);
+        file.delete();
+        super.tearDown();
+    }
+
+    public void testValidator() {
+        // A strong ETag is preferred, because it changes whenever the file does.
+        assertEquals(ETAG, PartialDownload.validatorFor(ETAG, LAST_MODIFIED));
+        assertEquals(ETAG, PartialDownload.validatorFor(ETAG, null));
+        assertEquals(LAST_MODIFIED, PartialDownload.validatorFor(null, LAST_MODIFIED));
+        assertEquals(LAST_MODIFIED, PartialDownload.validatorFor("", LAST_MODIFIED));
+
+        // Weak ETags aren't allowed in an If-Range header.
+        assertEquals(LAST_MODIFIED, PartialDownload.validatorFor("W/" + ETAG, LAST_MODIFIED));
+        assertNull(PartialDownload.validatorFor("W/" + ETAG, null));
+        assertNull(PartialDownload.validatorFor(null, null));
+    }
+
+    public void testRememberAndFind() throws IOException {
+        write(file, 1000);
+        PartialDownload.remember(file, url, ETAG, LAST_MODIFIED, 1000);
+        assertTrue(PartialDownload.exists(file));
+
+        PartialDownload partial = PartialDownload.find(file, url);
+        assertNotNull(partial);
+        assertEquals(1000, partial.getLength());
+        assertEquals(ETAG, partial.getValidator());
+
+        // Only resumed from the same url.
+        assertNull(PartialDownload.find(file, new URL("https://example.com/repo/org.fdroid.fdroid_100.apk")));
+
+        PartialDownload.forget(file);
+        assertFalse(PartialDownload.exists(file));
+        assertNull(PartialDownload.find(file, url));
+    }
+
+    public void testRememberLastModified() throws IOException {
+        write(file, 1000);
+        PartialDownload.remember(file, url, "W/" + ETAG, LAST_MODIFIED, 1000);
+
+        PartialDownload partial = PartialDownload.find(file, url);
+        assertNotNull(partial);
+        assertEquals(LAST_MODIFIED, partial.getValidator());
+    }
+
+    public void testNothingToValidateWith() throws IOException {
+        write(file, 1000);
+        PartialDownload.remember(file, url, ETAG, null, 1000);
+        assertTrue(PartialDownload.exists(file));
+
+        // Remembering it again without a validator must not leave the old one behind.
+        PartialDownload.remember(file, url, "W/" + ETAG, null, 1000);
+        assertFalse(PartialDownload.exists(file));
+        assertNull(PartialDownload.find(file, url));
+    }
+
+    public void testNothingDownloadedYet() throws IOException {
+        write(file, 0);
+        PartialDownload.remember(file, url, ETAG, null, 1000);
+        assertNull(PartialDownload.find(file, url));
+    }
+
+    /**
+     * A preallocated file is at its full length from the start, only what was recorded as
+     * downloaded counts.
+     */
+    public void testRecordedLength() throws IOException {
+        write(file, 5000);
+        PartialDownload.remember(file, url, ETAG, null, 0);
+        assertNull(PartialDownload.find(file, url));
+
+        PartialDownload.setLength(file, 2000);
+        PartialDownload partial = PartialDownload.find(file, url);
+        assertNotNull(partial);
+        assertEquals(2000, partial.getLength());
+        assertEquals(ETAG, partial.getValidator());
+
+        // Never more than is actually in the file.
+        PartialDownload.setLength(file, 8000);
+        assertEquals(5000, PartialDownload.find(file, url).getLength());
+    }
+
+    public void testSetLengthWithoutRemembering() throws IOException {
+        write(file, 5000);
+        PartialDownload.setLength(file, 2000);
+        assertFalse(PartialDownload.exists(file));
+    }
+
+    public void testIsContinuedBy() throws IOException {
+        write(file, 1000);
+        PartialDownload.remember(file, url, ETAG, null, 1000);
+        PartialDownload partial = PartialDownload.find(file, url);
+        assertNotNull(partial);
+
+        assertTrue(partial.isContinuedBy("bytes 1000-1999/2000"));
+        assertTrue(partial.isContinuedBy(" bytes 1000-1999/*"));
+
+        assertFalse(partial.isContinuedBy(null));
+        assertFalse(partial.isContinuedBy("bytes 0-1999/2000"));
+        assertFalse(partial.isContinuedBy("bytes 100-1999/2000"));
+        assertFalse(partial.isContinuedBy("bytes 10000-10999/11000"));
+    }
+
+    private static void write(File file, int length) throws IOException {
+        final FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(new byte[length]);
+        } finally {
+            output.close();
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package org.fdroid.fdroid.net;
+
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class SegmentedDownloadTest extends AndroidTestCase {
+
+    private static final String VALIDATOR = "\"5e6f-1234\"";
+
+    private static final URL SOURCE_URL = newUrl("http://127.0.0.1:1/segmented.apk");
+
+    private static final long LENGTH = 3 * SegmentedDownload.MIN_SEGMENT_LENGTH;
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = new File(getContext().getCacheDir(), "segmented.apk");
+        file.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        PartialDownload.forget(file);
+        file.delete();
+        super.tearDown();
+    }
+
+    public void testSegmentCount() {
+        assertEquals(1, SegmentedDownload.getSegmentCount(SegmentedDownload.MIN_SEGMENT_LENGTH, 6));
+        assertEquals(2, SegmentedDownload.getSegmentCount(2 * SegmentedDownload.MIN_SEGMENT_LENGTH, 6));
+        assertEquals(3, SegmentedDownload.getSegmentCount(LENGTH, 6));
+
+        // Every download running from the same host at once can have as many as this.
+        assertEquals(SegmentedDownload.MAX_SEGMENTS, SegmentedDownload.getSegmentCount(100 * LENGTH, 6));
+        assertTrue(SegmentedDownload.MAX_SEGMENTS * DownloadQueue.MAX_RUNNING_PER_HOST
+                <= HttpConnectionPool.MAX_CONNECTIONS_PER_HOST);
+
+        // Only as many as there are free connections, but always at least one.
+        assertEquals(2, SegmentedDownload.getSegmentCount(LENGTH, 2));
+        assertEquals(1, SegmentedDownload.getSegmentCount(LENGTH, 0));
+    }
+
+    public void testRanges() throws Exception {
+        final FakeServer server = new FakeServer(null);
+        new SegmentedDownload(server.downloader(), LENGTH, VALIDATOR, 3).download();
+
+        final long segment = SegmentedDownload.MIN_SEGMENT_LENGTH;
+        final List<String> ranges = server.getRequestedRanges();
+        Collections.sort(ranges);
+        assertEquals(3, ranges.size());
+        assertEquals("bytes=0-" + (segment - 1), ranges.get(0));
+        assertEquals("bytes=" + segment + "-" + (2 * segment - 1), ranges.get(1));
+        assertEquals("bytes=" + 2 * segment + "-" + (LENGTH - 1), ranges.get(2));
+
+        assertEquals(LENGTH, file.length());
+        assertContents(file, LENGTH);
+    }
+
+    /**
+     * The second segment keeps failing part of the way through, which fails the whole
+     * download. The file is then cut back to the end of what was downloaded from the start
+     * without any gaps, i.e. the whole of the first segment, and as much of the second as
+     * made it, so that it can be resumed from there.
+     */
+    public void testTrimmedOnFailure() throws Exception {
+        final long failAfter = 1000;
+        final FakeServer server = new FakeServer(failAfter);
+        PartialDownload.remember(file, SOURCE_URL, VALIDATOR, null, 0);
+        try {
+            new SegmentedDownload(server.downloader(), LENGTH, VALIDATOR, 3).download();
+            fail();
+        } catch (IOException e) {
+            // Expected.
+        }
+
+        // Each attempt carries on from where the last one stopped.
+        final long expected = SegmentedDownload.MIN_SEGMENT_LENGTH + 3 * failAfter;
+        assertEquals(expected, file.length());
+        assertContents(file, expected);
+        assertEquals(expected, PartialDownload.find(file, SOURCE_URL).getLength());
+    }
+
+    private static URL newUrl(String url) {
+        try {
+            return new URL(url);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static byte byteAt(long offset) {
+        return (byte) (offset % 251);
+    }
+
+    private static void assertContents(File file, long length) throws IOException {
+        final InputStream input = new FileInputStream(file);
+        try {
+            final byte[] buffer = new byte[8192];
+            long offset = 0;
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    assertEquals("Byte " + offset, byteAt(offset), buffer[i]);
+                    offset++;
+                }
+            }
+            assertEquals(length, offset);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Answers each range request from {@link #byteAt(long)}, without going anywhere near
+     * the network.
+     */
+    private class FakeServer {
+
+        /**
+         * If not null, the second segment fails after this many bytes, every time.
+         */
+        private final Long failAfter;
+
+        /**
+         * So that the first segment has finished by the time the second one fails.
+         */
+        private final CountDownLatch firstFinished = new CountDownLatch(1);
+
+        private final List<String> requestedRanges = new ArrayList<>();
+
+        FakeServer(Long failAfter) {
+            this.failAfter = failAfter;
+        }
+
+        synchronized List<String> getRequestedRanges() {
+            return new ArrayList<>(requestedRanges);
+        }
+
+        HttpDownloader downloader() throws IOException {
+            return new HttpDownloader(getContext(), SOURCE_URL, file) {
+                @Override
+                HttpURLConnection openAnotherConnection() throws IOException {
+                    return new FakeConnection(sourceUrl);
+                }
+            };
+        }
+
+        private class FakeConnection extends HttpURLConnection {
+
+            private final Map<String, String> requestProperties = new HashMap<>();
+
+            FakeConnection(URL url) {
+                super(url);
+            }
+
+            @Override
+            public void setRequestProperty(String field, String value) {
+                requestProperties.put(field, value);
+            }
+
+            private long first() {
+                final String range = requestProperties.get(HttpDownloader.HEADER_RANGE);
+                return Long.parseLong(range.substring("bytes=".length(), range.indexOf('-')));
+            }
+
+            private long last() {
+                final String range = requestProperties.get(HttpDownloader.HEADER_RANGE);
+                return Long.parseLong(range.substring(range.indexOf('-') + 1));
+            }
+
+            @Override
+            public int getResponseCode() {
+                return HTTP_PARTIAL;
+            }
+
+            @Override
+            public String getHeaderField(String key) {
+                if (HttpDownloader.HEADER_CONTENT_RANGE.equals(key)) {
+                    return "bytes " + first() + "-" + last() + "/" + LENGTH;
+                }
+                return null;
+            }
+
+            @Override
+            public InputStream getInputStream() throws IOException {
+                assertEquals(VALIDATOR, requestProperties.get(HttpDownloader.HEADER_IF_RANGE));
+                synchronized (FakeServer.this) {
+                    requestedRanges.add(requestProperties.get(HttpDownloader.HEADER_RANGE));
+                }
+
+                final long first = first();
+                final long last = last();
+                final boolean failing = failAfter != null
+                        && first >= SegmentedDownload.MIN_SEGMENT_LENGTH && first < 2 * SegmentedDownload.MIN_SEGMENT_LENGTH;
+                final long end = failing ? Math.min(last + 1, first + failAfter) : last + 1;
+                final byte[] body = new byte[(int) (end - first)];
+                for (int i = 0; i < body.length; i++) {
+                    body[i] = byteAt(first + i);
+                }
+
+                return new ByteArrayInputStream(body) {
+                    @Override
+                    public synchronized int read(byte[] buffer, int offset, int count) {
+                        final int read = super.read(buffer, offset, count);
+                        if (read == -1 && first == 0) {
+                            firstFinished.countDown();
+                        }
+                        return read;
+                    }
+
+                    @Override
+                    public int read(byte[] buffer) throws IOException {
+                        final int read = read(buffer, 0, buffer.length);
+                        if (read == -1 && failing) {
+                            try {
+                                firstFinished.await(10, TimeUnit.SECONDS);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                            throw new IOException("Connection reset");
+                        }
+                        return read;
+                    }
+                };
+            }
+
+            @Override
+            public void disconnect() { }
+
+            @Override
+            public boolean usingProxy() {
+                return false;
+            }
+
+            @Override
+            public void connect() { }
+        }
+    }
+}